@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.BoardOperation;
+import server.Note;
+import server.NoteQuery;
+import server.Pin;
+
+// BulletinBoard operations; the board is shared, so run with -t N to measure lock contention
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    @Param({ "500", "2000" })
+    public int boardSize;
+
+    @Param({ "0.5", "2.0" })
+    public double noteDensity;
+
+    @Param({ "0.1", "0.5" })
+    public double pinDensity;
+
+    private BoardFixture fixture;
+    private NoteQuery colourQuery;
+
+    // rebuilt every iteration because addNote and addPin grow the board
+    @Setup(Level.Iteration)
+    public void setUp() {
+        fixture = new BoardFixture(boardSize, noteDensity, pinDensity, 42);
+        colourQuery = new NoteQuery(java.util.Map.of("color", "RED"));
+    }
+
+    @Benchmark
+    public boolean addNote() {
+        return fixture.board.addNote(fixture.randomNote());
+    }
+
+    @Benchmark
+    public boolean addPin() {
+        int i = ThreadLocalRandom.current().nextInt(fixture.noteCount());
+        return fixture.board.addPin(fixture.noteX[i] + 1, fixture.noteY[i] + 1);
+    }
+
+    @Benchmark
+    public boolean addRemovePin() {
+        int i = ThreadLocalRandom.current().nextInt(fixture.noteCount());
+        int x = fixture.noteX[i] + 2;
+        int y = fixture.noteY[i] + 2;
+        fixture.board.addPin(x, y);
+        return fixture.board.removePin(x, y);
+    }
+
+    // 50 pin/unpin pairs under one lock acquisition; compare with 50 x addRemovePin
+    @Benchmark
+    public boolean[] pinBatch() {
+        List<BoardOperation> ops = new ArrayList<>(100);
+        for (int k = 0; k < 50; k++) {
+            int i = ThreadLocalRandom.current().nextInt(fixture.noteCount());
+            ops.add(BoardOperation.pin(fixture.noteX[i] + 2, fixture.noteY[i] + 2));
+            ops.add(BoardOperation.unpin(fixture.noteX[i] + 2, fixture.noteY[i] + 2));
+        }
+        boolean[] applied = new boolean[ops.size()];
+        fixture.board.applyBatch(ops, false, applied);
+        return applied;
+    }
+
+    @Benchmark
+    public List<Note> getAll() {
+        return fixture.board.getNotes();
+    }
+
+    @Benchmark
+    public List<Pin> getPins() {
+        return fixture.board.getPins();
+    }
+
+    @Benchmark
+    public List<Note> getByColour() {
+        return fixture.board.getNotesByColour("RED");
+    }
+
+    @Benchmark
+    public List<Note> getByContent() {
+        return fixture.board.getNotesByContent("see");
+    }
+
+    @Benchmark
+    public List<Note> getContaining() {
+        int i = ThreadLocalRandom.current().nextInt(fixture.noteCount());
+        return fixture.board.getNotesContaining(fixture.noteX[i] + 1, fixture.noteY[i] + 1);
+    }
+
+    // the path ClientHandler takes for GET color=RED
+    @Benchmark
+    public List<Note> getQueryColour() {
+        return colourQuery.filter(fixture.board.getNotes(), BoardFixture.NOTE_WIDTH, BoardFixture.NOTE_HEIGHT);
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import server.BulletinBoard;
+import server.Note;
+
+// builds a populated board for the benchmarks
+// boardSize is the side of a square board; noteDensity is the fraction of the
+// board area covered by notes; pinDensity is the fraction of notes with a pin
+public class BoardFixture {
+    public static final int NOTE_WIDTH = 20;
+    public static final int NOTE_HEIGHT = 10;
+    public static final String[] COLOURS = { "RED", "BLUE", "GREEN" };
+    public static final String[] MESSAGES = {
+            "TODO", "see above", "meeting at 3", "buy milk", "call back re: invoice", "done", "ask about the build" };
+
+    public final BulletinBoard board;
+    // origin of every note added, in insertion order
+    public final int[] noteX;
+    public final int[] noteY;
+    public final List<int[]> pins = new ArrayList<>();
+    private final Random random;
+    private final int boardSize;
+    private int nextId;
+
+    public BoardFixture(int boardSize, double noteDensity, double pinDensity, long seed) {
+        this.boardSize = boardSize;
+        this.random = new Random(seed);
+        this.board = new BulletinBoard(boardSize, boardSize, NOTE_WIDTH, NOTE_HEIGHT);
+        int target = (int) (noteDensity * boardSize * boardSize / (NOTE_WIDTH * NOTE_HEIGHT));
+        int[] xs = new int[target];
+        int[] ys = new int[target];
+        int count = 0;
+        int attempts = 0;
+        while (count < target && attempts < target * 4) {
+            attempts++;
+            Note note = randomNote();
+            if (board.addNote(note)) {
+                xs[count] = note.getX();
+                ys[count] = note.getY();
+                count++;
+            }
+        }
+        this.noteX = java.util.Arrays.copyOf(xs, count);
+        this.noteY = java.util.Arrays.copyOf(ys, count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < pinDensity) {
+                int px = noteX[i] + random.nextInt(NOTE_WIDTH);
+                int py = noteY[i] + random.nextInt(NOTE_HEIGHT);
+                board.addPin(px, py);
+                pins.add(new int[] { px, py });
+            }
+        }
+    }
+
+    // a note at a random in-bounds position
+    public Note randomNote() {
+        int x = random.nextInt(boardSize - NOTE_WIDTH + 1);
+        int y = random.nextInt(boardSize - NOTE_HEIGHT + 1);
+        return new Note(nextId++, x, y, COLOURS[random.nextInt(COLOURS.length)],
+                MESSAGES[random.nextInt(MESSAGES.length)]);
+    }
+
+    public int noteCount() {
+        return noteX.length;
+    }
+}
@@ -0,0 +1,481 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import server.BoardOperation;
+import server.BulletinBoard;
+import server.Note;
+import server.Pin;
+
+// cross-checks the board's indexes against brute force over getNotes() and getPins(): region,
+// contains and nearest queries (SpatialGrid), region counts (RegionCounts), filtered counts, TTL expiry
+// (TimingWheel) and the rollback of an atomic BATCH. boards are random and churned between checks
+// so the indexes see removals as well as inserts. prints the first mismatches and exits 1 if any
+//   java -cp benchmarks/target/benchmarks.jar benchmarks.IndexCheck [seed] [rounds]
+public class IndexCheck {
+    private static final int MAX_REPORTED = 20;
+    // board width, board height, note width, note height
+    private static final int[][] SHAPES = {
+            { 400, 300, 20, 10 }, { 1000, 1000, 20, 10 }, { 64, 64, 1, 1 }, { 300, 200, 150, 100 }, { 50, 40, 50, 40 } };
+
+    private final Random random;
+    private long checks;
+    private int mismatches;
+
+    IndexCheck(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        IndexCheck check = new IndexCheck(seed);
+        for (int round = 0; round < rounds; round++) {
+            for (int[] shape : SHAPES) {
+                check.checkQueries(shape);
+                check.checkExpiry(shape);
+                check.checkAtomicBatch(shape);
+            }
+        }
+        System.out.println("index check (seed " + seed + ", " + rounds + " rounds): " + check.checks + " checks, "
+                + check.mismatches + " mismatches");
+        if (check.mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    // region, contains and count queries on a board churned by posts, removals, pins and shakes
+    private void checkQueries(int[] shape) {
+        Board b = new Board(shape);
+        // sometimes sparse, so nearest searches run out of rings and fall back to a scan
+        b.fill(random.nextInt(4) == 0 ? 0.02 : random.nextDouble() * 3);
+        for (int step = 0; step < 4; step++) {
+            b.churn();
+            b.compareQueries(60);
+        }
+        b.board.shake();
+        b.compareQueries(20);
+    }
+
+    // TTL notes leave exactly when their deadline tick has passed, taking the pins only they held
+    private void checkExpiry(int[] shape) {
+        Board b = new Board(shape);
+        long start = System.currentTimeMillis();
+        Map<Note, Long> deadlines = new HashMap<>();
+        int attempts = Math.min(b.capacity(), b.boardWidth * b.boardHeight / (b.noteWidth * b.noteHeight));
+        for (int i = 0; i < attempts; i++) {
+            Note note = b.randomNote();
+            long deadline = -1;
+            if (random.nextInt(3) > 0) {
+                // spread over the first three wheel levels
+                long span = random.nextInt(4) == 0 ? 3 * 3600_000L : random.nextInt(2) == 0 ? 600_000 : 6_000;
+                deadline = start + (long) (random.nextDouble() * span);
+                note.expireAt(deadline);
+            }
+            if (b.board.addNote(note) && deadline >= 0) {
+                deadlines.put(note, deadline);
+            }
+        }
+        b.pinSome(0.3);
+        // a removed note's entry must leave the wheel too
+        for (Note note : b.board.getNotes()) {
+            if (deadlines.containsKey(note) && random.nextInt(10) == 0 && !b.isPinned(note)) {
+                b.board.removeNote(note.getId());
+                deadlines.remove(note);
+            }
+        }
+        b.notesBefore = b.board.getNotes();
+        check(b.board.getExpiringNoteCount() == deadlines.size(), "expiring count " + b.board.getExpiringNoteCount()
+                + ", expected " + deadlines.size());
+
+        List<int[]> expectedPins = b.pinCoords();
+        long now = start;
+        long end = start + 3 * 3600_000L + 1000;
+        while (now < end) {
+            now += random.nextInt(4) == 0 ? random.nextInt(900_000) : random.nextInt(3000);
+            // a few at a time, as the expirer does
+            while (b.board.expireDue(now, 1 + random.nextInt(8)) > 0) {
+            }
+            long nowTick = now / 100;
+            List<Note> expected = new ArrayList<>();
+            List<Note> expired = new ArrayList<>();
+            for (Note note : b.notesBefore) {
+                Long deadline = deadlines.get(note);
+                if (deadline == null || (deadline + 99) / 100 > nowTick) {
+                    expected.add(note);
+                } else {
+                    expired.add(note);
+                }
+            }
+            List<Note> actual = b.board.getNotes();
+            check(expected.equals(actual), "after expiry at +" + (now - start) + " ms: " + actual.size()
+                    + " notes, expected " + expected.size());
+            b.notesBefore = actual;
+            deadlines.keySet().retainAll(actual);
+            check(b.board.getExpiringNoteCount() == deadlines.size(), "expiring count " + b.board.getExpiringNoteCount()
+                    + " at +" + (now - start) + " ms, expected " + deadlines.size());
+            // only pins under a note that went can have lost their cover
+            expectedPins.removeIf(p -> b.covering(expired, p[0], p[1]) > 0 && b.covering(actual, p[0], p[1]) == 0);
+            check(samePins(expectedPins, b.board.getPins()), "pins after expiry at +" + (now - start) + " ms: "
+                    + b.board.getPins().size() + ", expected " + expectedPins.size());
+            b.compareQueries(5);
+        }
+    }
+
+    // an atomic BATCH whose last operation fails leaves notes, pins, version and indexes as they were
+    private void checkAtomicBatch(int[] shape) {
+        Board b = new Board(shape);
+        b.fill(random.nextDouble() * 2);
+        b.pinSome(0.3);
+        for (int attempt = 0; attempt < 10; attempt++) {
+            List<Note> notesBefore = new ArrayList<>();
+            List<Pin> pinsBefore = new ArrayList<>();
+            long versionBefore = b.board.snapshot(notesBefore, pinsBefore);
+
+            List<BoardOperation> ops = new ArrayList<>();
+            List<int[]> pinned = b.pinCoords();
+            int count = 1 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                int kind = random.nextInt(3);
+                if (kind == 0) {
+                    ops.add(BoardOperation.post(b.randomNote()));
+                } else if (kind == 1 && !notesBefore.isEmpty()) {
+                    Note note = notesBefore.get(random.nextInt(notesBefore.size()));
+                    int x = note.getX() + random.nextInt(b.noteWidth);
+                    int y = note.getY() + random.nextInt(b.noteHeight);
+                    ops.add(BoardOperation.pin(x, y));
+                    pinned.add(new int[] { x, y });
+                } else if (!pinned.isEmpty()) {
+                    // sometimes a pin this batch added, to undo a PIN and an UNPIN of the same pin
+                    int[] p = pinned.remove(random.nextInt(pinned.size()));
+                    ops.add(BoardOperation.unpin(p[0], p[1]));
+                }
+            }
+            ops.add(failingOperation(b, notesBefore));
+            boolean[] applied = new boolean[ops.size()];
+            int failed = b.board.applyBatch(ops, true, applied);
+
+            List<Note> notesAfter = new ArrayList<>();
+            List<Pin> pinsAfter = new ArrayList<>();
+            long versionAfter = b.board.snapshot(notesAfter, pinsAfter);
+            check(failed >= 0, "atomic batch with a failing operation returned " + failed);
+            boolean anyApplied = false;
+            for (boolean a : applied) {
+                anyApplied |= a;
+            }
+            check(!anyApplied, "atomic batch left operations marked applied");
+            check(versionAfter == versionBefore, "atomic batch moved the version " + versionBefore + " -> "
+                    + versionAfter);
+            check(notesAfter.equals(notesBefore), "atomic batch changed the notes: " + notesAfter.size() + ", was "
+                    + notesBefore.size());
+            check(samePins(pinCoords(pinsBefore), pinsAfter), "atomic batch changed the pins: " + pinsAfter.size()
+                    + ", was " + pinsBefore.size());
+            b.notesBefore = notesAfter;
+            b.compareQueries(20);
+            b.churn();
+        }
+    }
+
+    // a POST on a taken origin when there is one, otherwise a pin off the board
+    private BoardOperation failingOperation(Board b, List<Note> notes) {
+        if (!notes.isEmpty() && random.nextBoolean()) {
+            Note taken = notes.get(random.nextInt(notes.size()));
+            return BoardOperation.post(new Note(b.nextId++, taken.getX(), taken.getY(), "RED", "taken"));
+        }
+        return random.nextBoolean() ? BoardOperation.pin(-1, 0) : BoardOperation.unpin(b.boardWidth, b.boardHeight);
+    }
+
+    private static List<int[]> pinCoords(List<Pin> pins) {
+        List<int[]> coords = new ArrayList<>(pins.size());
+        for (Pin pin : pins) {
+            coords.add(new int[] { pin.getX(), pin.getY() });
+        }
+        return coords;
+    }
+
+    // same coordinates in the same order
+    private static boolean samePins(List<int[]> expected, List<Pin> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!actual.get(i).isAt(expected.get(i)[0], expected.get(i)[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            mismatches++;
+            if (mismatches <= MAX_REPORTED) {
+                System.out.println("MISMATCH " + what);
+            }
+        }
+    }
+
+    // a board under test and the brute-force answers about it
+    private final class Board {
+        final BulletinBoard board;
+        final int boardWidth;
+        final int boardHeight;
+        final int noteWidth;
+        final int noteHeight;
+        final String[] colours = BoardFixture.COLOURS;
+        // the notes as last read back, for checks that need the state before an operation
+        List<Note> notesBefore = new ArrayList<>();
+        long nextId;
+
+        Board(int[] shape) {
+            boardWidth = shape[0];
+            boardHeight = shape[1];
+            noteWidth = shape[2];
+            noteHeight = shape[3];
+            board = new BulletinBoard(boardWidth, boardHeight, noteWidth, noteHeight);
+        }
+
+        // how many origins there are
+        int capacity() {
+            return (boardWidth - noteWidth + 1) * (boardHeight - noteHeight + 1);
+        }
+
+        Note randomNote() {
+            int x = random.nextInt(boardWidth - noteWidth + 1);
+            int y = random.nextInt(boardHeight - noteHeight + 1);
+            return new Note(nextId++, x, y, colours[random.nextInt(colours.length)],
+                    BoardFixture.MESSAGES[random.nextInt(BoardFixture.MESSAGES.length)]);
+        }
+
+        // posts notes until they cover about density times the board area, or the origins run out
+        void fill(double density) {
+            int target = (int) Math.min(capacity(), density * boardWidth * boardHeight / (noteWidth * noteHeight));
+            for (int i = 0; i < target * 2 && board.getNoteCount() < target; i++) {
+                board.addNote(randomNote());
+            }
+            notesBefore = board.getNotes();
+        }
+
+        // pins about fraction of the notes, somewhere inside each
+        void pinSome(double fraction) {
+            for (Note note : board.getNotes()) {
+                if (random.nextDouble() < fraction) {
+                    board.addPin(note.getX() + random.nextInt(noteWidth), note.getY() + random.nextInt(noteHeight));
+                }
+            }
+            notesBefore = board.getNotes();
+        }
+
+        // removes some notes and pins by each route and posts and pins some more
+        void churn() {
+            List<Note> notes = board.getNotes();
+            for (Note note : notes) {
+                int r = random.nextInt(12);
+                if (r == 0) {
+                    board.removeNote(note.getId());
+                } else if (r == 1) {
+                    board.removeNoteAt(note.getX(), note.getY());
+                }
+            }
+            for (Pin pin : board.getPins()) {
+                if (random.nextInt(4) == 0) {
+                    board.removePin(pin.getX(), pin.getY());
+                }
+            }
+            int posts = notes.size() / 6 + 1;
+            for (int i = 0; i < posts; i++) {
+                board.addNote(randomNote());
+            }
+            pinSome(0.1);
+            if (random.nextInt(10) == 0) {
+                board.shake();
+            }
+            notesBefore = board.getNotes();
+        }
+
+        List<int[]> pinCoords() {
+            return IndexCheck.pinCoords(board.getPins());
+        }
+
+        boolean overlaps(Note n, long x, long y, long w, long h) {
+            return w > 0 && h > 0 && n.getX() < x + w && n.getX() + noteWidth > x && n.getY() < y + h
+                    && n.getY() + noteHeight > y;
+        }
+
+        int covering(List<Note> notes, int x, int y) {
+            int count = 0;
+            for (Note n : notes) {
+                if (overlaps(n, x, y, 1, 1)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        boolean isPinned(Note note) {
+            return pinnedBy(note, board.getPins());
+        }
+
+        // random rectangles, some empty, off the board, or larger than it
+        int[] randomRegion() {
+            int r = random.nextInt(10);
+            if (r == 0) {
+                return new int[] { -random.nextInt(10), -random.nextInt(10), boardWidth + 20, boardHeight + 20 };
+            }
+            int x = random.nextInt(boardWidth + 2 * noteWidth) - noteWidth;
+            int y = random.nextInt(boardHeight + 2 * noteHeight) - noteHeight;
+            if (r == 1) {
+                return new int[] { x, y, random.nextInt(3) - 1, random.nextInt(3) - 1 };
+            }
+            if (r == 2) {
+                return new int[] { x, y, Integer.MAX_VALUE - Math.max(0, x), 1 + random.nextInt(boardHeight) };
+            }
+            int maxSide = r < 6 ? 3 * Math.max(noteWidth, noteHeight) : Math.max(boardWidth, boardHeight);
+            return new int[] { x, y, 1 + random.nextInt(maxSide), 1 + random.nextInt(maxSide) };
+        }
+
+        void compareQueries(int count) {
+            List<Note> notes = board.getNotes();
+            List<Pin> pins = board.getPins();
+            for (int q = 0; q < count; q++) {
+                int[] r = randomRegion();
+                String where = " for " + r[0] + "," + r[1] + " " + r[2] + "x" + r[3] + " on " + boardWidth + "x"
+                        + boardHeight + "/" + noteWidth + "x" + noteHeight;
+                List<Note> expected = new ArrayList<>();
+                for (Note n : notes) {
+                    if (overlaps(n, r[0], r[1], r[2], r[3])) {
+                        expected.add(n);
+                    }
+                }
+                List<Note> inRegion = board.getNotesInRegion(r[0], r[1], r[2], r[3]);
+                check(expected.equals(inRegion), "region " + inRegion.size() + " notes, expected " + expected.size()
+                        + where);
+                int counted = board.countNotesInRegion(r[0], r[1], r[2], r[3]);
+                check(counted == expected.size(), "region count " + counted + ", expected " + expected.size() + where);
+
+                // a filter and pinned state go through the scan with the grid picking the candidates
+                String colour = colours[random.nextInt(colours.length)];
+                Predicate<Note> filter = n -> n.getColour().equals(colour);
+                Boolean pinned = random.nextInt(3) == 0 ? null : random.nextBoolean();
+                int expectedFiltered = 0;
+                for (Note n : expected) {
+                    if (filter.test(n) && (pinned == null || pinned == pinnedBy(n, pins))) {
+                        expectedFiltered++;
+                    }
+                }
+                int filtered = board.countNotes(r, filter, pinned);
+                check(filtered == expectedFiltered, "filtered count " + filtered + ", expected " + expectedFiltered
+                        + " (" + colour + ", pinned " + pinned + ")" + where);
+
+                int px = r[0] + (r[2] > 0 ? random.nextInt(Math.min(r[2], boardWidth + 1)) : 0);
+                int py = r[1] + (r[3] > 0 ? random.nextInt(Math.min(r[3], boardHeight + 1)) : 0);
+                List<Note> containing = new ArrayList<>();
+                for (Note n : notes) {
+                    if (overlaps(n, px, py, 1, 1)) {
+                        containing.add(n);
+                    }
+                }
+                check(containing.equals(board.getNotesContaining(px, py)), "contains at " + px + "," + py + where);
+            }
+            for (int q = 0; q < count; q++) {
+                compareNearest(notes);
+            }
+            for (String colour : colours) {
+                int expectedPinned = 0;
+                int expectedCount = 0;
+                for (Note n : notes) {
+                    if (n.getColour().equals(colour)) {
+                        expectedCount++;
+                        if (pinnedBy(n, pins)) {
+                            expectedPinned++;
+                        }
+                    }
+                }
+                check(board.getNoteCount(colour) == expectedCount, colour + " count " + board.getNoteCount(colour)
+                        + ", expected " + expectedCount);
+                check(board.getPinnedNoteCount(colour) == expectedPinned, colour + " pinned count "
+                        + board.getPinnedNoteCount(colour) + ", expected " + expectedPinned);
+            }
+        }
+
+        // the k nearest against a stable sort of the board order by distance, so equally near
+        // notes must come in board (slot) order; points may be off the board, even far off, and k
+        // may exceed the notes that pass
+        void compareNearest(List<Note> notes) {
+            int x;
+            int y;
+            int r = random.nextInt(8);
+            if (r == 0 && !notes.isEmpty()) {
+                // on a note's corner, where notes around it tie
+                Note n = notes.get(random.nextInt(notes.size()));
+                x = n.getX() + (random.nextBoolean() ? 0 : noteWidth - 1);
+                y = n.getY() + (random.nextBoolean() ? 0 : noteHeight - 1);
+            } else if (r == 1) {
+                x = random.nextInt(1 << 21) - (1 << 20);
+                y = random.nextInt(1 << 21) - (1 << 20);
+            } else {
+                x = random.nextInt(3 * boardWidth) - boardWidth;
+                y = random.nextInt(3 * boardHeight) - boardHeight;
+            }
+            int k = random.nextInt(4) == 0 ? notes.size() + 1 + random.nextInt(5) : 1 + random.nextInt(10);
+            Predicate<Note> filter;
+            String what;
+            int f = random.nextInt(4);
+            if (f == 0) {
+                filter = n -> true;
+                what = "all";
+            } else if (f == 1) {
+                String colour = colours[random.nextInt(colours.length)];
+                filter = n -> n.getColour().equals(colour);
+                what = colour;
+            } else if (f == 2) {
+                String message = BoardFixture.MESSAGES[random.nextInt(BoardFixture.MESSAGES.length)];
+                byte[] needle = message.getBytes(StandardCharsets.UTF_8);
+                filter = n -> n.messageContains(needle);
+                what = "\"" + message + "\"";
+            } else {
+                // rare enough that the search looks far
+                long id = notes.isEmpty() ? -1 : notes.get(random.nextInt(notes.size())).getIdValue();
+                filter = n -> n.getIdValue() == id;
+                what = "id " + id;
+            }
+
+            List<Note> passing = new ArrayList<>();
+            for (Note n : notes) {
+                if (filter.test(n)) {
+                    passing.add(n);
+                }
+            }
+            // List.sort is stable, so ties keep board order
+            passing.sort((a, b) -> Long.compare(distance(a, x, y), distance(b, x, y)));
+            List<Note> expected = passing.subList(0, Math.min(k, passing.size()));
+            List<Note> actual = board.getNearestNotes(x, y, k, filter);
+            check(expected.equals(actual), "nearest " + k + " (" + what + ") to " + x + "," + y + ": "
+                    + actual.size() + " notes, expected " + expected.size() + " on " + boardWidth + "x" + boardHeight
+                    + "/" + noteWidth + "x" + noteHeight + " with " + notes.size() + " notes");
+        }
+
+        // squared, from the point to the nearest unit of the note
+        long distance(Note n, long x, long y) {
+            long dx = Math.max(0, Math.max(n.getX() - x, x - (n.getX() + noteWidth - 1L)));
+            long dy = Math.max(0, Math.max(n.getY() - y, y - (n.getY() + noteHeight - 1L)));
+            return dx * dx + dy * dy;
+        }
+
+        boolean pinnedBy(Note note, List<Pin> pins) {
+            for (Pin pin : pins) {
+                if (overlaps(note, pin.getX(), pin.getY(), 1, 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
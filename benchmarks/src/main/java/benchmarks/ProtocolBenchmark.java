@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import utils.CommandParser;
+import utils.ParsedCommand;
+import utils.ProtocolParser;
+
+// command parsing: the String-based ProtocolParser path and the byte-level
+// CommandParser that ClientHandler uses; run with -prof gc to compare allocations
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    public String postLine = "POST 120 45 RED call back re: invoice";
+    public String pinLine = "PIN 125 50";
+    public String unpinLine = "UNPIN 125 50";
+    public String getLine = "GET color=RED contains=125 50 refersTo=invoice";
+
+    private final byte[] postBytes = postLine.getBytes(StandardCharsets.UTF_8);
+    private final byte[] pinBytes = pinLine.getBytes(StandardCharsets.UTF_8);
+    private final byte[] redBytes = "RED".getBytes(StandardCharsets.UTF_8);
+    private final ParsedCommand parsed = new ParsedCommand();
+
+    @Benchmark
+    public void parsePost(Blackhole bh) {
+        bh.consume(ProtocolParser.isValidCommand(postLine));
+        bh.consume(ProtocolParser.parseCommandType(postLine));
+        bh.consume(ProtocolParser.parsePostCommand(ProtocolParser.parseParameters(postLine)));
+    }
+
+    @Benchmark
+    public void parsePin(Blackhole bh) {
+        bh.consume(ProtocolParser.isValidCommand(pinLine));
+        bh.consume(ProtocolParser.parseCommandType(pinLine));
+        bh.consume(ProtocolParser.parsePinCommand(ProtocolParser.parseParameters(pinLine)));
+    }
+
+    @Benchmark
+    public void parseUnpin(Blackhole bh) {
+        bh.consume(ProtocolParser.isValidCommand(unpinLine));
+        bh.consume(ProtocolParser.parseCommandType(unpinLine));
+        bh.consume(ProtocolParser.parseUnpinCommand(ProtocolParser.parseParameters(unpinLine)));
+    }
+
+    @Benchmark
+    public Map<String, String> parseGetFilters() {
+        String params = ProtocolParser.parseGetCommand(ProtocolParser.parseParameters(getLine));
+        return ProtocolParser.parseGetFilters(params);
+    }
+
+    @Benchmark
+    public boolean parsePostBytes() {
+        CommandParser.parse(postBytes, 0, postBytes.length, parsed);
+        return parsed.colourEquals(redBytes) && parsed.getX() == 120;
+    }
+
+    @Benchmark
+    public int parsePinBytes() {
+        CommandParser.parse(pinBytes, 0, pinBytes.length, parsed);
+        return parsed.getX() + parsed.getY();
+    }
+}
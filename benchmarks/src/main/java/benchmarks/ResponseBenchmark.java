@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.EncodedResponse;
+import server.Note;
+import server.Pin;
+import server.Responses;
+
+// serialization of GET and GET PINS responses
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({ "500", "2000" })
+    public int boardSize;
+
+    @Param({ "0.5", "2.0" })
+    public double noteDensity;
+
+    @Param({ "0.1", "0.5" })
+    public double pinDensity;
+
+    private List<Note> notes;
+    private List<Pin> pins;
+
+    @Setup
+    public void setUp() {
+        BoardFixture fixture = new BoardFixture(boardSize, noteDensity, pinDensity, 42);
+        notes = fixture.board.getNotes();
+        pins = fixture.board.getPins();
+    }
+
+    @Benchmark
+    public String formatNotes() {
+        return Responses.formatNotes(notes);
+    }
+
+    // what actually reaches the socket: formatting plus charset encoding
+    @Benchmark
+    public byte[] formatNotesEncoded() {
+        return Responses.formatNotes(notes).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // what ClientHandler sends now: pre-encoded note fragments gathered into one write
+    @Benchmark
+    public EncodedResponse encodeNotes() {
+        return Responses.encodeNotes(notes);
+    }
+
+    @Benchmark
+    public String formatPins() {
+        return Responses.formatPins(pins);
+    }
+}
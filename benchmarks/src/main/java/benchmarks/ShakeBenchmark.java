@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// SHAKE destroys the board, so each measurement is one shake of a freshly built board
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ShakeBenchmark {
+    @Param({ "500", "2000" })
+    public int boardSize;
+
+    @Param({ "0.5", "2.0" })
+    public double noteDensity;
+
+    @Param({ "0.1", "0.5" })
+    public double pinDensity;
+
+    private BoardFixture fixture;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        fixture = new BoardFixture(boardSize, noteDensity, pinDensity, 42);
+    }
+
+    @Benchmark
+    public int shake() {
+        return fixture.board.shake();
+    }
+}
@@ -4,7 +4,7 @@ $ErrorActionPreference = "Stop"
 $root = $PSScriptRoot
 
 Write-Host "Creating build directories..."
-New-Item -ItemType Directory -Force -Path "$root\build\shared", "$root\build\server", "$root\build\client" | Out-Null
+New-Item -ItemType Directory -Force -Path "$root\build\shared", "$root\build\server", "$root\build\client", "$root\build\tools" | Out-Null
 
 Write-Host "Compiling shared (from server/shared)..."
 javac -d "$root\build\shared" `
@@ -14,11 +14,16 @@ javac -d "$root\build\shared" `
 Write-Host "Compiling server..."
 javac -cp "$root\build\shared" -d "$root\build\server" `
     "$root\server\src\main\java\server\*.java" `
-    "$root\server\src\main\java\server\utils\*.java"
+    "$root\server\src\main\java\server\utils\*.java" `
+    "$root\server\src\main\java\server\jfr\*.java"
 
 Write-Host "Compiling client..."
 javac -cp "$root\build\shared" -d "$root\build\client" `
     "$root\client\src\main\java\client\*.java" `
     "$root\client\src\main\java\client\gui\*.java"
 
+Write-Host "Compiling tools..."
+javac -cp "$root\build\shared" -d "$root\build\tools" `
+    "$root\tools\src\main\java\tools\*.java"
+
 Write-Host "Build complete."
@@ -1,23 +1,40 @@
 package client;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.SwingUtilities;
 import shared.Protocol;
 
 // manages the TCP connection to the server
+//
+// send and sendAll return a future per command and may be called again before earlier replies
+// arrive. the server answers untagged commands in order, so replies are matched to a FIFO of the
+// futures still waiting; the listener thread completes them, so callers that touch Swing must hop
+// to the EDT themselves. sendAll writes its commands with one flush, so they travel together
 public class ClientConnection {
     private Socket socket;
     private BufferedReader in;
     private PrintWriter out;
     private String hostname;
     private int port;
-    private boolean connected;
+    private volatile boolean connected;
     private ServerMessageListener messageListener;
+    // when we last sent anything; the keepalive only pings an otherwise quiet connection
+    private volatile long lastSentMillis;
+    // one future per command sent and not yet answered, in the order sent
+    private final ConcurrentLinkedQueue<CompletableFuture<Response>> pending = new ConcurrentLinkedQueue<>();
+    // keeps each batch of lines and its futures in the same order
+    private final Object sendLock = new Object();
 
     // constructs a new ClientConnection
     public ClientConnection(String hostname, int port) {
@@ -32,7 +49,9 @@ public class ClientConnection {
             Socket clientSocket = new Socket(hostname, port);
             this.socket = clientSocket;
             this.in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            this.out = new PrintWriter(clientSocket.getOutputStream(), true);
+            // flushed by sendAll once per batch
+            this.out = new PrintWriter(
+                    new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()), 8192), false);
             this.connected = true;
             return true;
         } catch (IOException e) {
@@ -51,18 +70,42 @@ public class ClientConnection {
         }
     }
 
-    // sends a command to the server
-    public boolean sendCommand(String command) {
-        try {
-            out.println(command);
-            return true;
-        } catch (Exception e) {
-            System.err.println("Error sending command to the server: " + e.getMessage());
-            return false;
+    // sends a command; the future completes with its response, or exceptionally if the
+    // connection is lost first
+    public CompletableFuture<Response> send(String command) {
+        return sendAll(List.of(command)).get(0);
+    }
+
+    // sends the commands back to back in one write; the futures are in the same order
+    public List<CompletableFuture<Response>> sendAll(List<String> commands) {
+        List<CompletableFuture<Response>> futures = new ArrayList<>(commands.size());
+        boolean failed;
+        synchronized (sendLock) {
+            for (String command : commands) {
+                CompletableFuture<Response> future = new CompletableFuture<>();
+                pending.add(future);
+                futures.add(future);
+                out.print(command + Protocol.LINE_END);
+            }
+            // flushes, and reports any IOException PrintWriter swallowed
+            failed = out.checkError();
+            lastSentMillis = System.currentTimeMillis();
+        }
+        if (failed) {
+            System.err.println("Error sending command to the server");
+            failPending(new IOException("Error sending command to the server"));
         }
+        return futures;
+    }
+
+    // sends a command whose response goes to the ServerMessageListener
+    public boolean sendCommand(String command) {
+        CompletableFuture<Response> future = send(command);
+        future.thenAccept(response -> handleServerMessage(response.getLine()));
+        return !future.isCompletedExceptionally();
     }
 
-    // receives a response from the server
+    // receives a response from the server; only before startListening, e.g. for the greeting
     public String receiveResponse() {
         try {
             return in.readLine();
@@ -82,26 +125,67 @@ public class ClientConnection {
         this.messageListener = listener;
     }
 
-    // starts a background thread to listen for server messages
+    // starts a background thread that completes the futures of sent commands in order; a line
+    // no command is waiting for goes to the ServerMessageListener
     public void startListening() {
         Thread listenerThread = new Thread(() -> {
             try {
                 String message;
                 while ((message = in.readLine()) != null) {
-                    handleServerMessage(message);
+                    CompletableFuture<Response> future = pending.poll();
+                    if (future != null) {
+                        future.complete(new Response(message));
+                    } else {
+                        handleServerMessage(message);
+                    }
                 }
             } catch (IOException e) {
                 System.err.println("Error reading from the server: " + e.getMessage());
             }
+            connected = false;
+            failPending(new IOException("Connection closed"));
         });
         listenerThread.start();
     }
 
+    private void failPending(IOException cause) {
+        CompletableFuture<Response> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    // starts a background thread that sends PING whenever nothing was sent for intervalMillis,
+    // so the server's idle timeout does not drop a client that is just being looked at
+    public void startKeepalive(long intervalMillis) {
+        lastSentMillis = System.currentTimeMillis();
+        Thread keepaliveThread = new Thread(() -> {
+            while (connected) {
+                long idle = System.currentTimeMillis() - lastSentMillis;
+                try {
+                    if (idle >= intervalMillis) {
+                        send(Protocol.CMD_PING);
+                    } else {
+                        Thread.sleep(intervalMillis - idle);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "keepalive");
+        keepaliveThread.setDaemon(true);
+        keepaliveThread.start();
+    }
+
     // handles an incoming message from the server
     private void handleServerMessage(String message) {
         if (message == null || message.trim().isEmpty()) {
             return;
         }
+        // keepalive answers are not responses to anything the window sent
+        if (message.equals(Protocol.RESP_PONG)) {
+            return;
+        }
 
         if (message.startsWith(Protocol.RESP_ERROR)) {
             String errorMsg = message.substring(Protocol.RESP_ERROR.length()).trim();
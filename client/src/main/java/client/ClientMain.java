@@ -14,6 +14,9 @@ public class ClientMain {
     // default server port when not specified
     private static final int DEFAULT_PORT = 6767;
 
+    // how long the connection may sit unused before we PING; well under the server's idle timeout
+    private static final long KEEPALIVE_INTERVAL_MILLIS = 60_000;
+
     // main entry point for the client application
     public static void main(String[] args) {
         String hostname = parseHostname(args);
@@ -45,6 +48,7 @@ public class ClientMain {
         int noteHeight = dimensions[3];
 
         connection.startListening();
+        connection.startKeepalive(KEEPALIVE_INTERVAL_MILLIS);
 
         final ClientConnection conn = connection;
         final int bw = boardWidth;
@@ -0,0 +1,40 @@
+package client;
+
+import shared.Protocol;
+
+// one response line from the server, as a ClientConnection future completes with it
+public class Response {
+    private final String line;
+
+    public Response(String line) {
+        this.line = line;
+    }
+
+    public boolean isOk() {
+        return line.equals(Protocol.RESP_OK) || line.startsWith(Protocol.RESP_OK + " ");
+    }
+
+    public boolean isError() {
+        return line.startsWith(Protocol.RESP_ERROR);
+    }
+
+    // what follows OK or ERROR, trimmed; the whole line for anything else
+    public String getBody() {
+        if (isOk()) {
+            return line.substring(Protocol.RESP_OK.length()).trim();
+        }
+        if (isError()) {
+            return line.substring(Protocol.RESP_ERROR.length()).trim();
+        }
+        return line;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
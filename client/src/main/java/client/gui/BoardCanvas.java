@@ -0,0 +1,250 @@
+package client.gui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// the board as one custom-painted component: notes and pins are plain NoteWidget/PinWidget data,
+// bucketed by origin into grids of cells a few notes wide. paint draws only what the clip meets,
+// so a scrolled view costs the visible notes, not the board. setNotes and setPins compare the
+// new contents with the old and repaint only the rectangles that changed; hit-testing (tooltips,
+// which notes hold a pin) looks in the cells around the point
+public class BoardCanvas extends JComponent {
+    private static final int CELL_NOTES = 4;
+    // past this many changed rectangles the whole board is repainted instead
+    private static final int MAX_DIRTY_RECTS = 64;
+    private static final Color BOARD_BG = Color.WHITE;
+    private static final Color BOARD_BORDER = new Color(220, 220, 224);
+
+    private final int boardWidth;
+    private final int boardHeight;
+    private final int noteWidth;
+    private final int noteHeight;
+    private final Font noteFont;
+    private List<NoteWidget> notes = new ArrayList<>();
+    private List<PinWidget> pins = new ArrayList<>();
+    private Grid noteGrid;
+    private Grid pinGrid;
+
+    public BoardCanvas(int boardWidth, int boardHeight, int noteWidth, int noteHeight) {
+        this.boardWidth = boardWidth;
+        this.boardHeight = boardHeight;
+        this.noteWidth = Math.max(1, noteWidth);
+        this.noteHeight = Math.max(1, noteHeight);
+        this.noteFont = new Font("SansSerif", Font.PLAIN, Math.max(10, Math.min(noteWidth, noteHeight) / 6));
+        this.noteGrid = new Grid(this.noteWidth * CELL_NOTES, this.noteHeight * CELL_NOTES);
+        this.pinGrid = new Grid(this.noteWidth * CELL_NOTES, this.noteHeight * CELL_NOTES);
+        setPreferredSize(new Dimension(boardWidth, boardHeight));
+        setOpaque(false);
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    // replaces the notes; later notes are drawn over earlier ones
+    public void setNotes(List<NoteWidget> newNotes) {
+        List<NoteWidget> before = notes;
+        notes = new ArrayList<>(newNotes);
+        noteGrid = new Grid(noteWidth * CELL_NOTES, noteHeight * CELL_NOTES);
+        for (int i = 0; i < notes.size(); i++) {
+            noteGrid.add(notes.get(i).getX(), notes.get(i).getY(), i);
+        }
+        List<Rectangle> dirty = new ArrayList<>();
+        repaint(noteChanges(before, notes, dirty) ? dirty : null);
+    }
+
+    // replaces the pins, which are drawn over every note
+    public void setPins(List<PinWidget> newPins) {
+        List<PinWidget> before = pins;
+        pins = new ArrayList<>(newPins);
+        pinGrid = new Grid(noteWidth * CELL_NOTES, noteHeight * CELL_NOTES);
+        for (int i = 0; i < pins.size(); i++) {
+            pinGrid.add(pins.get(i).getX(), pins.get(i).getY(), i);
+        }
+        List<Rectangle> dirty = new ArrayList<>();
+        pinChanges(before, pins, dirty);
+        repaint(dirty);
+    }
+
+    // the changed rectangles, or the whole board for null or too many
+    private void repaint(List<Rectangle> dirty) {
+        if (dirty == null || dirty.size() > MAX_DIRTY_RECTS) {
+            repaint();
+            return;
+        }
+        for (Rectangle r : dirty) {
+            repaint(r);
+        }
+    }
+
+    public List<NoteWidget> getNotes() {
+        return notes;
+    }
+
+    public List<PinWidget> getPins() {
+        return pins;
+    }
+
+    // the notes covering the board point, bottom to top
+    public List<NoteWidget> notesAt(int px, int py) {
+        List<NoteWidget> result = new ArrayList<>();
+        for (int i : noteGrid.collect(px - noteWidth + 1, py - noteHeight + 1, px, py)) {
+            NoteWidget n = notes.get(i);
+            if (px >= n.getX() && px < n.getX() + noteWidth && py >= n.getY() && py < n.getY() + noteHeight) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    // the topmost note under the mouse, if any
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        List<NoteWidget> under = notesAt(e.getX(), e.getY());
+        if (under.isEmpty()) {
+            return null;
+        }
+        NoteWidget n = under.get(under.size() - 1);
+        return "(" + n.getX() + "," + n.getY() + ") " + n.getColourName() + ": " + n.getMessage()
+                + (n.isPinned() ? " [pinned]" : "");
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, boardWidth, boardHeight);
+        }
+        g.setColor(BOARD_BG);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setColor(BOARD_BORDER);
+        g.drawRect(0, 0, boardWidth - 1, boardHeight - 1);
+
+        int maxX = clip.x + clip.width - 1;
+        int maxY = clip.y + clip.height - 1;
+        // a note or pin meets the clip when its origin lies in the clip grown up and left by its size
+        for (int i : noteGrid.collect(clip.x - noteWidth + 1, clip.y - noteHeight + 1, maxX, maxY)) {
+            notes.get(i).paint(g, noteFont);
+        }
+        int[] visiblePins = pinGrid.collect(clip.x - PinWidget.PIN_SIZE + 1, clip.y - PinWidget.PIN_SIZE + 1,
+                maxX, maxY);
+        if (visiblePins.length > 0) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            for (int i : visiblePins) {
+                pins.get(i).paint(g2);
+            }
+            g2.dispose();
+        }
+    }
+
+    // adds the rectangles of notes that appeared, went or changed; false if the notes that stayed
+    // changed order, which changes how overlaps are drawn
+    private static boolean noteChanges(List<NoteWidget> before, List<NoteWidget> after, List<Rectangle> dirty) {
+        Map<Long, Integer> old = new HashMap<>(before.size() * 2);
+        for (int i = 0; i < before.size(); i++) {
+            old.put(key(before.get(i).getX(), before.get(i).getY()), i);
+        }
+        int lastKept = -1;
+        for (NoteWidget n : after) {
+            Integer i = old.remove(key(n.getX(), n.getY()));
+            if (i == null) {
+                dirty.add(n.getBounds());
+                continue;
+            }
+            if (i < lastKept) {
+                return false;
+            }
+            lastKept = i;
+            if (!before.get(i).looksLike(n)) {
+                dirty.add(n.getBounds());
+            }
+        }
+        for (int i : old.values()) {
+            dirty.add(before.get(i).getBounds());
+        }
+        return true;
+    }
+
+    // adds the rectangles of pins that appeared or went; pins look alike, so order never matters
+    private static void pinChanges(List<PinWidget> before, List<PinWidget> after, List<Rectangle> dirty) {
+        Map<Long, Integer> old = new HashMap<>(before.size() * 2);
+        for (PinWidget p : before) {
+            old.merge(key(p.getX(), p.getY()), 1, Integer::sum);
+        }
+        for (PinWidget p : after) {
+            long k = key(p.getX(), p.getY());
+            Integer count = old.get(k);
+            if (count == null) {
+                dirty.add(p.getBounds());
+            } else if (count == 1) {
+                old.remove(k);
+            } else {
+                old.put(k, count - 1);
+            }
+        }
+        for (long k : old.keySet()) {
+            dirty.add(new Rectangle((int) (k >> 32), (int) k, PinWidget.PIN_SIZE, PinWidget.PIN_SIZE));
+        }
+    }
+
+    private static long key(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+
+    // item indexes bucketed by origin into cellWidth x cellHeight cells; only occupied cells exist
+    private static final class Grid {
+        private final int cellWidth;
+        private final int cellHeight;
+        private final Map<Long, Cell> cells = new HashMap<>();
+
+        private static final class Cell {
+            int[] items = new int[4];
+            int size;
+        }
+
+        Grid(int cellWidth, int cellHeight) {
+            this.cellWidth = cellWidth;
+            this.cellHeight = cellHeight;
+        }
+
+        void add(int x, int y, int item) {
+            Cell cell = cells.computeIfAbsent(key(Math.floorDiv(x, cellWidth), Math.floorDiv(y, cellHeight)),
+                    k -> new Cell());
+            if (cell.size == cell.items.length) {
+                cell.items = Arrays.copyOf(cell.items, cell.size * 2);
+            }
+            cell.items[cell.size++] = item;
+        }
+
+        // the items in the cells under [minX, maxX] x [minY, maxY], ascending, so in list order;
+        // callers check the exact bounds themselves
+        int[] collect(int minX, int minY, int maxX, int maxY) {
+            if (cells.isEmpty() || minX > maxX || minY > maxY) {
+                return new int[0];
+            }
+            int[] out = new int[16];
+            int n = 0;
+            for (long cx = Math.floorDiv(minX, cellWidth); cx <= Math.floorDiv(maxX, cellWidth); cx++) {
+                for (long cy = Math.floorDiv(minY, cellHeight); cy <= Math.floorDiv(maxY, cellHeight); cy++) {
+                    Cell cell = cells.get(key(cx, cy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    if (n + cell.size > out.length) {
+                        out = Arrays.copyOf(out, Math.max(out.length * 2, n + cell.size));
+                    }
+                    System.arraycopy(cell.items, 0, out, n, cell.size);
+                    n += cell.size;
+                }
+            }
+            int[] result = Arrays.copyOf(out, n);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
@@ -2,6 +2,7 @@
 package client.gui;
 
 import client.ClientConnection;
+import client.Response;
 import client.ServerMessageListener;
 import shared.Protocol;
 
@@ -10,8 +11,11 @@ import javax.swing.border.*;
 import java.awt.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Main GUI window for the bulletin board client
@@ -28,14 +32,10 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
     private final int noteHeight;
     private final List<String> availableColours;
 
-    private JPanel boardPanel;
+    private BoardCanvas boardCanvas;
     private final List<NoteWidget> noteWidgets = new ArrayList<>();
     private final List<PinWidget> pinWidgets = new ArrayList<>();
     private JLabel statusLabel;
-    private String lastSentCommand = "";
-    private boolean getWasUserInitiated;
-    private boolean getHadFilters;
-    private String lastGetFilterDescription;
     private JTextArea getLogArea;
 
     private JTextField postXField;
@@ -71,7 +71,6 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
     }
 
     private static final Color WINDOW_BG = new Color(245, 245, 247);
-    private static final Color BOARD_BG = Color.WHITE;
     private static final Color BOARD_BORDER = new Color(220, 220, 224);
 
     private void initializeGUI() {
@@ -82,8 +81,8 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         controls.setBackground(WINDOW_BG);
         add(controls, BorderLayout.NORTH);
 
-        boardPanel = createBoardPanel();
-        JScrollPane scrollPane = new JScrollPane(boardPanel);
+        boardCanvas = new BoardCanvas(boardWidth, boardHeight, noteWidth, noteHeight);
+        JScrollPane scrollPane = new JScrollPane(boardCanvas);
         scrollPane.setBackground(WINDOW_BG);
         scrollPane.getViewport().setBackground(WINDOW_BG);
         scrollPane.setBorder(BorderFactory.createLineBorder(BOARD_BORDER, 1));
@@ -147,6 +146,9 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
     // Using only RGB for colours
     private static final String[] COLOUR_OPTIONS = new String[] { "red", "blue", "green" };
 
+    // the whole board, notes and pins, as one reply
+    private static final String BOARD_COMMAND = Protocol.CMD_GET + " " + Protocol.GET_ALL;
+
     private JPanel createControlPanel() {
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -256,20 +258,6 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         return panel;
     }
 
-    // create the board panel
-    private JPanel createBoardPanel() {
-        JPanel panel = new JPanel(null) {
-            @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                paintBoard(g);
-            }
-        };
-        panel.setPreferredSize(new Dimension(boardWidth, boardHeight));
-        panel.setOpaque(false);
-        return panel;
-    }
-
     // handle the POST call
     private void handlePostNote() {
         String xStr = postXField.getText().trim();
@@ -292,11 +280,8 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
             int x = Integer.parseInt(xStr);
             int y = Integer.parseInt(yStr);
             String cmd = Protocol.CMD_POST + " " + x + " " + y + " " + colour.trim() + " " + message.trim();
-            lastSentCommand = Protocol.CMD_POST;
             activityLog("POST", x + " " + y + " " + colour.trim() + " \"" + message.trim() + "\"");
-            if (connection.sendCommand(cmd)) {
-                showStatus("Posting note...");
-            }
+            sendChange(cmd, "Posting note...");
         } catch (NumberFormatException e) {
             showError("x and y must be numbers");
         }
@@ -304,8 +289,7 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
 
     // handle the GET call
     private void handleGet() {
-        getWasUserInitiated = true;
-        StringBuilder cmd = new StringBuilder(Protocol.CMD_GET);
+        StringBuilder cmd = new StringBuilder(Protocol.CMD_GET + " " + Protocol.GET_ALL);
         StringBuilder filterDesc = new StringBuilder();
         String colourVal = null;
         try {
@@ -335,28 +319,23 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
             filterDesc.append("refersTo=\"").append(refers).append("\"");
         }
         String getCmd = cmd.toString().trim();
-        if (filterDesc.length() > 0) {
-            lastSentCommand = "GET_FILTERED";
-            lastGetFilterDescription = filterDesc.toString();
-            getHadFilters = true;
-        } else {
-            lastSentCommand = "GET";
-            lastGetFilterDescription = null;
-            getHadFilters = false;
-        }
         activityLog("GET", filterDesc.length() > 0 ? "filter: " + filterDesc : "full board");
-        if (connection.sendCommand(getCmd)) {
-            showStatus("Refreshing board...");
-        }
+        showStatus("Refreshing board...");
+        requestBoard(null, getCmd, filterDesc.length() > 0 ? filterDesc.toString() : null, true);
     }
 
     // handle the GET_PINS call
     private void handleGetPins() {
-        lastSentCommand = "GET_PINS";
         activityLog("GET_PINS", "");
-        if (connection.sendCommand(Protocol.CMD_GET + " " + Protocol.GET_PINS)) {
-            showStatus("Getting pins...");
-        }
+        showStatus("Getting pins...");
+        onResponse(connection.send(Protocol.CMD_GET + " " + Protocol.GET_PINS), pins -> {
+            if (pins.isError()) {
+                showError(pins.getBody());
+                return;
+            }
+            applyPinsFromGetPinsResponse(pins.getBody());
+            showStatus("Done.");
+        });
     }
 
     // handle the PIN call
@@ -370,11 +349,8 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         try {
             int x = Integer.parseInt(xStr);
             int y = Integer.parseInt(yStr);
-            lastSentCommand = Protocol.CMD_PIN;
             activityLog("PIN", x + " " + y);
-            if (connection.sendCommand(Protocol.CMD_PIN + " " + x + " " + y)) {
-                showStatus("Adding pin...");
-            }
+            sendChange(Protocol.CMD_PIN + " " + x + " " + y, "Adding pin...");
         } catch (NumberFormatException e) {
             showError("x and y must be numbers");
         }
@@ -391,11 +367,8 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         try {
             int x = Integer.parseInt(xStr);
             int y = Integer.parseInt(yStr);
-            lastSentCommand = Protocol.CMD_UNPIN;
             activityLog("UNPIN", x + " " + y);
-            if (connection.sendCommand(Protocol.CMD_UNPIN + " " + x + " " + y)) {
-                showStatus("Removing pin...");
-            }
+            sendChange(Protocol.CMD_UNPIN + " " + x + " " + y, "Removing pin...");
         } catch (NumberFormatException e) {
             showError("x and y must be numbers");
         }
@@ -403,80 +376,114 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
 
     // handle the SHAKE call
     private void handleShake() {
-        lastSentCommand = Protocol.CMD_SHAKE;
         activityLog("SHAKE", "");
-        if (connection.sendCommand(Protocol.CMD_SHAKE)) {
-            showStatus("Shaking...");
-        }
+        sendChange(Protocol.CMD_SHAKE, "Shaking...");
     }
 
     // handle the CLEAR call
     private void handleClear() {
-        lastSentCommand = Protocol.CMD_CLEAR;
         activityLog("CLEAR", "");
-        if (connection.sendCommand(Protocol.CMD_CLEAR)) {
-            showStatus("Clearing board...");
-        }
+        sendChange(Protocol.CMD_CLEAR, "Clearing board...");
     }
 
     // handle the DISCONNECT call
     private void handleDisconnect() {
         activityLog("DISCONNECT", "");
-        connection.sendCommand(Protocol.CMD_DISCONNECT);
+        connection.send(Protocol.CMD_DISCONNECT);
         connection.disconnect();
         showStatus("Disconnected.");
         connection.setServerMessageListener(null);
     }
 
-    // handle the error response
+    // handle an error no request was waiting for
     @Override
     public void onError(String message) {
         showError(message);
-        lastSentCommand = "";
     }
 
-    // handle the OK response
+    // handle an OK no request was waiting for
     @Override
     public void onOkResponse(String remainder) {
-        if ("GET_FILTERED".equals(lastSentCommand)) {
-            applyNotesFromGetResponse(remainder);
-            appendGetLogFromServerFiltered(lastGetFilterDescription, remainder);
-            lastSentCommand = "GET_PINS";
-            connection.sendCommand(Protocol.CMD_GET + " " + Protocol.GET_PINS);
-        } else if ("GET".equals(lastSentCommand)) {
-            applyNotesFromGetResponse(remainder);
-            lastSentCommand = "GET_PINS";
-            connection.sendCommand(Protocol.CMD_GET + " " + Protocol.GET_PINS);
-        } else if ("GET_PINS".equals(lastSentCommand)) {
-            int pinCount = applyPinsFromGetPinsResponse(remainder);
-            if (getWasUserInitiated) {
+        showStatus("OK");
+    }
+
+    // sends a change with the refresh right behind it; the server answers in order, so the
+    // refresh sees the change and the board is redrawn a round trip sooner
+    private void sendChange(String command, String status) {
+        showStatus(status);
+        requestBoard(command, BOARD_COMMAND, null, false);
+    }
+
+    // refresh the board
+    private void refreshBoard() {
+        requestBoard(null, BOARD_COMMAND, null, false);
+    }
+
+    // sends change (if any) and the GET ALL in one write and applies the notes and pins it returns
+    // filterDescription is null for an unfiltered GET; userInitiated adds the summary and log
+    private void requestBoard(String change, String getCommand, String filterDescription, boolean userInitiated) {
+        List<String> commands = new ArrayList<>();
+        if (change != null) {
+            commands.add(change);
+        }
+        commands.add(getCommand);
+        List<CompletableFuture<Response>> replies = connection.sendAll(commands);
+        if (change != null) {
+            onResponse(replies.get(0), response -> {
+                if (response.isError()) {
+                    showError(response.getBody());
+                } else {
+                    activityLog("Response", "OK");
+                }
+            });
+        }
+        onResponse(replies.get(commands.size() - 1), board -> {
+            if (board.isError()) {
+                showError(board.getBody());
+                return;
+            }
+            // <pinCount>[ <pin>;...;<note>;...]: the pins come first
+            String[] head = board.getBody().split("\\s+", 2);
+            int expectedPins;
+            try {
+                expectedPins = Integer.parseInt(head[0]);
+            } catch (NumberFormatException e) {
+                expectedPins = -1;
+            }
+            if (expectedPins < 0) {
+                showError("Unexpected GET ALL reply");
+                return;
+            }
+            String[] items = head.length < 2 ? new String[0]
+                    : head[1].split("\\" + Protocol.LIST_SEPARATOR, expectedPins + 1);
+            int split = Math.min(expectedPins, items.length);
+            String notes = split < items.length ? items[split] : "";
+            applyNotesFromGetResponse(notes);
+            if (filterDescription != null) {
+                appendGetLogFromServerFiltered(filterDescription, notes);
+            }
+            int pinCount = applyPinsFromGetPinsResponse(
+                    String.join(Protocol.LIST_SEPARATOR, Arrays.asList(items).subList(0, split)));
+            if (userInitiated) {
                 showGetSuccess(lastGetNoteCount, pinCount);
-                if (!getHadFilters) {
+                if (filterDescription == null) {
                     appendGetLogFullBoard(lastGetNoteCount, pinCount);
                 }
-                getWasUserInitiated = false;
-                getHadFilters = false;
             } else {
                 showStatus("Done.");
             }
-            lastSentCommand = "";
-        } else if (Protocol.CMD_POST.equals(lastSentCommand) || Protocol.CMD_PIN.equals(lastSentCommand)
-                || Protocol.CMD_UNPIN.equals(lastSentCommand) || Protocol.CMD_SHAKE.equals(lastSentCommand)
-                || Protocol.CMD_CLEAR.equals(lastSentCommand)) {
-            activityLog("Response", "OK");
-            showStatus("Done.");
-            refreshBoard();
-        } else {
-            showStatus("OK");
-            lastSentCommand = "";
-        }
+        });
     }
 
-    // refresh the board
-    private void refreshBoard() {
-        getWasUserInitiated = false;
-        lastSentCommand = "GET";
-        connection.sendCommand(Protocol.CMD_GET);
+    // runs callback on the EDT once the reply is in; a lost connection only updates the status
+    private <T> void onResponse(CompletableFuture<T> reply, Consumer<T> callback) {
+        reply.whenComplete((response, failure) -> SwingUtilities.invokeLater(() -> {
+            if (failure != null) {
+                showStatus("Connection lost.");
+            } else {
+                callback.accept(response);
+            }
+        }));
     }
 
     private int lastGetNoteCount = 0; // last note count from GET response
@@ -545,39 +552,22 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         return pinWidgets.size();
     }
 
-    // get pins for note
-    private java.util.List<Point> getPinsForNote(int noteX, int noteY) {
-        java.util.List<Point> points = new ArrayList<>();
-        for (PinWidget p : pinWidgets) {
-            int px = p.getX();
-            int py = p.getY();
-            if (px >= noteX && px < noteX + noteWidth && py >= noteY && py < noteY + noteHeight) {
-                points.add(new Point(px, py));
-            }
-        }
-        return points;
-    }
-
-    // update note pinned state
+    // update note pinned state; each pin asks the canvas which notes lie under it
     private void updateNotePinnedState() {
         for (NoteWidget n : noteWidgets) {
-            n.setPins(getPinsForNote(n.getX(), n.getY()));
+            n.setPins(null);
+        }
+        for (PinWidget p : pinWidgets) {
+            for (NoteWidget n : boardCanvas.notesAt(p.getX(), p.getY())) {
+                n.addPin(new Point(p.getX(), p.getY()));
+            }
         }
     }
 
-    // repaint the board
+    // hand the notes and pins to the canvas, which repaints only what changed
     private void repaintBoard() {
-        boardPanel.removeAll();
-        for (NoteWidget w : noteWidgets) {
-            w.setBounds(w.getX(), w.getY(), noteWidth, noteHeight);
-            boardPanel.add(w, 0);
-        }
-        for (PinWidget w : pinWidgets) {
-            w.setBounds(w.getX(), w.getY(), 10, 10);
-            boardPanel.add(w, 0);
-        }
-        boardPanel.revalidate();
-        boardPanel.repaint();
+        boardCanvas.setNotes(noteWidgets);
+        boardCanvas.setPins(pinWidgets);
     }
 
     // update the board
@@ -588,10 +578,7 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
     // add a note widget
     public void addNoteWidget(NoteWidget noteWidget) {
         noteWidgets.add(noteWidget);
-        boardPanel.add(noteWidget);
-        noteWidget.setBounds(noteWidget.getX(), noteWidget.getY(), noteWidth, noteHeight);
-        boardPanel.revalidate();
-        boardPanel.repaint();
+        repaintBoard();
     }
 
     // remove a note widget
@@ -663,7 +650,7 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         getLogArea.setCaretPosition(getLogArea.getDocument().getLength());
     }
 
-    // append get log for full board (no filter) after GET + GET_PINS
+    // append get log for full board (no filter) after GET ALL
     private void appendGetLogFullBoard(int noteCount, int pinCount) {
         String time = new SimpleDateFormat("HH:mm:ss").format(new Date());
         StringBuilder sb = new StringBuilder();
@@ -706,12 +693,4 @@ public class BoardWindow extends JFrame implements ServerMessageListener {
         getLogArea.append(line);
         getLogArea.setCaretPosition(getLogArea.getDocument().getLength());
     }
-
-    // paint the board
-    private void paintBoard(Graphics g) {
-        g.setColor(BOARD_BG);
-        g.fillRect(0, 0, boardWidth, boardHeight);
-        g.setColor(BOARD_BORDER);
-        g.drawRect(0, 0, boardWidth - 1, boardHeight - 1);
-    }
 }
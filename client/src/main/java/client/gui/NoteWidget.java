@@ -1,19 +1,20 @@
 // Imports
 package client.gui;
 
-import javax.swing.*;
 import shared.Colours;
 import java.awt.*;
 
 /**
- * GUI widget representing a note on the bulletin board.
- * This widget displays:
+ * A note on the bulletin board, as the BoardCanvas draws it.
+ * This widget holds:
  * - The notes rectangular shape with its assigned colour
  * - The notes message text
- * - Visual indication if the note is pinned
+ * - The pins on the note
  * - The notes position on the board
+ * It is plain data with a paint method, not a Swing component, so a board of any size is one
+ * component.
  */
-public class NoteWidget extends JComponent {
+public class NoteWidget {
     private String noteId;
     private int x;
     private int y;
@@ -23,6 +24,9 @@ public class NoteWidget extends JComponent {
     private java.util.List<Point> pins = new java.util.ArrayList<>();
     private int width;
     private int height;
+    private String displayText;
+    private Font displayFont;
+    private static final int TEXT_PADDING = 4;
 
     // new NoteWidget
     public NoteWidget(String noteId, int x, int y, String colour, String message, int width, int height) {
@@ -36,41 +40,46 @@ public class NoteWidget extends JComponent {
         this.height = height;
     }
 
-    // Paints the note widget on the board
-    @Override
-    protected void paintComponent(Graphics g) {
+    // Paints the note at its board position; font is the canvas's note font
+    public void paint(Graphics g, Font font) {
         g.setColor(colour);
-        g.fillRect(0, 0, width, height);
+        g.fillRect(x, y, width, height);
         if (message != null && !message.trim().isEmpty()) {
-            g.setColor(getTextColor());
-            Font font = new Font("SansSerif", Font.PLAIN, Math.max(10, Math.min(width, height) / 6));
-            g.setFont(font);
-            FontMetrics fm = g.getFontMetrics();
-            int padding = 4;
-            int textWidth = fm.stringWidth(message);
-            String toDraw = message;
-            if (textWidth > width - 2 * padding) {
-                for (int i = message.length(); i > 0; i--) {
-                    toDraw = message.substring(0, i) + "...";
-                    if (fm.stringWidth(toDraw) <= width - 2 * padding)
-                        break;
-                }
-            }
-            int x = padding;
-            int y = (height + fm.getAscent()) / 2 - 2;
-            g.drawString(toDraw, x, y);
+            Graphics text = g.create(x, y, width, height);
+            text.setColor(getTextColor());
+            text.setFont(font);
+            FontMetrics fm = text.getFontMetrics();
+            text.drawString(fitText(fm), TEXT_PADDING, (height + fm.getAscent()) / 2 - 2);
+            text.dispose();
         }
+    }
 
-        // pin indicator if pinned
-        for (Point p : pins) {
-            int px = p.x - this.x;
-            int py = p.y - this.y;
-            Graphics g2 = g.create();
-            g2.translate(px, py);
-            PinWidget pinWidget = new PinWidget("visual", p.x, p.y, noteId);
-            pinWidget.paintComponent(g2);
-            g2.dispose();
+    // The message, cut with "..." to fit the note; measured once per font
+    private String fitText(FontMetrics fm) {
+        if (fm.getFont().equals(displayFont)) {
+            return displayText;
         }
+        String toDraw = message;
+        if (fm.stringWidth(message) > width - 2 * TEXT_PADDING) {
+            for (int i = message.length(); i > 0; i--) {
+                toDraw = message.substring(0, i) + "...";
+                if (fm.stringWidth(toDraw) <= width - 2 * TEXT_PADDING)
+                    break;
+            }
+        }
+        displayFont = fm.getFont();
+        displayText = toDraw;
+        return toDraw;
+    }
+
+    // True if the other note would be drawn exactly like this one
+    public boolean looksLike(NoteWidget other) {
+        return x == other.x && y == other.y && width == other.width && height == other.height
+                && colour.equals(other.colour) && java.util.Objects.equals(message, other.message);
+    }
+
+    public Rectangle getBounds() {
+        return new Rectangle(x, y, width, height);
     }
 
     // Pick a readable text colour against the note background
@@ -101,12 +110,17 @@ public class NoteWidget extends JComponent {
 
     public void setMessage(String message) {
         this.message = message;
+        this.displayFont = null;
     }
 
     public void setPins(java.util.List<Point> pins) {
         this.pins = pins != null ? new java.util.ArrayList<>(pins) : new java.util.ArrayList<>();
     }
 
+    public void addPin(Point pin) {
+        pins.add(pin);
+    }
+
     public boolean isPinned() {
         return !pins.isEmpty();
     }
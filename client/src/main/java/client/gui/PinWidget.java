@@ -1,12 +1,14 @@
 // imports
 package client.gui;
 
-import javax.swing.*;
 import java.awt.*;
 
-// gui widget representing a pin on the bulletin board
-public class PinWidget extends JComponent {
-    private static final int PIN_SIZE = 10;
+// a pin on the bulletin board, as the BoardCanvas draws it; plain data, not a Swing component
+public class PinWidget {
+    static final int PIN_SIZE = 10;
+    private static final Color HEAD = new Color(200, 50, 50);
+    private static final Color RIM = new Color(120, 25, 25);
+    private static final Color SHINE = new Color(255, 180, 180);
 
     private final String pinId;
     private final int x;
@@ -19,26 +21,22 @@ public class PinWidget extends JComponent {
         this.x = x;
         this.y = y;
         this.noteId = noteId;
-        setOpaque(false);
-        setSize(PIN_SIZE, PIN_SIZE);
-        setPreferredSize(new Dimension(PIN_SIZE, PIN_SIZE));
     }
 
-    // paints the pin widget on the board
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g.create();
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    // paints the pin at its board position; the canvas turns on antialiasing
+    public void paint(Graphics g) {
         int s = PIN_SIZE;
         // red pin head so it's obvious on any note
-        g2.setColor(new Color(200, 50, 50));
-        g2.fillOval(0, 0, s, s);
-        g2.setColor(new Color(120, 25, 25));
-        g2.drawOval(0, 0, s - 1, s - 1);
-        g2.setColor(new Color(255, 180, 180));
-        g2.fillOval(2, 2, 3, 3);
-        g2.dispose();
+        g.setColor(HEAD);
+        g.fillOval(x, y, s, s);
+        g.setColor(RIM);
+        g.drawOval(x, y, s - 1, s - 1);
+        g.setColor(SHINE);
+        g.fillOval(x + 2, y + 2, 3, 3);
+    }
+
+    public Rectangle getBounds() {
+        return new Rectangle(x, y, PIN_SIZE, PIN_SIZE);
     }
 
     // accessors
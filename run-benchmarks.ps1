@@ -0,0 +1,46 @@
+# CP372 A1 - Run JMH benchmarks
+# Builds the Maven modules and runs benchmarks/target/benchmarks.jar once per thread count,
+# with the GC profiler on. Results go to bench-results\<timestamp>-t<threads>.json;
+# pass -Baseline to also store them as bench-results\baseline-t<threads>.json.
+# Before measuring, benchmarks.IndexCheck cross-checks the board's indexes against brute force;
+# a mismatch stops the run. -SkipCheck skips it.
+# Examples:
+#   .\run-benchmarks.ps1
+#   .\run-benchmarks.ps1 -Threads 1,4,8 -Filter "BoardBenchmark.get.*" -Extra "-p","boardSize=2000"
+
+param(
+    [int[]]$Threads = @(1, 4),
+    [string]$Filter = ".*",
+    [switch]$Baseline,
+    [switch]$SkipCheck,
+    [string[]]$Extra = @()
+)
+
+$ErrorActionPreference = "Stop"
+$root = $PSScriptRoot
+
+Write-Host "Building benchmarks..."
+mvn -B -q -f "$root\pom.xml" package -DskipTests
+if ($LASTEXITCODE -ne 0) { throw "Maven build failed" }
+
+if (-not $SkipCheck) {
+    Write-Host "Checking indexes..."
+    java -cp "$root\benchmarks\target\benchmarks.jar" benchmarks.IndexCheck
+    if ($LASTEXITCODE -ne 0) { throw "Index check failed" }
+}
+
+$outDir = "$root\bench-results"
+New-Item -ItemType Directory -Force -Path $outDir | Out-Null
+$stamp = Get-Date -Format "yyyyMMdd-HHmmss"
+
+foreach ($t in $Threads) {
+    $result = "$outDir\$stamp-t$t.json"
+    Write-Host "Running with $t thread(s) -> $result"
+    java -jar "$root\benchmarks\target\benchmarks.jar" $Filter -t $t -prof gc -rf json -rff $result @Extra
+    if ($LASTEXITCODE -ne 0) { throw "Benchmark run failed" }
+    if ($Baseline) {
+        Copy-Item $result "$outDir\baseline-t$t.json" -Force
+    }
+}
+
+Write-Host "Benchmarks complete."
@@ -0,0 +1,13 @@
+# CP372 A1 - Run load generator
+# Drives a command mix against a running server (start it with run-server.ps1).
+# Example: .\run-loadgen.ps1 --connections=500 --rate=5000 --duration=60 --mix=POST:20,GET:60,PIN:20
+
+$ErrorActionPreference = "Stop"
+$root = $PSScriptRoot
+
+if (-not (Test-Path "$root\build\tools\tools\LoadGenerator.class")) {
+    Write-Host "Not built yet. Running build.ps1..."
+    & "$root\build.ps1"
+}
+
+java -cp "$root\build\tools;$root\build\shared" tools.LoadGenerator $args
@@ -0,0 +1,14 @@
+# CP372 A1 - Replay captured traffic
+# Re-drives a journal recorded with "run-server.ps1 --capture=<file>" against a running server,
+# then reports response diffs and latency changes.
+# Example: .\run-replay.ps1 --journal=traffic.bbj --speed=max
+
+$ErrorActionPreference = "Stop"
+$root = $PSScriptRoot
+
+if (-not (Test-Path "$root\build\tools\tools\TrafficReplay.class")) {
+    Write-Host "Not built yet. Running build.ps1..."
+    & "$root\build.ps1"
+}
+
+java -cp "$root\build\tools;$root\build\shared" tools.TrafficReplay $args
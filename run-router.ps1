@@ -0,0 +1,22 @@
+# CP372 A1 - Run a partitioned board
+# Starts two backend servers (ports 6768 and 6769, same board as run-server.ps1) and a router on
+# port 6767 that splits the board between them by x range. Clients connect to 6767 as usual.
+# Close this window (or press Ctrl+C) to stop the router; the backends run in their own windows.
+
+$ErrorActionPreference = "Stop"
+$root = $PSScriptRoot
+
+if (-not (Test-Path "$root\build\server\server\RouterMain.class")) {
+    Write-Host "Not built yet. Running build.ps1..."
+    & "$root\build.ps1"
+}
+
+$cp = "$root\build\server;$root\build\shared"
+foreach ($port in 6768, 6769) {
+    Write-Host "Starting backend on port $port..."
+    Start-Process java -ArgumentList "-cp", "`"$cp`"", "server.ServerMain", "$port", "400", "300", "80", "60", "red", "blue", "green"
+}
+Start-Sleep -Seconds 2
+
+Write-Host "Starting router on port 6767..."
+java -cp $cp server.RouterMain $args --backends=localhost:6768,localhost:6769 6767
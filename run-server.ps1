@@ -1,6 +1,7 @@
 # CP372 A1 - Run server
 # Starts the bulletin board server on port 6767 (400x300 board, 80x60 notes, 4 colours).
 # Run this first; then run run-client.ps1 in another terminal.
+# Server options are passed through, e.g. .\run-server.ps1 --metrics-port=9100 --capture=traffic.bbj
 
 $ErrorActionPreference = "Stop"
 $root = $PSScriptRoot
@@ -11,4 +12,4 @@ if (-not (Test-Path "$root\build\server\server\ServerMain.class")) {
 }
 
 Write-Host "Starting server on port 6767..."
-java -cp "$root\build\server;$root\build\shared" server.ServerMain 6767 400 300 80 60 red blue green
+java -cp "$root\build\server;$root\build\shared" server.ServerMain $args 6767 400 300 80 60 red blue green
@@ -10,6 +10,12 @@ public class Message {
                 + (message != null ? message : "") + Protocol.LINE_END;
     }
 
+    // build POST ttl=<seconds> x y colour message line
+    public static String buildPostCommand(int ttlSeconds, int x, int y, String colour, String message) {
+        return Protocol.CMD_POST + Protocol.DELIMITER + Protocol.POST_TTL + ttlSeconds
+                + buildPostCommand(x, y, colour, message).substring(Protocol.CMD_POST.length());
+    }
+
     // build GET PINS line
     public static String buildGetPinsCommand() {
         return Protocol.CMD_GET + Protocol.DELIMITER + Protocol.GET_PINS + Protocol.LINE_END;
@@ -31,6 +37,30 @@ public class Message {
         return sb.toString();
     }
 
+    // build GET region=x y w h line
+    public static String buildGetRegionCommand(int x, int y, int width, int height) {
+        return Protocol.CMD_GET + Protocol.DELIMITER + Protocol.FILTER_REGION + x + Protocol.DELIMITER + y
+                + Protocol.DELIMITER + width + Protocol.DELIMITER + height + Protocol.LINE_END;
+    }
+
+    // build GET near=x y k=N line
+    public static String buildGetNearCommand(int x, int y, int count) {
+        return Protocol.CMD_GET + Protocol.DELIMITER + Protocol.FILTER_NEAR + x + Protocol.DELIMITER + y
+                + Protocol.DELIMITER + Protocol.FILTER_NEAR_COUNT + count + Protocol.LINE_END;
+    }
+
+    // build GET ALL line with optional filters, e.g. "color=red"
+    public static String buildGetAllCommand(String filters) {
+        return Protocol.CMD_GET + Protocol.DELIMITER + Protocol.GET_ALL
+                + (filters != null && !filters.isEmpty() ? Protocol.DELIMITER + filters : "") + Protocol.LINE_END;
+    }
+
+    // build GET COUNT line with optional filters, e.g. "color=red pinned=true"
+    public static String buildGetCountCommand(String filters) {
+        return Protocol.CMD_GET + Protocol.DELIMITER + Protocol.GET_COUNT
+                + (filters != null && !filters.isEmpty() ? Protocol.DELIMITER + filters : "") + Protocol.LINE_END;
+    }
+
     // build PIN x y line
     public static String buildPinCommand(int x, int y) {
         return Protocol.CMD_PIN + Protocol.DELIMITER + x + Protocol.DELIMITER + y + Protocol.LINE_END;
@@ -51,11 +81,32 @@ public class Message {
         return Protocol.CMD_DISCONNECT + Protocol.LINE_END;
     }
 
+    // build PING keepalive line
+    public static String buildPingCommand() {
+        return Protocol.CMD_PING + Protocol.LINE_END;
+    }
+
+    // build HEATMAP cellSize line
+    public static String buildHeatmapCommand(int cellSize) {
+        return Protocol.CMD_HEATMAP + Protocol.DELIMITER + cellSize + Protocol.LINE_END;
+    }
+
     // build CLEAR line
     public static String buildClearCommand() {
         return Protocol.CMD_CLEAR + Protocol.LINE_END;
     }
 
+    // build BATCH header followed by the given command lines (each ending in LINE_END)
+    public static String buildBatchCommand(java.util.List<String> commands, boolean atomic) {
+        StringBuilder sb = new StringBuilder(Protocol.CMD_BATCH);
+        sb.append(Protocol.DELIMITER).append(commands.size()).append(Protocol.DELIMITER)
+                .append(atomic ? Protocol.BATCH_ATOMIC : Protocol.BATCH_BEST_EFFORT).append(Protocol.LINE_END);
+        for (String command : commands) {
+            sb.append(command);
+        }
+        return sb.toString();
+    }
+
     // build OK or OK <data> line
     public static String buildOkResponse(String info) {
         if (info == null || info.isEmpty()) {
@@ -9,8 +9,55 @@ public class Protocol {
     public static final String CMD_SHAKE = "SHAKE";
     public static final String CMD_CLEAR = "CLEAR";
     public static final String CMD_DISCONNECT = "DISCONNECT";
+    public static final String CMD_BATCH = "BATCH";
+    public static final String CMD_IMPORT = "IMPORT";
+    public static final String CMD_EXPORT = "EXPORT";
+    // keepalive; answered with a bare PONG line so it never looks like a command's OK
+    public static final String CMD_PING = "PING";
+    public static final String RESP_PONG = "PONG";
+    // HEATMAP <cellSize>: OK <cellSize> <cols> <rows> <counts> <pinned>, the notes and pinned notes
+    // by origin in each square cell, row-major and comma-separated. the cell size is rounded up to a
+    // power of two, then doubled until the grid has at most HEATMAP_MAX_CELLS cells
+    public static final String CMD_HEATMAP = "HEATMAP";
+    public static final String HEATMAP_SEPARATOR = ",";
+    public static final int HEATMAP_MAX_CELLS = 1 << 16;
+
+    // #<tag> COMMAND ...: the reply is "#<tag> " and the usual line. a connection may have up to
+    // TAG_MAX_IN_FLIGHT tagged commands running at once, answered as each finishes; tagged writes
+    // still run in the order sent, a tagged read runs after the writes sent before it, and an
+    // untagged command waits for every tagged one
+    public static final String TAG_PREFIX = "#";
+    public static final int TAG_MAX_LENGTH = 32;
+    public static final int TAG_MAX_IN_FLIGHT = 256;
 
     public static final String GET_PINS = "PINS";
+    // GET COUNT [filters] or GET COUNT PINS: OK <n>; counts what the GET would list, plus pinned=
+    public static final String GET_COUNT = "COUNT";
+    // GET ALL [filters]: OK <pinCount>[ <pin>;...;<note>;...], the matching notes and the pins on
+    // them (every pin when unfiltered) from one view of the board; pins come first, so the rest
+    // reads exactly like a GET reply
+    public static final String GET_ALL = "ALL";
+
+    // POST ttl=<seconds> x y colour message; the note is removed once the TTL runs out
+    public static final String POST_TTL = "ttl=";
+    public static final int MAX_TTL_SECONDS = 365 * 24 * 60 * 60;
+
+    // BATCH <n> [ATOMIC|BEST_EFFORT], then n POST/PIN/UNPIN lines
+    public static final String BATCH_ATOMIC = "ATOMIC";
+    public static final String BATCH_BEST_EFFORT = "BEST_EFFORT";
+    public static final int BATCH_MAX_ITEMS = 100000;
+
+    // one status character per BATCH item: OK <applied> <statuses> or ERROR BATCH_ABORTED <statuses>
+    public static final char BATCH_APPLIED = '+';
+    public static final char BATCH_NOT_APPLIED = '.';
+    public static final char BATCH_INVALID_FORMAT = 'F';
+    public static final char BATCH_OUT_OF_BOUNDS = 'B';
+    public static final char BATCH_COLOUR_NOT_SUPPORTED = 'C';
+    public static final char BATCH_COMPLETE_OVERLAP = 'O';
+    public static final char BATCH_NO_NOTE_AT_COORDINATE = 'N';
+    public static final char BATCH_PIN_NOT_FOUND = 'P';
+    public static final char BATCH_UNKNOWN_COMMAND = 'U';
+    public static final char BATCH_BOARD_FULL = 'L';
 
     public static final String RESP_OK = "OK";
     public static final String RESP_ERROR = "ERROR";
@@ -26,6 +73,12 @@ public class Protocol {
     public static final String ERR_NO_NOTE_AT_COORDINATE = "NO_NOTE_AT_COORDINATE";
     public static final String ERR_UNKNOWN_COMMAND = "UNKNOWN_COMMAND";
     public static final String ERR_INTERNAL_ERROR = "INTERNAL_ERROR";
+    public static final String ERR_BATCH_ABORTED = "BATCH_ABORTED";
+    public static final String ERR_IO_ERROR = "IO_ERROR";
+    public static final String ERR_RATE_LIMITED = "RATE_LIMITED";
+    public static final String ERR_READ_ONLY = "READ_ONLY";
+    // the board is at its note budget and nothing could be evicted for the POST
+    public static final String ERR_BOARD_FULL = "BOARD_FULL";
 
     public static final String DELIMITER = " ";
     public static final String LIST_SEPARATOR = ";";
@@ -34,6 +87,14 @@ public class Protocol {
     public static final String FILTER_COLOUR = "color=";
     public static final String FILTER_CONTAINS = "contains=";
     public static final String FILTER_REFERS_TO = "refersTo=";
+    // region=x y w h: notes overlapping the rectangle, e.g. a client's viewport
+    public static final String FILTER_REGION = "region=";
+    // near=x y [k=N]: the N (default 1) notes nearest the point, nearest first
+    public static final String FILTER_NEAR = "near=";
+    public static final String FILTER_NEAR_COUNT = "k=";
+    public static final int NEAR_MAX_COUNT = 1000;
+    // pinned=true|false, GET COUNT only
+    public static final String FILTER_PINNED = "pinned=";
 
     private Protocol() {
     }
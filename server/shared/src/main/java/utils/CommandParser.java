@@ -0,0 +1,278 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+
+import shared.Protocol;
+
+// byte-level parser for command lines; parses straight out of the read buffer into a
+// reused ParsedCommand, so POST, PIN and UNPIN are parsed without allocating.
+// Accepts what ProtocolParser accepts, plus POST's ttl= option, and reports the same error codes.
+public class CommandParser {
+    private static final byte[] POST = ascii(Protocol.CMD_POST);
+    private static final byte[] GET = ascii(Protocol.CMD_GET);
+    private static final byte[] PIN = ascii(Protocol.CMD_PIN);
+    private static final byte[] UNPIN = ascii(Protocol.CMD_UNPIN);
+    private static final byte[] SHAKE = ascii(Protocol.CMD_SHAKE);
+    private static final byte[] CLEAR = ascii(Protocol.CMD_CLEAR);
+    private static final byte[] DISCONNECT = ascii(Protocol.CMD_DISCONNECT);
+    private static final byte[] BATCH = ascii(Protocol.CMD_BATCH);
+    private static final byte[] IMPORT = ascii(Protocol.CMD_IMPORT);
+    private static final byte[] EXPORT = ascii(Protocol.CMD_EXPORT);
+    private static final byte[] PING = ascii(Protocol.CMD_PING);
+    private static final byte[] HEATMAP = ascii(Protocol.CMD_HEATMAP);
+    private static final byte[] POST_TTL = ascii(Protocol.POST_TTL);
+
+    private static final byte SPACE = ' ';
+    private static final byte SEMICOLON = ';';
+    private static final byte TAG_PREFIX = (byte) Protocol.TAG_PREFIX.charAt(0);
+
+    // parses buffer[start, end) into command; returns false for an unknown command word
+    public static boolean parse(byte[] buffer, int start, int end, ParsedCommand command) {
+        command.reset(buffer, start, end);
+        // trailing blanks are trimmed like String.trim() (anything <= ' '); leading ones are not,
+        // so "  POST ..." stays an unknown command as it always was
+        while (end > start && isBlank(buffer[end - 1])) {
+            end--;
+        }
+        command.start = start;
+        command.end = end;
+        if (start == end) {
+            return false;
+        }
+
+        byte[] word;
+        // the command word is matched as a prefix, like ProtocolParser.parseCommandType
+        switch (buffer[start]) {
+            case 'P':
+                if (startsWith(buffer, start, end, POST)) {
+                    word = POST;
+                    command.type = Protocol.CMD_POST;
+                } else if (startsWith(buffer, start, end, PING)) {
+                    word = PING;
+                    command.type = Protocol.CMD_PING;
+                } else if (startsWith(buffer, start, end, PIN)) {
+                    word = PIN;
+                    command.type = Protocol.CMD_PIN;
+                } else {
+                    return false;
+                }
+                break;
+            case 'G':
+                word = GET;
+                command.type = Protocol.CMD_GET;
+                break;
+            case 'U':
+                word = UNPIN;
+                command.type = Protocol.CMD_UNPIN;
+                break;
+            case 'S':
+                word = SHAKE;
+                command.type = Protocol.CMD_SHAKE;
+                break;
+            case 'C':
+                word = CLEAR;
+                command.type = Protocol.CMD_CLEAR;
+                break;
+            case 'D':
+                word = DISCONNECT;
+                command.type = Protocol.CMD_DISCONNECT;
+                break;
+            case 'B':
+                word = BATCH;
+                command.type = Protocol.CMD_BATCH;
+                break;
+            case 'I':
+                word = IMPORT;
+                command.type = Protocol.CMD_IMPORT;
+                break;
+            case 'E':
+                word = EXPORT;
+                command.type = Protocol.CMD_EXPORT;
+                break;
+            case 'H':
+                word = HEATMAP;
+                command.type = Protocol.CMD_HEATMAP;
+                break;
+            default:
+                return false;
+        }
+        if (!startsWith(buffer, start, end, word)) {
+            command.type = null;
+            return false;
+        }
+
+        int params = start + word.length;
+        while (params < end && isBlank(buffer[params])) {
+            params++;
+        }
+        command.paramsStart = params;
+
+        if (word == POST) {
+            parsePost(command, params, end);
+        } else if (word == PIN) {
+            parseCoordinates(command, params, end, "Invalid PIN format");
+        } else if (word == UNPIN) {
+            parseCoordinates(command, params, end, "Invalid UNPIN format");
+        }
+        return true;
+    }
+
+    // where the command starts in a line that may open with a request tag: start if it has none,
+    // after "#<tag> " if it has one, or -1 if the tag is malformed (empty, too long, or unended)
+    public static int commandStart(byte[] buffer, int start, int end) {
+        if (start == end || buffer[start] != TAG_PREFIX) {
+            return start;
+        }
+        for (int i = start + 1; i < end && i <= start + 1 + Protocol.TAG_MAX_LENGTH; i++) {
+            if (buffer[i] == SPACE) {
+                return i > start + 1 ? i + 1 : -1;
+            }
+            if (isBlank(buffer[i])) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // POST [ttl=<seconds>] x y colour message; tokens are split on single spaces like split(" ", 4)
+    private static void parsePost(ParsedCommand command, int start, int end) {
+        // an x coordinate never starts with a letter, so the option cannot be mistaken for one
+        if (startsWith(command.buffer, start, end, POST_TTL)) {
+            int ttlEnd = indexOf(command.buffer, start, end, SPACE);
+            if (ttlEnd < 0) {
+                error(command, Protocol.ERR_INVALID_FORMAT, "Invalid POST format");
+                return;
+            }
+            if (!parseTtl(command, start + POST_TTL.length, ttlEnd)) {
+                error(command, Protocol.ERR_INVALID_FORMAT, "TTL must be 1 to "
+                        + Protocol.MAX_TTL_SECONDS + " seconds");
+                return;
+            }
+            start = ttlEnd + 1;
+        }
+        int xEnd = indexOf(command.buffer, start, end, SPACE);
+        int yEnd = xEnd < 0 ? -1 : indexOf(command.buffer, xEnd + 1, end, SPACE);
+        int colourEnd = yEnd < 0 ? -1 : indexOf(command.buffer, yEnd + 1, end, SPACE);
+        if (start == end || colourEnd < 0) {
+            error(command, Protocol.ERR_INVALID_FORMAT, "Invalid POST format");
+            return;
+        }
+        if (!parseInt(command, start, xEnd, true) || !parseInt(command, xEnd + 1, yEnd, false)) {
+            error(command, Protocol.ERR_INVALID_FORMAT, "Coordinates must be integers");
+            return;
+        }
+        command.colourStart = yEnd + 1;
+        command.colourEnd = colourEnd;
+        command.messageStart = colourEnd + 1;
+        command.messageEnd = end;
+        // RFC: note content MUST NOT contain semicolon (list separator in responses)
+        if (indexOf(command.buffer, command.messageStart, end, SEMICOLON) >= 0) {
+            error(command, Protocol.ERR_INVALID_FORMAT, "Note content must not contain semicolon");
+        }
+    }
+
+    // PIN x y / UNPIN x y; exactly two tokens
+    private static void parseCoordinates(ParsedCommand command, int start, int end, String formatError) {
+        int xEnd = indexOf(command.buffer, start, end, SPACE);
+        if (start == end || xEnd < 0 || indexOf(command.buffer, xEnd + 1, end, SPACE) >= 0) {
+            error(command, Protocol.ERR_INVALID_FORMAT, formatError);
+            return;
+        }
+        if (!parseInt(command, start, xEnd, true) || !parseInt(command, xEnd + 1, end, false)) {
+            error(command, Protocol.ERR_INVALID_FORMAT, "Coordinates must be integers");
+        }
+    }
+
+    // decimal digits only, 1 to Protocol.MAX_TTL_SECONDS
+    private static boolean parseTtl(ParsedCommand command, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = command.buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+            if (value > Protocol.MAX_TTL_SECONDS) {
+                return false;
+            }
+        }
+        command.ttlSeconds = (int) value;
+        return value > 0;
+    }
+
+    // Integer.parseInt on bytes: optional sign, decimal digits, no overflow
+    private static boolean parseInt(ParsedCommand command, int start, int end, boolean isX) {
+        if (start >= end) {
+            return false;
+        }
+        boolean negative = false;
+        int i = start;
+        if (command.buffer[i] == '-' || command.buffer[i] == '+') {
+            negative = command.buffer[i] == '-';
+            i++;
+            if (i == end) {
+                return false;
+            }
+        }
+        // accumulate negatively so Integer.MIN_VALUE parses
+        long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = command.buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            result = result * 10 - digit;
+            if (result < limit) {
+                return false;
+            }
+        }
+        int value = (int) (negative ? result : -result);
+        if (isX) {
+            command.x = value;
+        } else {
+            command.y = value;
+        }
+        return true;
+    }
+
+    private static void error(ParsedCommand command, String code, String message) {
+        command.errorCode = code;
+        command.errorMessage = message;
+    }
+
+    private static boolean startsWith(byte[] buffer, int start, int end, byte[] word) {
+        if (end - start < word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (buffer[start + i] != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buffer, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private CommandParser() {
+    }
+}
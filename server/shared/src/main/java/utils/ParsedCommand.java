@@ -0,0 +1,107 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// mutable result of CommandParser.parse; one instance is reused for every line of a
+// connection, so it only points into the caller's buffer and is valid until the next parse
+public class ParsedCommand {
+    byte[] buffer;
+    int start;
+    int end;
+    int paramsStart;
+    String type;
+    String errorCode;
+    String errorMessage;
+    int x;
+    int y;
+    int ttlSeconds;
+    int colourStart;
+    int colourEnd;
+    int messageStart;
+    int messageEnd;
+
+    void reset(byte[] buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.paramsStart = end;
+        this.type = null;
+        this.errorCode = null;
+        this.errorMessage = null;
+        this.x = 0;
+        this.y = 0;
+        this.ttlSeconds = 0;
+        this.colourStart = 0;
+        this.colourEnd = 0;
+        this.messageStart = 0;
+        this.messageEnd = 0;
+    }
+
+    // Protocol.CMD_* constant, or null for an unknown command
+    public String getType() {
+        return type;
+    }
+
+    // set when the parameters of POST, PIN or UNPIN are malformed
+    public boolean hasError() {
+        return errorCode != null;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    // coordinates of POST, PIN and UNPIN
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    // the POST ttl= value in seconds, 0 when the note does not expire
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    // true if the POST colour is exactly these bytes
+    public boolean colourEquals(byte[] colour) {
+        int length = colourEnd - colourStart;
+        if (colour.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[colourStart + i] != colour[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the POST message; allocates, so only call it once the note is going to be stored
+    public String getMessage() {
+        return new String(buffer, messageStart, messageEnd - messageStart, StandardCharsets.UTF_8);
+    }
+
+    // the POST message as a new UTF-8 array, for storing without decoding
+    public byte[] getMessageBytes() {
+        return Arrays.copyOfRange(buffer, messageStart, messageEnd);
+    }
+
+    // everything after the command word, trimmed (used for GET filters)
+    public String getParameters() {
+        return new String(buffer, paramsStart, end - paramsStart, StandardCharsets.UTF_8);
+    }
+
+    // the whole command line
+    @Override
+    public String toString() {
+        return buffer == null ? "" : new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -66,7 +66,7 @@ public class ProtocolParser {
         return trimmed;
     }
 
-    // return map of filter key -> value (color, contains, refersTo)
+    // return map of filter key -> value (color, contains, refersTo, region, near, k)
     public static java.util.Map<String, String> parseGetFilters(String params) {
         if (params == null)
             return null;
@@ -83,12 +83,15 @@ public class ProtocolParser {
             if (keyValue.length == 2) {
                 String key = keyValue[0];
                 String value = keyValue[1];
-                if ("contains".equals(key) && i + 1 < parts.length) {
+                // contains= and near= take "x y", region= takes "x y w h"
+                int extra = "contains".equals(key) || "near".equals(key) ? 1 : "region".equals(key) ? 3 : 0;
+                for (; extra > 0 && i + 1 < parts.length; extra--) {
                     String next = parts[i + 1].trim();
-                    if (!next.isEmpty() && !next.contains("=")) {
-                        value = value + " " + next;
-                        i++;
+                    if (next.isEmpty() || next.contains("=")) {
+                        break;
                     }
+                    value = value + " " + next;
+                    i++;
                 }
                 filters.put(key, value);
             }
@@ -0,0 +1,177 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// compact binary journal of protocol sessions, used for capture and replay
+//
+// layout: magic "BBJ1", start time (epoch millis, 8 bytes), then records of
+//   type (1 byte) | connection id (varint) | nanos since previous record (varint)
+//   [| payload length (varint) | UTF-8 payload]   -- COMMAND and RESPONSE only
+// records are written in the order the server saw them, so timestamps never go backwards
+public class TrafficJournal {
+    public static final byte OPEN = 1;
+    public static final byte COMMAND = 2;
+    public static final byte RESPONSE = 3;
+    public static final byte CLOSE = 4;
+
+    private static final int MAGIC = 0x42424a31; // "BBJ1"
+
+    // one journal entry; timestampNanos is relative to the start of the journal
+    public static class Record {
+        public final byte type;
+        public final int connectionId;
+        public final long timestampNanos;
+        public final String payload;
+
+        Record(byte type, int connectionId, long timestampNanos, String payload) {
+            this.type = type;
+            this.connectionId = connectionId;
+            this.timestampNanos = timestampNanos;
+            this.payload = payload;
+        }
+    }
+
+    // thread-safe appender shared by every ClientHandler
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final long startNanos;
+        private long lastNanos;
+
+        public Writer(OutputStream stream) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            this.startNanos = System.nanoTime();
+            this.lastNanos = startNanos;
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        public void open(int connectionId) {
+            write(OPEN, connectionId, null);
+        }
+
+        public void command(int connectionId, String line) {
+            write(COMMAND, connectionId, line);
+        }
+
+        public void response(int connectionId, String line) {
+            write(RESPONSE, connectionId, line);
+        }
+
+        // also flushes, so finished sessions are on disk even if the server dies later
+        public void close(int connectionId) {
+            write(CLOSE, connectionId, null);
+            synchronized (this) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    System.err.println("Journal: flush failed: " + e.getMessage());
+                }
+            }
+        }
+
+        // the timestamp is taken under the lock so records stay in time order
+        private synchronized void write(byte type, int connectionId, String payload) {
+            try {
+                long now = System.nanoTime();
+                out.writeByte(type);
+                writeVarLong(out, connectionId);
+                writeVarLong(out, now - lastNanos);
+                lastNanos = now;
+                if (payload != null) {
+                    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+                    writeVarLong(out, bytes.length);
+                    out.write(bytes);
+                }
+            } catch (IOException e) {
+                System.err.println("Journal: write failed: " + e.getMessage());
+            }
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // sequential reader; next() returns null at the end of the journal
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startEpochMillis;
+        private long timestamp;
+
+        public Reader(InputStream stream) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a traffic journal");
+            }
+            this.startEpochMillis = in.readLong();
+        }
+
+        public long getStartEpochMillis() {
+            return startEpochMillis;
+        }
+
+        public Record next() throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                return null;
+            }
+            try {
+                int connectionId = (int) readVarLong(in);
+                timestamp += readVarLong(in);
+                String payload = null;
+                if (type == COMMAND || type == RESPONSE) {
+                    byte[] bytes = new byte[(int) readVarLong(in)];
+                    in.readFully(bytes);
+                    payload = new String(bytes, StandardCharsets.UTF_8);
+                }
+                return new Record((byte) type, connectionId, timestamp, payload);
+            } catch (EOFException e) {
+                // journal cut off mid-record (server killed); treat as the end
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private TrafficJournal() {
+    }
+}
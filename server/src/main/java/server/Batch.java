@@ -0,0 +1,99 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import server.utils.LineReader;
+import shared.Protocol;
+
+// a BATCH request: the header and its item lines, read in full before anything is applied
+// a header without a usable count reads no lines, so whatever follows runs as normal commands
+class Batch {
+    // item bytes held at once; the lines of a bigger batch are read and dropped
+    static final long MAX_BYTES = 64L << 20;
+
+    private final int count;
+    private final boolean atomic;
+    private final boolean validMode;
+    // raw item lines, parsed later with CommandParser; null for a line over the length limit
+    private final List<byte[]> lines;
+    private final boolean tooLarge;
+    // item bytes read, line ends excluded
+    private final long bytes;
+
+    private Batch(int count, boolean atomic, boolean validMode, List<byte[]> lines, boolean tooLarge, long bytes) {
+        this.count = count;
+        this.atomic = atomic;
+        this.validMode = validMode;
+        this.lines = lines;
+        this.tooLarge = tooLarge;
+        this.bytes = bytes;
+    }
+
+    // parses "<n> [ATOMIC|BEST_EFFORT]" and reads the n lines that follow
+    static Batch read(String params, LineReader in) throws IOException {
+        String[] parts = params.trim().split("\\s+");
+        int count = -1;
+        try {
+            count = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            // count stays invalid
+        }
+        if (parts.length > 2 || count < 1 || count > Protocol.BATCH_MAX_ITEMS) {
+            return new Batch(-1, false, false, new ArrayList<>(), false, 0);
+        }
+        boolean atomic = parts.length == 1 || parts[1].equals(Protocol.BATCH_ATOMIC);
+        boolean validMode = atomic || parts[1].equals(Protocol.BATCH_BEST_EFFORT);
+
+        List<byte[]> lines = new ArrayList<>(Math.min(count, 1024));
+        long bytes = 0;
+        int read = 0;
+        while (read < count && in.readLine()) {
+            read++;
+            bytes += in.lineEnd() - in.lineStart();
+            if (bytes > MAX_BYTES) {
+                lines.clear();
+                continue;
+            }
+            lines.add(in.isOverflow() ? null : Arrays.copyOfRange(in.buffer(), in.lineStart(), in.lineEnd()));
+        }
+        return new Batch(read == count ? count : -1, atomic, validMode, lines, bytes > MAX_BYTES, bytes);
+    }
+
+    // false for a bad header, an unknown mode, a batch over MAX_BYTES, or a connection closed mid-batch
+    boolean isValid() {
+        return count > 0 && validMode && !tooLarge && lines.size() == count;
+    }
+
+    boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    boolean isAtomic() {
+        return atomic;
+    }
+
+    int size() {
+        return lines.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    byte[] line(int i) {
+        return lines.get(i);
+    }
+
+    // the header with every item line, as the capture journal records it
+    String text(String header) {
+        StringBuilder sb = new StringBuilder(header);
+        for (byte[] line : lines) {
+            sb.append(Protocol.LINE_END).append(line == null ? "" : new String(line, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+}
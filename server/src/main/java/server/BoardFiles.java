@@ -0,0 +1,266 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import shared.Protocol;
+
+// streaming CSV import and export of a whole board
+//
+// one record per line:  N,x,y,colour,message   (the message is the rest of the line)
+//                       P,x,y
+// blank lines and lines starting with '#' are skipped; export writes every note before any pin
+//
+// import reads the file in 1 MiB blocks, parses blocks on a thread pool and inserts them in
+// file order; at most two blocks per thread are in flight, so memory use does not grow with
+// the file, only with the board
+public class BoardFiles {
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final byte LIST_SEPARATOR = (byte) Protocol.LIST_SEPARATOR.charAt(0);
+
+    private static final AtomicLong importedIds = new AtomicLong();
+
+    // what an import or export moved; rejected counts unparsable, invalid or conflicting records
+    public static class Result {
+        public final long notes;
+        public final long pins;
+        public final long rejected;
+
+        Result(long notes, long pins, long rejected) {
+            this.notes = notes;
+            this.pins = pins;
+            this.rejected = rejected;
+        }
+    }
+
+    // one parsed block
+    private static class Chunk {
+        final List<Note> notes = new ArrayList<>();
+        int[] pins = new int[64];
+        int pinCount;
+        int rejected;
+
+        void addPin(int x, int y) {
+            if (2 * pinCount + 1 >= pins.length) {
+                pins = Arrays.copyOf(pins, pins.length * 2);
+            }
+            pins[2 * pinCount] = x;
+            pins[2 * pinCount + 1] = y;
+            pinCount++;
+        }
+    }
+
+    // loads the file into the board; notes and pins the board refuses count as rejected
+    public static Result importCsv(Path file, BulletinBoard board, List<String> validColours) throws IOException {
+        // parsed colours resolve to the server's own strings
+        Map<String, String> colours = new HashMap<>();
+        for (String colour : validColours) {
+            colours.put(colour, colour);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "import-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        long[] totals = new long[3];
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                byte[] block = new byte[BLOCK_SIZE];
+                System.arraycopy(carry, 0, block, 0, carry.length);
+                int filled = carry.length + in.readNBytes(block, carry.length, BLOCK_SIZE - carry.length);
+                eof = filled < BLOCK_SIZE;
+                int cut = eof ? filled : lastLineEnd(block, filled);
+                if (cut == 0 && !eof) {
+                    throw new IOException("Line longer than " + BLOCK_SIZE + " bytes");
+                }
+                carry = Arrays.copyOfRange(block, cut, filled);
+                int end = cut;
+                inFlight.add(parsers.submit(() -> parse(block, end, colours)));
+                if (inFlight.size() >= 2 * threads) {
+                    apply(inFlight.poll(), board, totals);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                apply(inFlight.poll(), board, totals);
+            }
+        } finally {
+            parsers.shutdownNow();
+        }
+        return new Result(totals[0], totals[1], totals[2]);
+    }
+
+    // writes a consistent snapshot of the board; the file is replaced only once it is complete
+    public static Result exportCsv(Path file, BulletinBoard board) throws IOException {
+        List<Note> notes = new ArrayList<>();
+        List<Pin> pins = new ArrayList<>();
+        board.snapshot(notes, pins);
+
+        // a new, uniquely named file, so no link already in the directory is written through
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), BLOCK_SIZE)) {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("# bboard ").append(board.getBoardWidth()).append(' ').append(board.getBoardHeight())
+                    .append(' ').append(board.getNoteWidth()).append(' ').append(board.getNoteHeight()).append('\n');
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            for (Note note : notes) {
+                sb.setLength(0);
+                sb.append("N,").append(note.getX()).append(',').append(note.getY()).append(',')
+                        .append(note.getColour()).append(',');
+                out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                out.write(note.getMessageBytes());
+                out.write('\n');
+            }
+            for (Pin pin : pins) {
+                sb.setLength(0);
+                sb.append("P,").append(pin.getX()).append(',').append(pin.getY()).append('\n');
+                out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return new Result(notes.size(), pins.size(), 0);
+    }
+
+    // waits for a parsed block and inserts it; blocks are applied in file order
+    private static void apply(Future<Chunk> future, BulletinBoard board, long[] totals) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause(), e.getCause());
+        }
+        int notesAdded = board.addNotes(chunk.notes);
+        int pinsAdded = board.addPins(chunk.pins, chunk.pinCount);
+        totals[0] += notesAdded;
+        totals[1] += pinsAdded;
+        totals[2] += chunk.rejected + (chunk.notes.size() - notesAdded) + (chunk.pinCount - pinsAdded);
+    }
+
+    private static int lastLineEnd(byte[] block, int filled) {
+        for (int i = filled - 1; i >= 0; i--) {
+            if (block[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    // parses the complete lines in block[0, end)
+    private static Chunk parse(byte[] block, int end, Map<String, String> colours) {
+        Chunk chunk = new Chunk();
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && block[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && block[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart && block[lineStart] != '#') {
+                if (!parseRecord(block, lineStart, lineEnd, colours, chunk)) {
+                    chunk.rejected++;
+                }
+            }
+            lineStart = next;
+        }
+        return chunk;
+    }
+
+    private static boolean parseRecord(byte[] b, int start, int end, Map<String, String> colours, Chunk chunk) {
+        if (end - start < 2 || b[start + 1] != ',') {
+            return false;
+        }
+        byte kind = b[start];
+        int xEnd = indexOf(b, start + 2, end, (byte) ',');
+        if (xEnd < 0) {
+            return false;
+        }
+        int yEnd = kind == 'N' ? indexOf(b, xEnd + 1, end, (byte) ',') : end;
+        if (yEnd < 0) {
+            return false;
+        }
+        long x = parseInt(b, start + 2, xEnd);
+        long y = parseInt(b, xEnd + 1, yEnd);
+        if (x == Long.MIN_VALUE || y == Long.MIN_VALUE) {
+            return false;
+        }
+        if (kind == 'P') {
+            chunk.addPin((int) x, (int) y);
+            return true;
+        }
+        if (kind != 'N') {
+            return false;
+        }
+        int colourEnd = indexOf(b, yEnd + 1, end, (byte) ',');
+        if (colourEnd < 0) {
+            return false;
+        }
+        String colour = colours.get(new String(b, yEnd + 1, colourEnd - yEnd - 1, StandardCharsets.UTF_8));
+        // same rules as POST
+        if (colour == null || indexOf(b, colourEnd + 1, end, LIST_SEPARATOR) >= 0) {
+            return false;
+        }
+        chunk.notes.add(new Note(importedIds.getAndIncrement(), (int) x, (int) y, colour,
+                Arrays.copyOfRange(b, colourEnd + 1, end)));
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int from, int end, byte value) {
+        for (int i = from; i < end; i++) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // decimal int in b[start, end), or Long.MIN_VALUE if it is not one
+    private static long parseInt(byte[] b, int start, int end) {
+        boolean negative = start < end && b[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end || end - i > 10) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    private BoardFiles() {
+    }
+}
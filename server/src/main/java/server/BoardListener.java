@@ -0,0 +1,34 @@
+package server;
+
+import java.util.List;
+
+// told about every change to a BulletinBoard, in version order
+//
+// a change is a list of records in the BoardFiles CSV format plus a few of its own:
+//   N,x,y,colour,message   note added          P,x,y   pin added
+//   D,x,y                  note removed        U,x,y   pin removed
+//   S                      shake               C       clear
+// replaying the records of every change, in order, on an empty board reproduces the board
+public interface BoardListener {
+    String SHAKE = "S";
+    String CLEAR = "C";
+
+    // called with the board lock held, so it must not block
+    void boardChanged(long version, List<String> records);
+
+    static String note(Note note) {
+        return "N," + note.getX() + "," + note.getY() + "," + note.getColour() + "," + note.getMessage();
+    }
+
+    static String pin(int x, int y) {
+        return "P," + x + "," + y;
+    }
+
+    static String noteRemoved(Note note) {
+        return "D," + note.getX() + "," + note.getY();
+    }
+
+    static String unpin(int x, int y) {
+        return "U," + x + "," + y;
+    }
+}
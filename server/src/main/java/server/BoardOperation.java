@@ -0,0 +1,50 @@
+package server;
+
+// one mutation of a BATCH, applied by BulletinBoard.applyBatch
+public class BoardOperation {
+    public static final int POST = 0;
+    public static final int PIN = 1;
+    public static final int UNPIN = 2;
+
+    private final int type;
+    private final Note note;
+    private final int x;
+    private final int y;
+    // set by applyBatch when a POST failed because the board is at its NoteBudget
+    boolean boardFull;
+
+    private BoardOperation(int type, Note note, int x, int y) {
+        this.type = type;
+        this.note = note;
+        this.x = x;
+        this.y = y;
+    }
+
+    public static BoardOperation post(Note note) {
+        return new BoardOperation(POST, note, note.getX(), note.getY());
+    }
+
+    public static BoardOperation pin(int x, int y) {
+        return new BoardOperation(PIN, null, x, y);
+    }
+
+    public static BoardOperation unpin(int x, int y) {
+        return new BoardOperation(UNPIN, null, x, y);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+}
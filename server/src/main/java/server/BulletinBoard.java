@@ -1,18 +1,82 @@
 package server;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import server.jfr.BoardLockEvent;
 
 // bulletin board that manages notes and pins
 public class BulletinBoard {
+    // results of postNote; REJECTED covers an origin off the board or already taken
+    public static final int POSTED = 0;
+    public static final int REJECTED = 1;
+    public static final int FULL = 2;
+
+    // notes sampled per eviction, as in Redis' approximated LRU
+    private static final int EVICTION_SAMPLES = 5;
+
     private final int boardWidth;
     private final int boardHeight;
     private final int noteWidth;
     private final int noteHeight;
 
     // List of all notes and pins on the board
-    private final List<Note> notes;
+    private final NoteList notes = new NoteList();
     private final List<Pin> pins;
+    // notes by origin; a note can only completely overlap the one at the same origin
+    private final PositionIndex<Note> notesByPosition = new PositionIndex<>();
+    // notes by area, for region queries
+    private final SpatialGrid grid;
+    // notes by origin block, for region counts
+    private final RegionCounts regionCounts;
+    // notes and pinned notes by origin cell at every power-of-two scale, for HEATMAP
+    private final HeatmapGrid heatmap;
+    // pins per position, and pins inside each pinned note (by origin); keep pinned counts exact
+    private final PositionIndex<int[]> pinsByPosition = new PositionIndex<>();
+    private final PositionIndex<int[]> pinsByNote = new PositionIndex<>();
+    // shared message bytes; null unless deduplication is on
+    private MessageTable messageTable;
+    // deadlines of notes posted with a TTL; created with the first such note
+    private TimingWheel expiryWheel;
+    // note limit and eviction policy; null unless configured
+    private volatile NoteBudget budget;
+    private final Random evictionRandom = new Random();
+
+    // guards notes and pins; explicit so contention can be measured
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // counters readable without taking the lock (metrics scrapes)
+    private final AtomicInteger noteCount = new AtomicInteger();
+    private final AtomicInteger pinCount = new AtomicInteger();
+    private final AtomicInteger expiringNotes = new AtomicInteger();
+    private final AtomicLong noteBytes = new AtomicLong();
+    private final LongAdder expiredNotes = new LongAdder();
+    private final ConcurrentHashMap<String, AtomicInteger> colourCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger pinnedNoteCount = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> pinnedColourCounts = new ConcurrentHashMap<>();
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockContentions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    // bumped under the lock by every change to notes or pins; keys the GET response cache
+    private final AtomicLong version = new AtomicLong();
+    // replication hook; null unless this board is a primary
+    private volatile BoardListener listener;
 
     // constructs a new BulletinBoard
     public BulletinBoard(int boardWidth, int boardHeight, int noteWidth, int noteHeight) {
@@ -20,49 +84,80 @@ public class BulletinBoard {
         this.boardHeight = boardHeight;
         this.noteWidth = noteWidth;
         this.noteHeight = noteHeight;
-        this.notes = new ArrayList<>();
         this.pins = new ArrayList<>();
+        this.grid = new SpatialGrid(noteWidth, noteHeight);
+        this.regionCounts = new RegionCounts(boardWidth - noteWidth, boardHeight - noteHeight, noteWidth, noteHeight);
+        this.heatmap = new HeatmapGrid(boardWidth, boardHeight);
     }
 
     // adds a note to the bulletin board
-    public synchronized boolean addNote(Note note) {
-        // oob check
-        if (!isValidNotePosition(note.getX(), note.getY())) {
-            return false;
-        }
-        // overlap check
-        for (Note existingNote : notes) {
-            if (notesCompletelyOverlap(note, existingNote)) {
-                return false;
+    public boolean addNote(Note note) {
+        return postNote(note) == POSTED;
+    }
+
+    // adds a note, evicting others if the board is at its budget; POSTED, REJECTED or FULL
+    public int postNote(Note note) {
+        BoardLockEvent lockEvent = lock("addNote");
+        try {
+            List<String> records = listener != null ? new ArrayList<>(1) : null;
+            int result = insertNote(note, records, true);
+            if (result != POSTED) {
+                // a refused POST never evicts, so there is nothing to publish
+                return result;
             }
+            version.incrementAndGet();
+            if (records != null) {
+                records.add(BoardListener.note(note));
+                publish(records);
+            }
+            return POSTED;
+        } finally {
+            unlock(lockEvent);
         }
-        notes.add(note);
-        return true;
     }
 
     // removes a note from the bulletin board by its ID
-    public synchronized boolean removeNote(String noteId) {
-        if (noteId != null) {
-            for (Note note : notes) {
-                if (note.getId().equals(noteId)) {
-                    notes.remove(note);
-                    return true;
+    public boolean removeNote(String noteId) {
+        long id = parseId(noteId);
+        BoardLockEvent lockEvent = lock("removeNote");
+        try {
+            if (noteId != null) {
+                for (Note note : notes) {
+                    if (note.getIdValue() == id) {
+                        notes.remove(note);
+                        noteRemoved(note);
+                        version.incrementAndGet();
+                        if (listener != null) {
+                            publish(List.of(BoardListener.noteRemoved(note)));
+                        }
+                        return true;
+                    }
                 }
             }
+            return false;
+        } finally {
+            unlock(lockEvent);
         }
-        return false;
     }
 
     // retrieves all notes currently on the bulletin board
-    public synchronized List<Note> getNotes() {
-        return new ArrayList<>(notes);
+    public List<Note> getNotes() {
+        BoardLockEvent lockEvent = lock("getNotes");
+        try {
+            List<Note> result = new ArrayList<>(notes.size());
+            notes.copyTo(result);
+            return result;
+        } finally {
+            unlock(lockEvent);
+        }
     }
 
     // retrieves a specific note by its ID
     public Note getNote(String noteId) {
+        long id = parseId(noteId);
         if (noteId != null) {
             for (Note note : getNotes()) {
-                if (note.getId().equals(noteId)) {
+                if (note.getIdValue() == id) {
                     return note;
                 }
             }
@@ -71,142 +166,1099 @@ public class BulletinBoard {
     }
 
     // adds a pin to the bulletin board at the specified coordinates
-    public synchronized boolean addPin(int x, int y) {
-        for (Note note : notes) {
-            if (isPinInsideNote(x, y, note)) {
-                pins.add(new Pin(x, y));
-                return true;
+    public boolean addPin(int x, int y) {
+        BoardLockEvent lockEvent = lock("addPin");
+        try {
+            if (!insertPin(x, y)) {
+                return false;
+            }
+            version.incrementAndGet();
+            if (listener != null) {
+                publish(List.of(BoardListener.pin(x, y)));
             }
+            return true;
+        } finally {
+            unlock(lockEvent);
         }
-        return false;
     }
 
     // removes a pin from the bulletin board at the specified coordinates
-    public synchronized boolean removePin(int x, int y) {
-        java.util.Iterator<Pin> iterator = pins.iterator();
-        while (iterator.hasNext()) {
-            Pin pin = iterator.next();
-            if (pin.getX() == x && pin.getY() == y) {
-                iterator.remove();
-                return true;
+    public boolean removePin(int x, int y) {
+        BoardLockEvent lockEvent = lock("removePin");
+        try {
+            int index = indexOfPin(x, y);
+            if (index < 0) {
+                return false;
+            }
+            pins.remove(index);
+            pinRemoved(x, y);
+            version.incrementAndGet();
+            if (listener != null) {
+                publish(List.of(BoardListener.unpin(x, y)));
             }
+            return true;
+        } finally {
+            unlock(lockEvent);
         }
-        return false;
     }
 
-    // removes all unpinned notes from the board
-    public synchronized int shake() {
-        List<Note> toRemove = new ArrayList<>();
-        for (Note note : notes) {
-            boolean isPinned = false;
-            for (Pin pin : pins) {
-                if (isPinInsideNote(pin.getX(), pin.getY(), note)) {
-                    isPinned = true;
+    // applies a BATCH under one lock acquisition; applied[i] is set for each operation that took effect
+    // null operations (rejected by the caller) are skipped
+    // atomic: the first failing operation undoes everything before it and its index is returned;
+    // otherwise -1. atomic batches do not evict, since evicted notes could not be put back
+    public int applyBatch(List<BoardOperation> operations, boolean atomic, boolean[] applied) {
+        BoardLockEvent lockEvent = lock("applyBatch");
+        try {
+            List<String> records = listener != null ? new ArrayList<>() : null;
+            // undo log for UNPIN; POST and PIN append, so undoing them in reverse removes the last element
+            Pin[] removedPins = atomic ? new Pin[operations.size()] : null;
+            int[] removedAt = atomic ? new int[operations.size()] : null;
+            int appliedCount = 0;
+            for (int i = 0; i < operations.size(); i++) {
+                BoardOperation op = operations.get(i);
+                if (op == null) {
+                    continue;
+                }
+                boolean ok;
+                switch (op.getType()) {
+                    case BoardOperation.POST:
+                        int result = insertNote(op.getNote(), records, !atomic);
+                        ok = result == POSTED;
+                        op.boardFull = result == FULL;
+                        if (ok && records != null) {
+                            records.add(BoardListener.note(op.getNote()));
+                        }
+                        break;
+                    case BoardOperation.PIN:
+                        ok = insertPin(op.getX(), op.getY());
+                        if (ok && records != null) {
+                            records.add(BoardListener.pin(op.getX(), op.getY()));
+                        }
+                        break;
+                    default:
+                        int index = indexOfPin(op.getX(), op.getY());
+                        ok = index >= 0;
+                        if (ok) {
+                            Pin pin = pins.remove(index);
+                            pinRemoved(pin.getX(), pin.getY());
+                            if (records != null) {
+                                records.add(BoardListener.unpin(op.getX(), op.getY()));
+                            }
+                            if (atomic) {
+                                removedPins[i] = pin;
+                                removedAt[i] = index;
+                            }
+                        }
+                        break;
+                }
+                if (ok) {
+                    applied[i] = true;
+                    appliedCount++;
+                } else if (atomic) {
+                    undo(operations, applied, i, removedPins, removedAt);
+                    return i;
+                }
+            }
+            if (appliedCount > 0) {
+                version.incrementAndGet();
+                if (records != null) {
+                    publish(records);
+                }
+            }
+            return -1;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // reverts operations [0, end) newest first; the lock must be held
+    private void undo(List<BoardOperation> operations, boolean[] applied, int end, Pin[] removedPins,
+            int[] removedAt) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (!applied[i]) {
+                continue;
+            }
+            switch (operations.get(i).getType()) {
+                case BoardOperation.POST:
+                    noteRemoved(notes.removeLast());
+                    break;
+                case BoardOperation.PIN:
+                    Pin pin = pins.remove(pins.size() - 1);
+                    pinRemoved(pin.getX(), pin.getY());
+                    break;
+                default:
+                    pins.add(removedAt[i], removedPins[i]);
+                    pinAdded(removedPins[i].getX(), removedPins[i].getY());
                     break;
+            }
+            applied[i] = false;
+        }
+    }
+
+    // bulk insert for imports: one lock acquisition for the whole list; returns how many were added
+    // notes out of bounds or at a taken origin are skipped
+    public int addNotes(List<Note> newNotes) {
+        BoardLockEvent lockEvent = lock("addNotes");
+        try {
+            List<String> records = listener != null ? new ArrayList<>() : null;
+            int added = 0;
+            for (Note note : newNotes) {
+                if (insertNote(note, records, true) == POSTED) {
+                    added++;
+                    if (records != null) {
+                        records.add(BoardListener.note(note));
+                    }
+                }
+            }
+            if (added > 0) {
+                version.incrementAndGet();
+                if (records != null) {
+                    publish(records);
+                }
+            }
+            return added;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // bulk pin insert for imports; coordinates are x, y pairs in coords[0, 2 * count)
+    public int addPins(int[] coords, int count) {
+        BoardLockEvent lockEvent = lock("addPins");
+        try {
+            List<String> records = listener != null ? new ArrayList<>() : null;
+            int added = 0;
+            for (int i = 0; i < count; i++) {
+                if (insertPin(coords[2 * i], coords[2 * i + 1])) {
+                    added++;
+                    if (records != null) {
+                        records.add(BoardListener.pin(coords[2 * i], coords[2 * i + 1]));
+                    }
+                }
+            }
+            if (added > 0) {
+                version.incrementAndGet();
+                if (records != null) {
+                    publish(records);
+                }
+            }
+            return added;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // copies notes and pins under one lock acquisition, so they describe the same board state;
+    // returns the version they describe
+    public long snapshot(List<Note> notesOut, List<Pin> pinsOut) {
+        BoardLockEvent lockEvent = lock("snapshot");
+        try {
+            notes.copyTo(notesOut);
+            pinsOut.addAll(pins);
+            return version.get();
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // removes all unpinned notes from the board
+    public int shake() {
+        BoardLockEvent lockEvent = lock("shake");
+        try {
+            List<Note> toRemove = new ArrayList<>();
+            for (Note note : notes) {
+                if (!isPinned(note)) {
+                    toRemove.add(note);
                 }
             }
-            if (!isPinned) {
-                toRemove.add(note);
+            for (Note note : toRemove) {
+                notes.remove(note);
+                noteRemoved(note);
             }
+            if (!toRemove.isEmpty()) {
+                version.incrementAndGet();
+                if (listener != null) {
+                    publish(List.of(BoardListener.SHAKE));
+                }
+            }
+            return toRemove.size();
+        } finally {
+            unlock(lockEvent);
         }
-        notes.removeAll(toRemove);
-        return toRemove.size();
     }
 
     // gets all notes that contain the coordinate
-    public synchronized List<Note> getNotesContaining(int x, int y) {
-        List<Note> result = new ArrayList<>();
-        for (Note note : notes) {
-            if (note.containsPoint(x, y, noteWidth, noteHeight)) {
-                result.add(note);
+    public List<Note> getNotesContaining(int x, int y) {
+        BoardLockEvent lockEvent = lock("getNotesContaining");
+        try {
+            List<Note> result = new ArrayList<>();
+            for (Note note : notes) {
+                if (note.containsPoint(x, y, noteWidth, noteHeight)) {
+                    result.add(note);
+                }
             }
+            return result;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // gets all notes overlapping the rectangle [x, x + width) x [y, y + height), in board order
+    // only the grid cells under the rectangle are visited, or every note when that is less work
+    public List<Note> getNotesInRegion(int x, int y, int width, int height) {
+        BoardLockEvent lockEvent = lock("getNotesInRegion");
+        try {
+            return notesInRegion(x, y, width, height);
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // gets the k notes passing filter nearest to (x, y), by distance from the point to the note,
+    // nearest first; equally near notes come in board order. filter runs under the board lock
+    public List<Note> getNearestNotes(int x, int y, int k, Predicate<Note> filter) {
+        BoardLockEvent lockEvent = lock("getNearestNotes");
+        try {
+            // past as many cells as there are notes, one pass over the notes is cheaper
+            List<Note> result = grid.nearest(x, y, k, filter, notes.size());
+            if (result == null) {
+                SpatialGrid.Nearest nearest = new SpatialGrid.Nearest(x, y, k, noteWidth, noteHeight);
+                for (Note note : notes) {
+                    if (filter.test(note)) {
+                        nearest.offer(note);
+                    }
+                }
+                result = nearest.result();
+            }
+            return result;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // counts the notes overlapping the rectangle [x, x + width) x [y, y + height) without listing
+    // them: whole blocks come from the summed-area counts and only the notes in the partial blocks
+    // along the edges are looked at
+    public int countNotesInRegion(int x, int y, int width, int height) {
+        long minX = Math.max(0, (long) x - noteWidth + 1);
+        long minY = Math.max(0, (long) y - noteHeight + 1);
+        long maxX = Math.min((long) x + width - 1, boardWidth - noteWidth);
+        long maxY = Math.min((long) y + height - 1, boardHeight - noteHeight);
+        if (width <= 0 || height <= 0 || minX > maxX || minY > maxY) {
+            return 0;
+        }
+        int bw = regionCounts.blockWidth();
+        int bh = regionCounts.blockHeight();
+        // the blocks lying wholly inside the origin range
+        int c0 = (int) ((minX + bw - 1) / bw);
+        int c1 = (int) ((maxX + 1) / bw) - 1;
+        int r0 = (int) ((minY + bh - 1) / bh);
+        int r1 = (int) ((maxY + 1) / bh) - 1;
+        BoardLockEvent lockEvent = lock("countNotesInRegion");
+        try {
+            if (c0 > c1 || r0 > r1) {
+                return grid.count(minX, minY, maxX, maxY);
+            }
+            long innerMinX = (long) c0 * bw;
+            long innerMaxX = (long) (c1 + 1) * bw - 1;
+            long innerMinY = (long) r0 * bh;
+            long innerMaxY = (long) (r1 + 1) * bh - 1;
+            int count = regionCounts.sum(c0, r0, c1, r1);
+            // left and right strips at full height, then top and bottom between them
+            count += grid.count(minX, minY, innerMinX - 1, maxY);
+            count += grid.count(innerMaxX + 1, minY, maxX, maxY);
+            count += grid.count(innerMinX, minY, innerMaxX, innerMinY - 1);
+            count += grid.count(innerMinX, innerMaxY + 1, innerMaxX, maxY);
+            return count;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // note and pinned-note counts per square cell, by note origin; cells are the smallest power of
+    // two at least cellSize wide that keeps the grid within maxCells
+    public Heatmap getHeatmap(int cellSize, int maxCells) {
+        BoardLockEvent lockEvent = lock("getHeatmap");
+        try {
+            int level = heatmap.level(cellSize, maxCells);
+            Heatmap result = new Heatmap(heatmap.cellSize(level), heatmap.cols(level), heatmap.rows(level));
+            heatmap.copy(level, result.counts, result.pinned);
+            return result;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // a HEATMAP: cols x rows cells cellSize wide, counts and pinned row-major
+    public static final class Heatmap {
+        public final int cellSize;
+        public final int cols;
+        public final int rows;
+        public final int[] counts;
+        public final int[] pinned;
+
+        Heatmap(int cellSize, int cols, int rows) {
+            this.cellSize = cellSize;
+            this.cols = cols;
+            this.rows = rows;
+            this.counts = new int[cols * rows];
+            this.pinned = new int[cols * rows];
+        }
+    }
+
+    // counts the notes passing filter, within the area [x, y, w, h] if given and with pinned, if
+    // not null, their pinned state; a scan, for the combinations no counter answers
+    public int countNotes(int[] area, Predicate<Note> filter, Boolean pinned) {
+        BoardLockEvent lockEvent = lock("countNotes");
+        try {
+            int count = 0;
+            for (Note note : area != null ? notesInRegion(area[0], area[1], area[2], area[3]) : notes) {
+                if (filter.test(note) && (pinned == null || pinned == isPinned(note))) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // runs reader with the lock held, so every board method it calls sees the same state; they
+    // take the lock again, which is reentrant
+    public <T> T read(String operation, Supplier<T> reader) {
+        BoardLockEvent lockEvent = lock(operation);
+        try {
+            return reader.get();
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // the pins inside at least one of the given board notes, in board order
+    public List<Pin> getPinsOn(List<Note> selected) {
+        BoardLockEvent lockEvent = lock("getPinsOn");
+        try {
+            List<Pin> result = new ArrayList<>();
+            if (selected.isEmpty() || pins.isEmpty()) {
+                return result;
+            }
+            Set<Note> chosen = Collections.newSetFromMap(new IdentityHashMap<>());
+            chosen.addAll(selected);
+            for (Pin pin : pins) {
+                for (Note note : notesContaining(pin.getX(), pin.getY())) {
+                    if (chosen.contains(note)) {
+                        result.add(pin);
+                        break;
+                    }
+                }
+            }
+            return result;
+        } finally {
+            unlock(lockEvent);
         }
-        return result;
     }
 
     // gets all notes with the colour
-    public synchronized List<Note> getNotesByColour(String colour) {
-        List<Note> result = new ArrayList<>();
-        for (Note note : notes) {
-            if (note.getColour().equals(colour)) {
-                result.add(note);
+    public List<Note> getNotesByColour(String colour) {
+        BoardLockEvent lockEvent = lock("getNotesByColour");
+        try {
+            List<Note> result = new ArrayList<>();
+            for (Note note : notes) {
+                if (note.getColour().equals(colour)) {
+                    result.add(note);
+                }
             }
+            return result;
+        } finally {
+            unlock(lockEvent);
         }
-        return result;
     }
 
     // gets all notes whose content contains the substring
-    public synchronized List<Note> getNotesByContent(String substring) {
-        List<Note> result = new ArrayList<>();
-        for (Note note : notes) {
-            if (note.getMessage().contains(substring)) {
-                result.add(note);
+    public List<Note> getNotesByContent(String substring) {
+        byte[] needle = substring.getBytes(StandardCharsets.UTF_8);
+        BoardLockEvent lockEvent = lock("getNotesByContent");
+        try {
+            List<Note> result = new ArrayList<>();
+            for (Note note : notes) {
+                if (note.messageContains(needle)) {
+                    result.add(note);
+                }
             }
+            return result;
+        } finally {
+            unlock(lockEvent);
         }
-        return result;
     }
 
     // gets all pins at the coordinate
-    public synchronized List<Pin> getPinsAt(int x, int y) {
-        List<Pin> result = new ArrayList<>();
-        for (Pin pin : pins) {
-            if (pin.getX() == x && pin.getY() == y) {
-                result.add(pin);
+    public List<Pin> getPinsAt(int x, int y) {
+        BoardLockEvent lockEvent = lock("getPinsAt");
+        try {
+            List<Pin> result = new ArrayList<>();
+            for (Pin pin : pins) {
+                if (pin.getX() == x && pin.getY() == y) {
+                    result.add(pin);
+                }
             }
+            return result;
+        } finally {
+            unlock(lockEvent);
         }
-        return result;
     }
 
     // removes all notes and all pins from the board
-    public synchronized void clear() {
-        notes.clear();
-        pins.clear();
+    public void clear() {
+        BoardLockEvent lockEvent = lock("clear");
+        try {
+            clearAll();
+            version.incrementAndGet();
+            if (listener != null) {
+                publish(List.of(BoardListener.CLEAR));
+            }
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // replaces everything on the board in one lock acquisition, so readers never see it half
+    // loaded; used by replicas for the primary's snapshot. pins are x, y pairs in coords[0, 2 * count)
+    public void load(List<Note> newNotes, int[] coords, int count) {
+        BoardLockEvent lockEvent = lock("load");
+        try {
+            clearAll();
+            for (Note note : newNotes) {
+                insertNote(note, null, true);
+            }
+            for (int i = 0; i < count; i++) {
+                insertPin(coords[2 * i], coords[2 * i + 1]);
+            }
+            version.incrementAndGet();
+            if (listener != null) {
+                List<String> records = new ArrayList<>(notes.size() + pins.size() + 1);
+                records.add(BoardListener.CLEAR);
+                for (Note note : notes) {
+                    records.add(BoardListener.note(note));
+                }
+                for (Pin pin : pins) {
+                    records.add(BoardListener.pin(pin.getX(), pin.getY()));
+                }
+                publish(records);
+            }
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // removes the note with its origin at (x, y); replicas use it since note ids are local
+    public boolean removeNoteAt(int x, int y) {
+        BoardLockEvent lockEvent = lock("removeNoteAt");
+        try {
+            Note note = notesByPosition.get(position(x, y));
+            if (note == null) {
+                return false;
+            }
+            notes.remove(note);
+            noteRemoved(note);
+            version.incrementAndGet();
+            if (listener != null) {
+                publish(List.of(BoardListener.noteRemoved(note)));
+            }
+            return true;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // removes up to max notes whose TTL ran out by nowMillis, returning how many; the expirer calls
+    // it repeatedly so that a burst of expiries does not hold the lock for long
+    public int expireDue(long nowMillis, int max) {
+        if (expiringNotes.get() == 0) {
+            return 0;
+        }
+        BoardLockEvent lockEvent = lock("expireDue");
+        try {
+            expiryWheel.advance(nowMillis);
+            List<String> records = listener != null ? new ArrayList<>() : null;
+            int removed = 0;
+            TimingWheel.Entry entry;
+            while (removed < max && (entry = expiryWheel.pollDue()) != null) {
+                Note note = entry.note;
+                boolean pinned = isPinned(note);
+                notes.remove(note);
+                noteRemoved(note);
+                removed++;
+                if (records != null) {
+                    records.add(BoardListener.noteRemoved(note));
+                }
+                if (pinned) {
+                    removeUncoveredPins(note, records);
+                }
+            }
+            if (removed > 0) {
+                expiredNotes.add(removed);
+                version.incrementAndGet();
+                if (records != null) {
+                    publish(records);
+                }
+            }
+            return removed;
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // a pin needs a note under it, as PIN, IMPORT and a replica's load all insist; when a note goes
+    // without SHAKE (its TTL ran out), the pins it held that no other note covers go with it
+    private void removeUncoveredPins(Note note, List<String> records) {
+        for (int i = pins.size() - 1; i >= 0; i--) {
+            Pin pin = pins.get(i);
+            int x = pin.getX();
+            int y = pin.getY();
+            if (x >= note.getX() && x < note.getX() + noteWidth && y >= note.getY() && y < note.getY() + noteHeight
+                    && notesContaining(x, y).isEmpty()) {
+                pins.remove(i);
+                pinRemoved(x, y);
+                if (records != null) {
+                    records.add(BoardListener.unpin(x, y));
+                }
+            }
+        }
     }
 
     // retrieves all pins currently on the bulletin board
-    public synchronized List<Pin> getPins() {
-        return new ArrayList<>(pins);
+    public List<Pin> getPins() {
+        BoardLockEvent lockEvent = lock("getPins");
+        try {
+            return new ArrayList<>(pins);
+        } finally {
+            unlock(lockEvent);
+        }
     }
 
     // retrieves a specific pin by its ID
-    public synchronized Pin getPin(String pinId) {
-        for (Pin pin : pins) {
-            if (pin.getId().equals(pinId)) {
-                return pin;
+    public Pin getPin(String pinId) {
+        BoardLockEvent lockEvent = lock("getPin");
+        try {
+            for (Pin pin : pins) {
+                if (pin.getId().equals(pinId)) {
+                    return pin;
+                }
             }
+            return null;
+        } finally {
+            unlock(lockEvent);
         }
-        return null;
     }
 
     // accessors
-    public synchronized int getBoardWidth() {
+    public int getBoardWidth() {
         return boardWidth;
     }
 
-    public synchronized int getBoardHeight() {
+    public int getBoardHeight() {
         return boardHeight;
     }
 
-    public synchronized int getNoteWidth() {
+    public int getNoteWidth() {
         return noteWidth;
     }
 
-    public synchronized int getNoteHeight() {
+    public int getNoteHeight() {
         return noteHeight;
     }
 
-    // validates if a notes position and dimensions are within board boundaries
-    private synchronized boolean isValidNotePosition(int x, int y) {
-        return x >= 0 && y >= 0 && x + noteWidth <= boardWidth && y + noteHeight <= boardHeight;
+    // lock-free statistics, safe to read while another thread holds the board lock
+    public int getNoteCount() {
+        return noteCount.get();
+    }
+
+    public int getPinCount() {
+        return pinCount.get();
+    }
+
+    // notes with at least one pin inside, optionally of one colour (null for all)
+    public int getPinnedNoteCount(String colour) {
+        if (colour == null) {
+            return pinnedNoteCount.get();
+        }
+        AtomicInteger count = pinnedColourCounts.get(colour);
+        return count == null ? 0 : count.get();
+    }
+
+    // notes of the colour; 0 for a colour never posted
+    public int getNoteCount(String colour) {
+        AtomicInteger count = colourCounts.get(colour);
+        return count == null ? 0 : count.get();
+    }
+
+    // notes on the board with a TTL, and notes removed because theirs ran out
+    public int getExpiringNoteCount() {
+        return expiringNotes.get();
+    }
+
+    public long getExpiredNoteCount() {
+        return expiredNotes.sum();
+    }
+
+    // note count per colour, sorted by colour name
+    public Map<String, Integer> getColourCounts() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : colourCounts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    // changes whenever notes or pins change; read it before taking a snapshot
+    public long getVersion() {
+        return version.get();
+    }
+
+    // shares one byte[] between notes with equal messages, including those already on the board
+    public void setMessageDedup(boolean enabled) {
+        BoardLockEvent lockEvent = lock("setMessageDedup");
+        try {
+            messageTable = enabled ? new MessageTable() : null;
+            if (messageTable != null) {
+                for (Note note : notes) {
+                    note.shareMessage(messageTable.acquire(note.getMessageBytes()));
+                }
+            }
+        } finally {
+            unlock(lockEvent);
+        }
+    }
+
+    // limits the notes the board holds; POSTs beyond it evict (see NoteBudget). set before clients connect
+    public void setNoteBudget(NoteBudget budget) {
+        this.budget = budget;
+    }
+
+    // counts GET hits towards eviction; lock-free, and free without a budget
+    public void recordReads(List<Note> hits) {
+        NoteBudget current = budget;
+        if (current == null) {
+            return;
+        }
+        for (Note note : hits) {
+            current.recordAccess(note, position(note.getX(), note.getY()));
+        }
+    }
+
+    // estimated heap held by notes (NoteBudget.sizeOf), evictions and refused POSTs
+    public long getNoteBytes() {
+        return noteBytes.get();
+    }
+
+    public long getEvictions() {
+        NoteBudget current = budget;
+        return current == null ? 0 : current.getEvictions();
+    }
+
+    public long getFullRejections() {
+        NoteBudget current = budget;
+        return current == null ? 0 : current.getRejections();
+    }
+
+    // distinct messages held by the dedup table, and notes sharing another note's message
+    public int getDedupMessages() {
+        MessageTable table = messageTable;
+        return table == null ? 0 : table.getEntryCount();
+    }
+
+    public long getDedupSharedNotes() {
+        MessageTable table = messageTable;
+        return table == null ? 0 : table.getSharedNotes();
+    }
+
+    // at most one listener; set it before clients connect
+    public void setListener(BoardListener listener) {
+        this.listener = listener;
+    }
+
+    public long getLockAcquisitions() {
+        return lockAcquisitions.sum();
+    }
+
+    public long getLockContentions() {
+        return lockContentions.sum();
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    // takes the board lock, recording whether we had to wait for it
+    // the returned event times the hold and is only committed while a JFR recording is running
+    private BoardLockEvent lock(String operation) {
+        long waited = 0;
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            waited = System.nanoTime() - start;
+            lockContentions.increment();
+            lockWaitNanos.add(waited);
+        }
+        lockAcquisitions.increment();
+        BoardLockEvent event = new BoardLockEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.waitTime = waited;
+            event.begin();
+        }
+        return event;
+    }
+
+    // releases the board lock and reports the hold time
+    private void unlock(BoardLockEvent event) {
+        event.end();
+        lock.unlock();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    // tells the listener, if any, about the change just made; the lock must be held
+    private void publish(List<String> records) {
+        BoardListener current = listener;
+        if (current != null) {
+            current.boardChanged(version.get(), records);
+        }
+    }
+
+    // empties notes, pins and the counters; the lock must be held
+    private void clearAll() {
+        notes.clear();
+        notesByPosition.clear();
+        grid.clear();
+        pins.clear();
+        noteCount.set(0);
+        pinCount.set(0);
+        for (AtomicInteger count : colourCounts.values()) {
+            count.set(0);
+        }
+        regionCounts.clear();
+        heatmap.clear();
+        pinsByPosition.clear();
+        pinsByNote.clear();
+        pinnedNoteCount.set(0);
+        for (AtomicInteger count : pinnedColourCounts.values()) {
+            count.set(0);
+        }
+        if (messageTable != null) {
+            messageTable.clear();
+        }
+        if (expiryWheel != null) {
+            expiryWheel.clear();
+        }
+        expiringNotes.set(0);
+        noteBytes.set(0);
+    }
+
+    // keeps the position index and the lock-free counters in step with the note list
+    private void noteAdded(Note note) {
+        if (messageTable != null) {
+            note.shareMessage(messageTable.acquire(note.getMessageBytes()));
+        }
+        if (note.expiry != null) {
+            if (expiryWheel == null) {
+                expiryWheel = new TimingWheel(System.currentTimeMillis());
+            }
+            expiryWheel.schedule(note.expiry, System.currentTimeMillis());
+            expiringNotes.incrementAndGet();
+        }
+        notesByPosition.put(position(note.getX(), note.getY()), note);
+        grid.add(note);
+        regionCounts.add(note.getX(), note.getY(), 1);
+        heatmap.add(note.getX(), note.getY(), 1);
+        noteCount.incrementAndGet();
+        noteBytes.addAndGet(NoteBudget.sizeOf(note));
+        colourCounts.computeIfAbsent(note.getColour(), c -> new AtomicInteger()).incrementAndGet();
+        // a note can land on pins left by others
+        int pinsInside = countPinsInside(note);
+        if (pinsInside > 0) {
+            pinsByNote.put(position(note.getX(), note.getY()), new int[] { pinsInside });
+            notePinned(note, 1);
+        }
+    }
+
+    private void noteRemoved(Note note) {
+        if (messageTable != null) {
+            messageTable.release(note.getMessageBytes());
+        }
+        if (note.expiry != null) {
+            expiryWheel.cancel(note.expiry);
+            expiringNotes.decrementAndGet();
+        }
+        notesByPosition.remove(position(note.getX(), note.getY()));
+        grid.remove(note);
+        regionCounts.add(note.getX(), note.getY(), -1);
+        heatmap.add(note.getX(), note.getY(), -1);
+        noteCount.decrementAndGet();
+        noteBytes.addAndGet(-NoteBudget.sizeOf(note));
+        AtomicInteger count = colourCounts.get(note.getColour());
+        if (count != null) {
+            count.decrementAndGet();
+        }
+        long origin = position(note.getX(), note.getY());
+        if (pinsByNote.get(origin) != null) {
+            pinsByNote.remove(origin);
+            notePinned(note, -1);
+        }
+    }
+
+    // keeps the pin index and the pinned counts in step with the pin list
+    private void pinAdded(int x, int y) {
+        pinCount.incrementAndGet();
+        long key = position(x, y);
+        int[] count = pinsByPosition.get(key);
+        if (count == null) {
+            pinsByPosition.put(key, new int[] { 1 });
+        } else {
+            count[0]++;
+        }
+        for (Note note : notesContaining(x, y)) {
+            long origin = position(note.getX(), note.getY());
+            int[] pinsInside = pinsByNote.get(origin);
+            if (pinsInside == null) {
+                pinsByNote.put(origin, new int[] { 1 });
+                notePinned(note, 1);
+            } else {
+                pinsInside[0]++;
+            }
+        }
+    }
+
+    private void pinRemoved(int x, int y) {
+        pinCount.decrementAndGet();
+        long key = position(x, y);
+        int[] count = pinsByPosition.get(key);
+        if (count != null && --count[0] == 0) {
+            pinsByPosition.remove(key);
+        }
+        for (Note note : notesContaining(x, y)) {
+            long origin = position(note.getX(), note.getY());
+            int[] pinsInside = pinsByNote.get(origin);
+            if (pinsInside != null && --pinsInside[0] == 0) {
+                pinsByNote.remove(origin);
+                notePinned(note, -1);
+            }
+        }
+    }
+
+    private void notePinned(Note note, int delta) {
+        pinnedNoteCount.addAndGet(delta);
+        heatmap.addPinned(note.getX(), note.getY(), delta);
+        pinnedColourCounts.computeIfAbsent(note.getColour(), c -> new AtomicInteger()).addAndGet(delta);
+    }
+
+    // the notes covering the point, found through the grid
+    private List<Note> notesContaining(int x, int y) {
+        List<Note> result = new ArrayList<>(1);
+        long minX = Math.max(0, (long) x - noteWidth + 1);
+        long minY = Math.max(0, (long) y - noteHeight + 1);
+        if (minX <= x && minY <= y) {
+            grid.collect(minX, minY, x, y, result);
+        }
+        return result;
+    }
+
+    // probes every position under the note, or scans the pins when there are fewer of them
+    private int countPinsInside(Note note) {
+        if (pinsByPosition.size() == 0) {
+            return 0;
+        }
+        int count = 0;
+        if ((long) noteWidth * noteHeight < pins.size()) {
+            for (int px = note.getX(); px < note.getX() + noteWidth; px++) {
+                for (int py = note.getY(); py < note.getY() + noteHeight; py++) {
+                    int[] pinsHere = pinsByPosition.get(position(px, py));
+                    if (pinsHere != null) {
+                        count += pinsHere[0];
+                    }
+                }
+            }
+            return count;
+        }
+        for (Pin pin : pins) {
+            if (isPinInsideNote(pin.getX(), pin.getY(), note)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // getNotesInRegion with the lock held
+    private List<Note> notesInRegion(int x, int y, int width, int height) {
+        List<Note> result = new ArrayList<>();
+        // the origins a note overlapping the rectangle can have, within the board
+        long minX = Math.max(0, (long) x - noteWidth + 1);
+        long minY = Math.max(0, (long) y - noteHeight + 1);
+        long maxX = Math.min((long) x + width - 1, boardWidth - noteWidth);
+        long maxY = Math.min((long) y + height - 1, boardHeight - noteHeight);
+        if (width <= 0 || height <= 0 || minX > maxX || minY > maxY) {
+            return result;
+        }
+        if (grid.cellsCovering(minX, minY, maxX, maxY) >= notes.size()) {
+            for (Note note : notes) {
+                if (note.getX() >= minX && note.getX() <= maxX && note.getY() >= minY && note.getY() <= maxY) {
+                    result.add(note);
+                }
+            }
+            return result;
+        }
+        grid.collect(minX, minY, maxX, maxY, result);
+        // list slots are in insertion order
+        result.sort(Comparator.comparingInt(note -> note.slot));
+        return result;
+    }
+
+    // the single-item mutations below expect the lock to be held and leave the version to the caller
+    // notes evicted to make room are added to records, if given, as removals
+    private int insertNote(Note note, List<String> records, boolean mayEvict) {
+        // oob check
+        if (!isValidNotePosition(note.getX(), note.getY())) {
+            return REJECTED;
+        }
+        // overlap check
+        long position = position(note.getX(), note.getY());
+        if (notesByPosition.containsKey(position)) {
+            return REJECTED;
+        }
+        NoteBudget current = budget;
+        if (current != null && !makeRoom(current, note, position, records, mayEvict)) {
+            current.rejected();
+            return FULL;
+        }
+        notes.add(note);
+        noteAdded(note);
+        return POSTED;
+    }
+
+    // evicts notes until the new one fits the budget; all or nothing, so a refused note costs no
+    // other note its place
+    private boolean makeRoom(NoteBudget current, Note note, long position, List<String> records,
+            boolean mayEvict) {
+        current.recordAccess(note, position);
+        long size = NoteBudget.sizeOf(note);
+        int count = noteCount.get() + 1;
+        long bytes = noteBytes.get() + size;
+        if (!current.isExceeded(count, bytes)) {
+            return true;
+        }
+        if (!mayEvict || current.isExceeded(1, size)) {
+            return false;
+        }
+        List<Note> victims = new ArrayList<>(1);
+        while (current.isExceeded(count, bytes)) {
+            Note victim = pickVictim(current, victims);
+            if (victim == null) {
+                return false;
+            }
+            victims.add(victim);
+            count--;
+            bytes -= NoteBudget.sizeOf(victim);
+        }
+        for (Note victim : victims) {
+            notes.remove(victim);
+            noteRemoved(victim);
+            current.evicted();
+            if (records != null) {
+                records.add(BoardListener.noteRemoved(victim));
+            }
+        }
+        return true;
+    }
+
+    // the coldest of a few randomly sampled unpinned notes not already chosen, or null if the
+    // samples turned up none
+    private Note pickVictim(NoteBudget current, List<Note> chosen) {
+        Note victim = null;
+        int candidates = 0;
+        for (int i = 0; i < 4 * EVICTION_SAMPLES && candidates < EVICTION_SAMPLES; i++) {
+            Note note = notes.sample(evictionRandom);
+            if (note == null || chosen.contains(note) || isPinned(note)) {
+                continue;
+            }
+            candidates++;
+            if (victim == null || isColder(current, note, victim)) {
+                victim = note;
+            }
+        }
+        return victim;
+    }
+
+    private boolean isColder(NoteBudget current, Note a, Note b) {
+        if (current.isLfu()) {
+            return current.frequency(position(a.getX(), a.getY())) < current.frequency(position(b.getX(), b.getY()));
+        }
+        return NoteBudget.isOlder(a, b);
+    }
+
+    private boolean isPinned(Note note) {
+        return pinsByNote.get(position(note.getX(), note.getY())) != null;
+    }
+
+    private boolean insertPin(int x, int y) {
+        if (!hasNoteContaining(x, y)) {
+            return false;
+        }
+        pins.add(new Pin(x, y));
+        pinAdded(x, y);
+        return true;
+    }
+
+    // probes every origin a note covering the point could have, or scans when that is fewer notes
+    private boolean hasNoteContaining(int x, int y) {
+        if ((long) noteWidth * noteHeight < notes.size()) {
+            for (int nx = Math.max(0, x - noteWidth + 1); nx <= x; nx++) {
+                for (int ny = Math.max(0, y - noteHeight + 1); ny <= y; ny++) {
+                    if (notesByPosition.containsKey(position(nx, ny))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        for (Note note : notes) {
+            if (isPinInsideNote(x, y, note)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    // checks if two notes completely overlap
-    private synchronized boolean notesCompletelyOverlap(Note note1, Note note2) {
-        return note1.getX() == note2.getX() && note1.getY() == note2.getY();
+    // note ids are numbers; anything else matches no note
+    private static long parseId(String noteId) {
+        try {
+            return noteId == null ? -1 : Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long position(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private int indexOfPin(int x, int y) {
+        for (int i = 0; i < pins.size(); i++) {
+            Pin pin = pins.get(i);
+            if (pin.getX() == x && pin.getY() == y) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // validates if a notes position and dimensions are within board boundaries
+    private boolean isValidNotePosition(int x, int y) {
+        return x >= 0 && y >= 0 && x + noteWidth <= boardWidth && y + noteHeight <= boardHeight;
     }
 
     // checks if a pin coordinate lies within a notes boundaries
-    private synchronized boolean isPinInsideNote(int pinX, int pinY, Note note) {
+    private boolean isPinInsideNote(int pinX, int pinY, Note note) {
         return pinX >= note.getX() && pinX < note.getX() + noteWidth && pinY >= note.getY()
                 && pinY < note.getY() + noteHeight;
     }
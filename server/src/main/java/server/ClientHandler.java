@@ -1,318 +1,890 @@
 package server;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import server.jfr.BulkOperationEvent;
+import server.jfr.CommandEvent;
+import server.utils.LineReader;
 import server.utils.Logger;
+import server.utils.Metrics;
 import shared.Protocol;
+import utils.CommandParser;
+import utils.ParsedCommand;
 import utils.ProtocolParser;
+import utils.TrafficJournal;
 
 // handles communication with a single client connection
 public class ClientHandler implements Runnable {
     private Socket clientSocket;
     private BulletinBoard bulletinBoard;
-    private BufferedReader in;
-    private PrintWriter out;
+    private LineReader in;
+    // responses go out as gathering writes on the channel; plain sockets fall back to the stream
+    private SocketChannel channel;
+    private OutputStream out;
+    // GET responses shared by every connection
+    private final ResponseCache responseCache;
+
+    private static final String PINS_CACHE_KEY = Protocol.GET_PINS;
+    private static final EncodedResponse PONG = EncodedResponse.of(Protocol.RESP_PONG);
+    private static final EncodedResponse RATE_LIMITED = EncodedResponse.of(
+            Protocol.RESP_ERROR + " " + Protocol.ERR_RATE_LIMITED + " Too many requests, slow down");
 
     public int idGen;
     private List<String> validColours;
+    // valid colours pre-encoded, so POST colours are checked against the raw line bytes
+    private final byte[][] validColourBytes;
+    // reused for every untagged command on this connection; tagged ones get their own
+    private final ParsedCommand parsed = new ParsedCommand();
+    // reused for BATCH items; batches are writes, so never two at once
+    private final ParsedCommand batchItem = new ParsedCommand();
+    // this connection's share of the server's rate limit
+    private final RateLimit.Bucket rateBucket;
+    // --log-commands
+    private final boolean logCommands;
+
+    // tagged commands run on the server's workers; a permit per command in flight, released once
+    // its reply has been written
+    private final Executor workers;
+    private final Semaphore inFlight = new Semaphore(Protocol.TAG_MAX_IN_FLIGHT);
+    // done once the last tagged write has run; the next tagged command waits on it
+    private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+    // tagged replies, written in completion order by this connection's own writer thread, so a
+    // client that stops reading stalls only itself, never a shared worker; the permits bound it
+    private final BlockingQueue<EncodedResponse> taggedReplies =
+            new ArrayBlockingQueue<>(Protocol.TAG_MAX_IN_FLIGHT + 1);
+    private static final EncodedResponse STOP_WRITER = EncodedResponse.of(new byte[0]);
+    // started with the first tagged command
+    private Thread writer;
+    // the writer and the connection thread (for replies that need no barrier) both write
+    private final Object sendLock = new Object();
+
+    private final ServerContext context;
+    // capture journal (null unless the server runs with --capture) and our id in it
+    private final TrafficJournal.Writer journal;
+    private final int connectionId;
 
     // constructs a new ClientHandler for the given client socket
     public ClientHandler(Socket clientSocket, BulletinBoard bulletinBoard, List<String> validColours) {
-        this.clientSocket = clientSocket;
-        this.bulletinBoard = bulletinBoard;
-        this.validColours = validColours;
+        this(clientSocket, new ServerContext(bulletinBoard, validColours, new ResponseCache(0), null, Path.of(".")),
+                0);
+    }
 
+    // constructs a ClientHandler using the server's shared state
+    public ClientHandler(Socket clientSocket, ServerContext context, int connectionId) {
+        this.clientSocket = clientSocket;
+        this.context = context;
+        this.bulletinBoard = context.getBulletinBoard();
+        this.responseCache = context.getResponseCache();
+        this.validColours = context.getValidColours();
+        this.validColourBytes = new byte[validColours.size()][];
+        for (int i = 0; i < validColours.size(); i++) {
+            validColourBytes[i] = validColours.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        this.connectionId = connectionId;
+        this.journal = context.getJournal();
+        this.rateBucket = context.getRateLimit().newBucket();
+        this.workers = context.getWorkers();
+        this.logCommands = context.isLogCommands();
     }
 
     // main run method executed by the thread
     @Override
     public void run() {
+        Metrics.connectionOpened();
+        if (journal != null) {
+            journal.open(connectionId);
+        }
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            // Auto-flush enabled for PrintWriter
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            in = new LineReader(clientSocket.getInputStream(), context.getMaxLineLength());
+            // a silent client is dropped after the idle timeout; clients keep alive with PING
+            clientSocket.setSoTimeout(context.getIdleTimeoutMillis());
+            channel = clientSocket.getChannel();
+            if (channel == null) {
+                out = new BufferedOutputStream(clientSocket.getOutputStream(), 8192);
+            }
 
             sendInitialMessage();
 
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (line.trim().isEmpty())
+            while (readLine()) {
+                if (in.isOverflow()) {
+                    rejectOverlongLine();
                     continue;
-                Logger.info("Command: " + line);
-                if (processCommand(line)) {
+                }
+                if (in.isBlankLine())
+                    continue;
+                // decoded only for the journal and the command log; the parser works on the bytes
+                String line = journal != null || logCommands ? in.lineAsString() : null;
+                if (logCommands) {
+                    Logger.info("Command: " + line);
+                }
+                int start = CommandParser.commandStart(in.buffer(), in.lineStart(), in.lineEnd());
+                if (start < 0) {
+                    send(null, EncodedResponse.of(
+                            Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid request tag"));
+                    Metrics.recordCommand("UNKNOWN", 0, true);
+                    continue;
+                }
+                boolean done;
+                if (start == in.lineStart()) {
+                    CommandParser.parse(in.buffer(), start, in.lineEnd(), parsed);
+                    done = processCommand(parsed, line, null);
+                } else {
+                    // the line is copied, since the reader reuses its buffer while the command runs
+                    byte[] tag = Arrays.copyOfRange(in.buffer(), in.lineStart(), start);
+                    byte[] commandLine = Arrays.copyOfRange(in.buffer(), start, in.lineEnd());
+                    ParsedCommand tagged = new ParsedCommand();
+                    CommandParser.parse(commandLine, 0, commandLine.length, tagged);
+                    done = processCommand(tagged, line, tag);
+                }
+                if (done) {
                     break;
                 }
             }
+        } catch (SocketTimeoutException e) {
+            Logger.info("Client " + connectionId + ": idle for " + context.getIdleTimeoutMillis() + " ms, closing");
+            Metrics.connectionReaped();
         } catch (IOException e) {
             Logger.error("Client: " + e.getMessage());
         } finally {
+            // let tagged commands finish, so their replies are not cut off
+            awaitTagged();
+            if (writer != null) {
+                taggedReplies.add(STOP_WRITER);
+            }
             closeConnection();
+            Metrics.connectionClosed();
+            if (journal != null) {
+                journal.close(connectionId);
+            }
+        }
+    }
+
+    // the next line; a client with tagged commands running is waiting on them, not idle
+    private boolean readLine() throws IOException {
+        while (true) {
+            try {
+                return in.readLine();
+            } catch (SocketTimeoutException e) {
+                if (inFlight.availablePermits() == Protocol.TAG_MAX_IN_FLIGHT) {
+                    throw e;
+                }
+            }
         }
     }
 
     // sends the initial handshake message to the client
-    private void sendInitialMessage() {
-        out.println(Protocol.RESP_OK + " " + Protocol.RESP_BOARD + " " + bulletinBoard.getBoardWidth() + " "
-                + bulletinBoard.getBoardHeight()
+    private void sendInitialMessage() throws IOException {
+        send(null, EncodedResponse.of(Protocol.RESP_OK + " " + Protocol.RESP_BOARD + " " + bulletinBoard.getBoardWidth()
+                + " " + bulletinBoard.getBoardHeight()
                 + " " + Protocol.RESP_NOTE + " " + bulletinBoard.getNoteWidth() + " " + bulletinBoard.getNoteHeight()
-                + " " + Protocol.RESP_COLOURS + " " + String.join(" ", validColours));
+                + " " + Protocol.RESP_COLOURS + " " + String.join(" ", validColours)));
         this.idGen = 0;
     }
 
-    // processes a single command from the client
-    private boolean processCommand(String command) {
-        if (!ProtocolParser.isValidCommand(command)) {
-            out.println(Protocol.RESP_ERROR + " " + Protocol.ERR_UNKNOWN_COMMAND + " Unknown command");
+    // answers a line longer than --max-line without having buffered it
+    private void rejectOverlongLine() throws IOException {
+        if (logCommands) {
+            Logger.info("Command: <over " + context.getMaxLineLength() + " bytes, dropped>");
+        }
+        send(null, EncodedResponse.of(Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Line too long"));
+        Metrics.recordCommand("UNKNOWN", 0, true);
+    }
+
+    // writes one response line, after the request's tag if it had one
+    private void send(byte[] tag, EncodedResponse response) throws IOException {
+        write(tag != null ? response.withPrefix(tag) : response);
+    }
+
+    private void write(EncodedResponse response) throws IOException {
+        synchronized (sendLock) {
+            if (channel != null) {
+                response.writeTo(channel);
+            } else {
+                response.writeTo(out);
+            }
+        }
+    }
+
+    // processes a single command from the client; tag is "#<tag> " or null, and command is the
+    // line as text when the journal needs it, else null
+    private boolean processCommand(ParsedCommand parsed, String command, byte[] tag) throws IOException {
+        long start = System.nanoTime();
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        String commandType = parsed.getType();
+        long requestBytes = in.lineEnd() - in.lineStart();
+
+        // a BATCH is read in full first, so it is journaled and executed as one command
+        Batch batch = null;
+        if (Protocol.CMD_BATCH.equals(commandType)) {
+            batch = Batch.read(parsed.getParameters(), in);
+            requestBytes += batch.bytes();
+            if (journal != null) {
+                command = batch.text(command);
+            }
+        }
+
+        // charged before the command runs, and before it is journaled
+        if (!acquireTokens(commandType, batch)) {
+            finish(parsed, requestBytes, tag, RATE_LIMITED, start, event);
+            return false;
+        }
+        boolean disconnect = Protocol.CMD_DISCONNECT.equals(commandType);
+        // while capturing, commands run one at a time so the journal order is the order the
+        // board saw them in, and a replay reproduces the same responses
+        if (tag != null && workers != null && journal == null && !disconnect) {
+            dispatch(parsed, command, requestBytes, batch, tag, start, event);
             return false;
         }
+        awaitTagged();
+        finish(parsed, requestBytes, tag, run(parsed, command, batch), start, event);
+        return disconnect;
+    }
+
+    // runs a tagged command on a worker. writes wait for the connection's previous write, and
+    // reads for the writes sent before them, so a connection always reads its own writes; reads
+    // wait for nothing else, so a slow GET holds up neither the PINs behind it nor other GETs
+    private void dispatch(ParsedCommand parsed, String command, long requestBytes, Batch batch, byte[] tag,
+            long start, CommandEvent event) throws IOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for tagged commands");
+        }
+        if (writer == null) {
+            writer = new Thread(this::writeTaggedReplies, "bboard-writer-" + connectionId);
+            writer.setDaemon(true);
+            writer.start();
+        }
+        CompletableFuture<Void> next = lastWrite.whenCompleteAsync((ignored, failure) -> {
+            boolean queued = false;
+            try {
+                EncodedResponse response = run(parsed, command, batch);
+                // never blocks: there is room for every command holding a permit
+                queued = taggedReplies.offer(response.withPrefix(tag));
+                record(parsed, requestBytes, response, start, event);
+            } finally {
+                if (!queued) {
+                    inFlight.release();
+                }
+            }
+        }, workers);
+        if (parsed.getType() != null && isWrite(parsed.getType())) {
+            lastWrite = next;
+        }
+    }
+
+    // the writer thread: sends tagged replies until told to stop. after a failed write the rest
+    // are dropped, still releasing their permits, so the connection thread can finish
+    private void writeTaggedReplies() {
+        boolean failed = false;
+        while (true) {
+            EncodedResponse response;
+            try {
+                response = taggedReplies.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (response == STOP_WRITER) {
+                return;
+            }
+            try {
+                if (!failed) {
+                    write(response);
+                }
+            } catch (IOException e) {
+                Logger.error("Client: " + e.getMessage());
+                failed = true;
+                closeConnection();
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    // blocks until no tagged command is in flight
+    private void awaitTagged() {
+        inFlight.acquireUninterruptibly(Protocol.TAG_MAX_IN_FLIGHT);
+        inFlight.release(Protocol.TAG_MAX_IN_FLIGHT);
+    }
 
-        String commandType = ProtocolParser.parseCommandType(command);
-        String params = ProtocolParser.parseParameters(command);
-        String response = "";
+    // executes the command, journaling it when capturing
+    private EncodedResponse run(ParsedCommand parsed, String command, Batch batch) {
+        if (journal == null) {
+            return executeCommand(parsed, batch);
+        }
+        synchronized (journal) {
+            journal.command(connectionId, command);
+            EncodedResponse response = executeCommand(parsed, batch);
+            journal.response(connectionId, response.toString());
+            return response;
+        }
+    }
 
+    // sends the response and records the command
+    private void finish(ParsedCommand parsed, long requestBytes, byte[] tag, EncodedResponse response, long start,
+            CommandEvent event) throws IOException {
+        send(tag, response);
+        record(parsed, requestBytes, response, start, event);
+    }
+
+    // records the command in the metrics and as a JFR event
+    private void record(ParsedCommand parsed, long requestBytes, EncodedResponse response, long start,
+            CommandEvent event) {
+        String commandType = parsed.getType() != null ? parsed.getType() : "UNKNOWN";
+        boolean error = response.isError();
+        Metrics.recordCommand(commandType, System.nanoTime() - start, error);
+        commitCommandEvent(event, commandType, requestBytes, response.length(), error);
+    }
+
+    // waits for or refuses this command's tokens
+    private boolean acquireTokens(String commandType, Batch batch) throws IOException {
+        try {
+            return rateBucket.acquire(context.getRateLimit().cost(commandType, batch != null ? batch.size() : 0));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rate limited");
+        }
+    }
+
+    // runs the command against the board and returns the encoded response line
+    private EncodedResponse executeCommand(ParsedCommand parsed, Batch batch) {
+        String commandType = parsed.getType();
+        if (commandType == null) {
+            return EncodedResponse.of(Protocol.RESP_ERROR + " " + Protocol.ERR_UNKNOWN_COMMAND + " Unknown command");
+        }
+        if (context.isReadOnly() && isWrite(commandType)) {
+            return EncodedResponse.of(Protocol.RESP_ERROR + " " + Protocol.ERR_READ_ONLY + " Replica of "
+                    + context.getPrimaryAddress() + ", send changes to the primary");
+        }
         try {
             switch (commandType) {
                 case "POST":
-                    response = handlePostNote(params);
-                    break;
+                    return EncodedResponse.of(handlePostNote(parsed));
                 case "GET":
-                    response = handleGet(params);
-                    break;
+                    return handleGet(parsed.getParameters());
+                case "HEATMAP":
+                    return handleHeatmap(parsed.getParameters());
                 case "PIN":
-                    response = handlePin(params);
-                    break;
+                    return EncodedResponse.of(handlePin(parsed));
                 case "UNPIN":
-                    response = handleUnpin(params);
-                    break;
+                    return EncodedResponse.of(handleUnpin(parsed));
                 case "SHAKE":
-                    response = handleShake();
-                    break;
+                    return EncodedResponse.of(handleShake());
                 case "CLEAR":
-                    response = handleClear();
-                    break;
+                    return EncodedResponse.of(handleClear());
                 case "DISCONNECT":
-                    response = handleDisconnect();
-                    break;
+                    return EncodedResponse.of(handleDisconnect());
+                case "BATCH":
+                    return EncodedResponse.of(handleBatch(batch));
+                case "IMPORT":
+                    return EncodedResponse.of(handleImport(parsed.getParameters()));
+                case "EXPORT":
+                    return EncodedResponse.of(handleExport(parsed.getParameters()));
+                case "PING":
+                    return PONG;
                 default:
-                    response = Protocol.RESP_ERROR + " " + Protocol.ERR_UNKNOWN_COMMAND + " Unknown command type";
+                    return EncodedResponse.of(
+                            Protocol.RESP_ERROR + " " + Protocol.ERR_UNKNOWN_COMMAND + " Unknown command type");
             }
         } catch (Exception e) {
-            response = Protocol.RESP_ERROR + " " + Protocol.ERR_INTERNAL_ERROR + " " + e.getMessage();
+            return EncodedResponse.of(Protocol.RESP_ERROR + " " + Protocol.ERR_INTERNAL_ERROR + " " + e.getMessage());
         }
+    }
 
-        if (response != null && !response.isEmpty()) {
-            out.println(response);
+    // commands a read-only replica refuses
+    private static boolean isWrite(String commandType) {
+        switch (commandType) {
+            case "POST":
+            case "PIN":
+            case "UNPIN":
+            case "SHAKE":
+            case "CLEAR":
+            case "BATCH":
+            case "IMPORT":
+                return true;
+            default:
+                return false;
         }
+    }
 
-        return "DISCONNECT".equals(commandType);
+    // fills in and commits the JFR event; free when no recording is running
+    private void commitCommandEvent(CommandEvent event, String commandType, long requestBytes, int responseBytes,
+            boolean error) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = commandType;
+            event.requestBytes = requestBytes;
+            event.responseBytes = responseBytes;
+            event.error = error;
+            event.commit();
+        }
     }
 
     // handles the POST command to add a new note
-    private String handlePostNote(String params) {
-        String[] parts = ProtocolParser.parsePostCommand(params);
-        if (parts == null) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid POST format";
+    private String handlePostNote(ParsedCommand parsed) {
+        String error = checkPost(parsed);
+        if (error != null) {
+            return Protocol.RESP_ERROR + " " + error + " " + postErrorMessage(error, parsed);
         }
+        Note note = newNote(idGen, parsed);
+        int result = bulletinBoard.postNote(note);
+
+        if (result == BulletinBoard.POSTED) {
+            idGen++;
+            return Protocol.RESP_OK;
+        } else if (result == BulletinBoard.FULL) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_BOARD_FULL + " Board is full";
+        } else {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_COMPLETE_OVERLAP + " Note overlaps completely";
+        }
+    }
 
-        try {
-            int x = Integer.parseInt(parts[0]);
-            int y = Integer.parseInt(parts[1]);
-            String colour = parts[2];
-            String message = parts[3];
-
-            // RFC: note content MUST NOT contain semicolon (list separator in responses)
-            if (message != null && message.contains(";")) {
-                return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Note content must not contain semicolon";
-            }
-
-            // Validate colour
-            boolean validColour = false;
-            for (String c : validColours) {
-                if (c.equals(colour)) {
-                    validColour = true;
-                    break;
-                }
-            }
-            if (!validColour) {
-                return Protocol.RESP_ERROR + " " + Protocol.ERR_COLOUR_NOT_SUPPORTED + " Colour not supported";
-            }
+    // the note a checked POST describes, with its expiry if it gave a TTL
+    private Note newNote(long id, ParsedCommand parsed) {
+        Note note = new Note(id, parsed.getX(), parsed.getY(), resolveColour(parsed), parsed.getMessageBytes());
+        if (parsed.getTtlSeconds() > 0) {
+            note.expireAt(System.currentTimeMillis() + parsed.getTtlSeconds() * 1000L);
+        }
+        return note;
+    }
 
-            // Check bounds manually to distinguish from overlap error
-            if (x < 0 || y < 0 || x + bulletinBoard.getNoteWidth() > bulletinBoard.getBoardWidth() ||
-                    y + bulletinBoard.getNoteHeight() > bulletinBoard.getBoardHeight()) {
-                return Protocol.RESP_ERROR + " " + Protocol.ERR_OUT_OF_BOUNDS + " Note out of bounds";
-            }
+    // the error code for a POST that cannot be attempted, or null; overlap is left to the board
+    private String checkPost(ParsedCommand parsed) {
+        if (parsed.hasError()) {
+            return parsed.getErrorCode();
+        }
+        if (resolveColour(parsed) == null) {
+            return Protocol.ERR_COLOUR_NOT_SUPPORTED;
+        }
+        // Check bounds manually to distinguish from overlap error
+        int x = parsed.getX();
+        int y = parsed.getY();
+        if (x < 0 || y < 0 || x + bulletinBoard.getNoteWidth() > bulletinBoard.getBoardWidth() ||
+                y + bulletinBoard.getNoteHeight() > bulletinBoard.getBoardHeight()) {
+            return Protocol.ERR_OUT_OF_BOUNDS;
+        }
+        return null;
+    }
 
-            Note note = new Note(String.valueOf(idGen), x, y, colour, message);
-            boolean success = bulletinBoard.addNote(note);
+    private static String postErrorMessage(String error, ParsedCommand parsed) {
+        if (parsed.hasError()) {
+            return parsed.getErrorMessage();
+        }
+        return Protocol.ERR_COLOUR_NOT_SUPPORTED.equals(error) ? "Colour not supported" : "Note out of bounds";
+    }
 
-            if (success) {
-                idGen++;
-                return Protocol.RESP_OK;
-            } else {
-                return Protocol.RESP_ERROR + " " + Protocol.ERR_COMPLETE_OVERLAP + " Note overlaps completely";
+    // matches the colour against the raw bytes; yields the shared colour string or null
+    private String resolveColour(ParsedCommand parsed) {
+        for (int i = 0; i < validColourBytes.length; i++) {
+            if (parsed.colourEquals(validColourBytes[i])) {
+                return validColours.get(i);
             }
-
-        } catch (NumberFormatException e) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Coordinates must be integers";
         }
+        return null;
     }
 
     // handles the GET command to retrieve notes or pins
-    private String handleGet(String params) {
+    // responses come from the shared cache and are rebuilt only after the board changed
+    private EncodedResponse handleGet(String params) {
         String parsed = ProtocolParser.parseGetCommand(params);
         if (parsed == null) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid GET format";
+            return EncodedResponse.of(Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid GET format");
         }
 
+        // counts are cheap, so they skip the cache
+        if (isCountQuery(parsed)) {
+            return EncodedResponse.of(handleCount(parsed.substring(Protocol.GET_COUNT.length()).trim()));
+        }
+
+        // read before the snapshot is taken, see ResponseCache.get
+        long version = bulletinBoard.getVersion();
         if (parsed.equals(Protocol.GET_PINS)) {
-            return handleGetPins();
-        } else {
-            return handleGetWithFilters(parsed);
+            return responseCache.get(PINS_CACHE_KEY, version, () -> EncodedResponse.of(handleGetPins()));
         }
+        boolean all = isAllQuery(parsed);
+        Map<String, String> filters = ProtocolParser.parseGetFilters(
+                all ? parsed.substring(Protocol.GET_ALL.length()) : parsed);
+        if (filters == null) {
+            return EncodedResponse.of(
+                    Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid filter format");
+        }
+        NoteQuery query = new NoteQuery(filters);
+        EncodedResponse response = all
+                ? responseCache.get(Protocol.GET_ALL + " " + query.cacheKey(), version, () -> handleGetAll(query))
+                : responseCache.get(query.cacheKey(), version, () -> handleGetWithFilters(query));
+        // counted on every reply, cached or not
+        bulletinBoard.recordReads(response.getReads());
+        return response;
     }
 
-    // handles GET PINS subcommand
-    private String handleGetPins() {
-        List<Pin> pins = bulletinBoard.getPins();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < pins.size(); i++) {
-            Pin p = pins.get(i);
-            sb.append(p.getX()).append(" ").append(p.getY());
-            if (i < pins.size() - 1) {
-                sb.append(Protocol.LIST_SEPARATOR);
-            }
+    // handles HEATMAP <cellSize>; cached like GET, keyed by the requested size
+    private EncodedResponse handleHeatmap(String params) {
+        int cellSize;
+        try {
+            cellSize = Integer.parseInt(params.trim());
+        } catch (NumberFormatException e) {
+            cellSize = 0;
         }
-        return sb.length() > 0 ? Protocol.RESP_OK + " " + sb.toString() : Protocol.RESP_OK;
+        if (cellSize <= 0) {
+            return EncodedResponse.of(
+                    Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid HEATMAP cell size");
+        }
+        int size = cellSize;
+        long version = bulletinBoard.getVersion();
+        return responseCache.get(Protocol.CMD_HEATMAP + " " + size, version, () -> EncodedResponse.of(
+                Responses.formatHeatmap(bulletinBoard.getHeatmap(size, Protocol.HEATMAP_MAX_CELLS))));
     }
 
-    // handles GET with filter criteria
-    private String handleGetWithFilters(String params) {
+    static boolean isAllQuery(String params) {
+        return params.equals(Protocol.GET_ALL) || params.startsWith(Protocol.GET_ALL + Protocol.DELIMITER);
+    }
+
+    static boolean isCountQuery(String params) {
+        return params.equals(Protocol.GET_COUNT) || params.startsWith(Protocol.GET_COUNT + Protocol.DELIMITER);
+    }
+
+    // handles GET COUNT [PINS | filters]: OK <n>
+    // the board's counters answer no filter, color=, pinned= and color= with pinned=, and its region
+    // counts answer region= alone; other combinations count the matches under one lock
+    private String handleCount(String params) {
+        if (params.equals(Protocol.GET_PINS)) {
+            return Protocol.RESP_OK + " " + bulletinBoard.getPinCount();
+        }
         Map<String, String> filters = ProtocolParser.parseGetFilters(params);
         if (filters == null) {
             return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid filter format";
         }
+        NoteQuery query = new NoteQuery(filters);
+        if (query.isNearest()) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " near= cannot be counted";
+        }
+        String pinnedValue = filters.get("pinned");
+        Boolean pinned = pinnedValue == null ? null
+                : "true".equals(pinnedValue) ? Boolean.TRUE : "false".equals(pinnedValue) ? Boolean.FALSE : null;
+        if (pinnedValue != null && pinned == null) {
+            // a malformed filter matches nothing
+            return Protocol.RESP_OK + " 0";
+        }
+        String colour = filters.get("color");
+        boolean scanFilters = filters.containsKey("contains") || filters.containsKey("refersTo");
+        int count;
+        if (!scanFilters && !filters.containsKey("region")) {
+            int notes = colour == null ? bulletinBoard.getNoteCount() : bulletinBoard.getNoteCount(colour);
+            int pinnedNotes = bulletinBoard.getPinnedNoteCount(colour);
+            // the counters are read one at a time, so keep a racing difference from going negative
+            count = pinned == null ? notes : pinned ? pinnedNotes : Math.max(0, notes - pinnedNotes);
+        } else if (!scanFilters && colour == null && pinned == null) {
+            int[] area = query.searchArea();
+            count = bulletinBoard.countNotesInRegion(area[0], area[1], area[2], area[3]);
+        } else {
+            int noteWidth = bulletinBoard.getNoteWidth();
+            int noteHeight = bulletinBoard.getNoteHeight();
+            count = bulletinBoard.countNotes(query.searchArea(), note -> query.matches(note, noteWidth, noteHeight),
+                    pinned);
+        }
+        return Protocol.RESP_OK + " " + count;
+    }
 
-        List<Note> allNotes = bulletinBoard.getNotes();
-        List<Note> result = new ArrayList<>();
-
-        for (Note note : allNotes) {
-            boolean matches = true;
-
-            // Filter: colour
-            if (filters.containsKey("color")) {
-                if (!note.getColour().equals(filters.get("color"))) {
-                    matches = false;
-                }
-            }
+    // handles GET PINS subcommand
+    private String handleGetPins() {
+        return Responses.formatPins(bulletinBoard.getPins());
+    }
 
-            // Filter: refersTo
-            if (matches && filters.containsKey("refersTo")) {
-                if (!note.getMessage().contains(filters.get("refersTo"))) {
-                    matches = false;
-                }
+    // handles GET with filter criteria
+    private EncodedResponse handleGetWithFilters(NoteQuery query) {
+        BulkOperationEvent bulkEvent = new BulkOperationEvent();
+        bulkEvent.begin();
+        List<Note> result = selectNotes(query);
+
+        // OK x y colour message;... or OK if no matches, from the notes' encoded fragments
+        EncodedResponse response = reads(query, result, Responses.encodeNotes(result));
+        if (query.isUnfiltered()) {
+            bulkEvent.end();
+            if (bulkEvent.shouldCommit()) {
+                bulkEvent.operation = Protocol.CMD_GET;
+                bulkEvent.notesBefore = result.size();
+                bulkEvent.notesAffected = result.size();
+                bulkEvent.payloadBytes = response.length();
+                bulkEvent.commit();
             }
+        }
+        return response;
+    }
 
-            // Filter: contains (x y)
-            if (matches && filters.containsKey("contains")) {
-                String val = filters.get("contains"); // "x y"
-                try {
-                    String[] coords = val.trim().split("\\s+");
-                    if (coords.length == 2) {
-                        int cx = Integer.parseInt(coords[0]);
-                        int cy = Integer.parseInt(coords[1]);
-                        if (!note.containsPoint(cx, cy, bulletinBoard.getNoteWidth(), bulletinBoard.getNoteHeight())) {
-                            matches = false;
-                        }
-                    } else {
-                        matches = false;
-                    }
-                } catch (NumberFormatException e) {
-                    matches = false;
-                }
-            }
+    // handles GET ALL [filters]: the notes GET would list and the pins on them, or every pin when
+    // unfiltered, selected under one board lock so a pin never refers to a note the reply lacks
+    private EncodedResponse handleGetAll(NoteQuery query) {
+        List<Pin> pins = new ArrayList<>();
+        List<Note> notes = bulletinBoard.read("getAll", () -> {
+            List<Note> selected = selectNotes(query);
+            pins.addAll(query.isUnfiltered() ? bulletinBoard.getPins() : bulletinBoard.getPinsOn(selected));
+            return selected;
+        });
+        return reads(query, notes, Responses.encodeAll(notes, pins));
+    }
 
-            if (matches) {
-                result.add(note);
-            }
-        }
+    // a query for the whole board says nothing about which notes are wanted, so only filtered
+    // replies count as reads of the notes they list
+    private static EncodedResponse reads(NoteQuery query, List<Note> notes, EncodedResponse response) {
+        return query.isUnfiltered() ? response : response.withReads(notes);
+    }
 
-        // Format response, OK x y colour message or OK if no matches
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < result.size(); i++) {
-            Note n = result.get(i);
-            sb.append(n.getX()).append(" ").append(n.getY()).append(" ")
-                    .append(n.getColour()).append(" ").append(n.getMessage());
-            if (i < result.size() - 1) {
-                sb.append(Protocol.LIST_SEPARATOR);
-            }
+    // the notes a GET with these filters lists, in board order or nearest first for near=
+    private List<Note> selectNotes(NoteQuery query) {
+        int noteWidth = bulletinBoard.getNoteWidth();
+        int noteHeight = bulletinBoard.getNoteHeight();
+        if (query.isNearest()) {
+            // the other filters are applied during the search, so k matches come back
+            int[] near = query.nearest();
+            return near == null ? List.of()
+                    : bulletinBoard.getNearestNotes(near[0], near[1], near[2],
+                            note -> query.matches(note, noteWidth, noteHeight));
         }
-        return sb.length() > 0 ? Protocol.RESP_OK + " " + sb.toString() : Protocol.RESP_OK;
+        // region= and contains= narrow the search through the board's spatial index
+        int[] area = query.searchArea();
+        List<Note> candidates = area != null ? bulletinBoard.getNotesInRegion(area[0], area[1], area[2], area[3])
+                : bulletinBoard.getNotes();
+        return query.filter(candidates, noteWidth, noteHeight);
     }
 
     // handles the PIN command to add a pin at coordinates
-    private String handlePin(String params) {
-        String[] parts = ProtocolParser.parsePinCommand(params);
-        if (parts == null) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid PIN format";
+    private String handlePin(ParsedCommand parsed) {
+        if (parsed.hasError()) {
+            return Protocol.RESP_ERROR + " " + parsed.getErrorCode() + " " + parsed.getErrorMessage();
         }
-
-        try {
-            int x = Integer.parseInt(parts[0]);
-            int y = Integer.parseInt(parts[1]);
-
-            boolean success = bulletinBoard.addPin(x, y);
-            if (success) {
-                return Protocol.RESP_OK;
-            } else {
-                return Protocol.RESP_ERROR + " " + Protocol.ERR_NO_NOTE_AT_COORDINATE + " No note at coordinate";
-            }
-        } catch (NumberFormatException e) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Coordinates must be integers";
+        boolean success = bulletinBoard.addPin(parsed.getX(), parsed.getY());
+        if (success) {
+            return Protocol.RESP_OK;
+        } else {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_NO_NOTE_AT_COORDINATE + " No note at coordinate";
         }
     }
 
     // handles the UNPIN command to remove a pin at coordinates
-    private String handleUnpin(String params) {
-        String[] parts = ProtocolParser.parseUnpinCommand(params);
-        if (parts == null) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid UNPIN format";
+    private String handleUnpin(ParsedCommand parsed) {
+        if (parsed.hasError()) {
+            return Protocol.RESP_ERROR + " " + parsed.getErrorCode() + " " + parsed.getErrorMessage();
         }
-
-        try {
-            int x = Integer.parseInt(parts[0]);
-            int y = Integer.parseInt(parts[1]);
-
-            boolean success = bulletinBoard.removePin(x, y);
-            if (success) {
-                return Protocol.RESP_OK;
-            } else {
-                return Protocol.RESP_ERROR + " " + Protocol.ERR_PIN_NOT_FOUND + " Pin not found";
-            }
-        } catch (NumberFormatException e) {
-            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Coordinates must be integers";
+        boolean success = bulletinBoard.removePin(parsed.getX(), parsed.getY());
+        if (success) {
+            return Protocol.RESP_OK;
+        } else {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_PIN_NOT_FOUND + " Pin not found";
         }
     }
 
     // handles the SHAKE command to remove all unpinned notes
     private String handleShake() {
-        bulletinBoard.shake();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int before = bulletinBoard.getNoteCount();
+        int removed = bulletinBoard.shake();
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = Protocol.CMD_SHAKE;
+            event.notesBefore = before;
+            event.notesAffected = removed;
+            event.commit();
+        }
         return Protocol.RESP_OK;
     }
 
     // handles the CLEAR command to remove all notes and pins
     private String handleClear() {
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int before = bulletinBoard.getNoteCount();
         bulletinBoard.clear();
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = Protocol.CMD_CLEAR;
+            event.notesBefore = before;
+            event.notesAffected = before;
+            event.commit();
+        }
         return Protocol.RESP_OK;
     }
 
+    // handles BATCH: parses and validates every item, then applies them under one board lock
+    // OK <applied> <statuses> or, when an atomic batch fails, ERROR BATCH_ABORTED <statuses>
+    private String handleBatch(Batch batch) {
+        if (batch.isTooLarge()) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " BATCH too large";
+        }
+        if (!batch.isValid()) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid BATCH format";
+        }
+        int n = batch.size();
+        char[] status = new char[n];
+        List<BoardOperation> operations = new ArrayList<>(n);
+        boolean rejected = false;
+        for (int i = 0; i < n; i++) {
+            byte[] line = batch.line(i);
+            String type = null;
+            if (line != null) {
+                CommandParser.parse(line, 0, line.length, batchItem);
+                type = batchItem.getType();
+            }
+            BoardOperation op = null;
+            String error;
+            if (line == null) {
+                error = Protocol.ERR_INVALID_FORMAT;
+            } else if (Protocol.CMD_POST.equals(type)) {
+                error = checkPost(batchItem);
+                if (error == null) {
+                    // every valid POST takes an id, applied or not, so ids stay unique
+                    op = BoardOperation.post(newNote(idGen++, batchItem));
+                }
+            } else if (Protocol.CMD_PIN.equals(type) || Protocol.CMD_UNPIN.equals(type)) {
+                error = batchItem.hasError() ? batchItem.getErrorCode() : null;
+                if (error == null) {
+                    op = Protocol.CMD_PIN.equals(type) ? BoardOperation.pin(batchItem.getX(), batchItem.getY())
+                            : BoardOperation.unpin(batchItem.getX(), batchItem.getY());
+                }
+            } else {
+                error = Protocol.ERR_UNKNOWN_COMMAND;
+            }
+            if (error != null) {
+                status[i] = batchStatus(error);
+                rejected = true;
+            }
+            operations.add(op);
+        }
+
+        if (batch.isAtomic() && rejected) {
+            for (int i = 0; i < n; i++) {
+                if (status[i] == 0) {
+                    status[i] = Protocol.BATCH_NOT_APPLIED;
+                }
+            }
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_BATCH_ABORTED + " " + new String(status);
+        }
+
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int before = bulletinBoard.getNoteCount();
+        boolean[] applied = new boolean[n];
+        int failed = bulletinBoard.applyBatch(operations, batch.isAtomic(), applied);
+        int appliedCount = 0;
+        for (int i = 0; i < n; i++) {
+            BoardOperation op = operations.get(i);
+            if (applied[i]) {
+                status[i] = Protocol.BATCH_APPLIED;
+                appliedCount++;
+            } else if (op != null && (failed < 0 || failed == i)) {
+                status[i] = boardFailureStatus(op);
+            } else if (op != null) {
+                status[i] = Protocol.BATCH_NOT_APPLIED;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = Protocol.CMD_BATCH;
+            event.notesBefore = before;
+            event.notesAffected = appliedCount;
+            event.commit();
+        }
+        if (failed >= 0) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_BATCH_ABORTED + " " + new String(status);
+        }
+        return Protocol.RESP_OK + " " + appliedCount + " " + new String(status);
+    }
+
+    private static char batchStatus(String errorCode) {
+        switch (errorCode) {
+            case Protocol.ERR_INVALID_FORMAT:
+                return Protocol.BATCH_INVALID_FORMAT;
+            case Protocol.ERR_OUT_OF_BOUNDS:
+                return Protocol.BATCH_OUT_OF_BOUNDS;
+            case Protocol.ERR_COLOUR_NOT_SUPPORTED:
+                return Protocol.BATCH_COLOUR_NOT_SUPPORTED;
+            default:
+                return Protocol.BATCH_UNKNOWN_COMMAND;
+        }
+    }
+
+    // why the board refused an operation that passed validation
+    private static char boardFailureStatus(BoardOperation op) {
+        switch (op.getType()) {
+            case BoardOperation.POST:
+                return op.boardFull ? Protocol.BATCH_BOARD_FULL : Protocol.BATCH_COMPLETE_OVERLAP;
+            case BoardOperation.PIN:
+                return Protocol.BATCH_NO_NOTE_AT_COORDINATE;
+            default:
+                return Protocol.BATCH_PIN_NOT_FOUND;
+        }
+    }
+
+    // handles IMPORT <file>: loads a CSV board file from the data directory (a plain file name)
+    // OK <notes> <pins> <rejected>
+    private String handleImport(String params) {
+        if (context.getDataDir() == null) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT
+                    + " IMPORT is disabled; start the server with --data-dir";
+        }
+        Path file = context.resolveDataFile(params);
+        if (file == null) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid IMPORT file";
+        }
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int before = bulletinBoard.getNoteCount();
+        BoardFiles.Result result;
+        try {
+            result = BoardFiles.importCsv(file, bulletinBoard, validColours);
+        } catch (IOException e) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_IO_ERROR + " " + e.getMessage();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = Protocol.CMD_IMPORT;
+            event.notesBefore = before;
+            event.notesAffected = (int) result.notes;
+            event.commit();
+        }
+        Logger.info("Imported " + result.notes + " notes, " + result.pins + " pins from " + file + " ("
+                + result.rejected + " rejected)");
+        return Protocol.RESP_OK + " " + result.notes + " " + result.pins + " " + result.rejected;
+    }
+
+    // handles EXPORT <file>: writes the board as CSV into the data directory
+    // OK <notes> <pins>
+    private String handleExport(String params) {
+        if (context.getDataDir() == null) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT
+                    + " EXPORT is disabled; start the server with --data-dir";
+        }
+        Path file = context.resolveDataFile(params);
+        if (file == null) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid EXPORT file";
+        }
+        BoardFiles.Result result;
+        try {
+            result = BoardFiles.exportCsv(file, bulletinBoard);
+        } catch (IOException e) {
+            return Protocol.RESP_ERROR + " " + Protocol.ERR_IO_ERROR + " " + e.getMessage();
+        }
+        return Protocol.RESP_OK + " " + result.notes + " " + result.pins;
+    }
+
     // handles the DISCONNECT command to close the connection
     private String handleDisconnect() {
         return Protocol.RESP_OK;
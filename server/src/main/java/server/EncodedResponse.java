@@ -0,0 +1,116 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import shared.Protocol;
+
+// one response line as a sequence of UTF-8 chunks, sent with a single gathering write
+// chunks are shared with notes and the response cache and are never modified
+public class EncodedResponse {
+    private static final byte[] LINE_END = Protocol.LINE_END.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR = Protocol.RESP_ERROR.getBytes(StandardCharsets.UTF_8);
+
+    public static final EncodedResponse OK = of(Protocol.RESP_OK.getBytes(StandardCharsets.UTF_8));
+
+    private final byte[][] chunks;
+    private final int length;
+    // the notes a GET reply counts as read for eviction; kept with the cached reply so that hits
+    // are counted too
+    private final List<Note> reads;
+
+    public EncodedResponse(byte[][] chunks, int length) {
+        this(chunks, length, List.of());
+    }
+
+    private EncodedResponse(byte[][] chunks, int length, List<Note> reads) {
+        this.chunks = chunks;
+        this.length = length;
+        this.reads = reads;
+    }
+
+    public static EncodedResponse of(String line) {
+        // plain OK is by far the most common reply
+        if (Protocol.RESP_OK.equals(line)) {
+            return OK;
+        }
+        return of(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static EncodedResponse of(byte[] line) {
+        return new EncodedResponse(new byte[][] { line }, line.length);
+    }
+
+    // the same line behind prefix, e.g. a request tag
+    public EncodedResponse withPrefix(byte[] prefix) {
+        byte[][] prefixed = new byte[chunks.length + 1][];
+        prefixed[0] = prefix;
+        System.arraycopy(chunks, 0, prefixed, 1, chunks.length);
+        return new EncodedResponse(prefixed, length + prefix.length, reads);
+    }
+
+    // the same line, recording reads of these notes whenever it is served
+    public EncodedResponse withReads(List<Note> notes) {
+        return new EncodedResponse(chunks, length, notes);
+    }
+
+    public List<Note> getReads() {
+        return reads;
+    }
+
+    // length in bytes, without the line end
+    public int length() {
+        return length;
+    }
+
+    public boolean isError() {
+        byte[] first = chunks.length > 0 ? chunks[0] : LINE_END;
+        if (first.length < ERROR.length) {
+            return false;
+        }
+        for (int i = 0; i < ERROR.length; i++) {
+            if (first[i] != ERROR[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // writes the chunks and the line end; loops because a gathering write may be partial
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[chunks.length + 1];
+        for (int i = 0; i < chunks.length; i++) {
+            buffers[i] = ByteBuffer.wrap(chunks[i]);
+        }
+        buffers[chunks.length] = ByteBuffer.wrap(LINE_END);
+        long remaining = length + LINE_END.length;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    // stream fallback for sockets that have no channel
+    public void writeTo(OutputStream out) throws IOException {
+        for (byte[] chunk : chunks) {
+            out.write(chunk);
+        }
+        out.write(LINE_END);
+        out.flush();
+    }
+
+    // the line decoded, for the capture journal
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,79 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// approximate access counts for note positions, TinyLFU style: a count-min sketch of 4-bit
+// counters, 16 to a long, four counters per key. counts saturate at 15 and are all halved once
+// 10 increments per expected note have been recorded, so old popularity fades. increments are
+// CAS loops on the table and need no lock; a racing reset may lose an increment, which the
+// approximation tolerates
+class FrequencySketch {
+    private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    // expectedKeys sizes the table at one long (16 counters) per key, rounded up to a power of two
+    FrequencySketch(int expectedKeys) {
+        int size = Integer.highestOneBit(Math.max(64, Math.min(expectedKeys, 1 << 24)) - 1) << 1;
+        this.table = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    void increment(long key) {
+        boolean added = false;
+        for (long seed : SEEDS) {
+            long h = mix(key, seed);
+            int index = (int) (h >>> 32) & mask;
+            int shift = ((int) h & 15) << 2;
+            while (true) {
+                long current = table.get(index);
+                if (((current >>> shift) & MAX_COUNT) == MAX_COUNT) {
+                    break;
+                }
+                if (table.compareAndSet(index, current, current + (1L << shift))) {
+                    added = true;
+                    break;
+                }
+            }
+        }
+        // exactly one thread sees the count reach the sample size
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    // the smallest of the key's counters, 0 to 15
+    int frequency(long key) {
+        int frequency = MAX_COUNT;
+        for (long seed : SEEDS) {
+            long h = mix(key, seed);
+            int count = (int) (table.get((int) (h >>> 32) & mask) >>> (((int) h & 15) << 2)) & MAX_COUNT;
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    // halves every counter
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            long current;
+            do {
+                current = table.get(i);
+            } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+        }
+        additions.addAndGet(-sampleSize / 2);
+    }
+
+    private static long mix(long key, long seed) {
+        long h = (key + seed) * seed;
+        return h ^ (h >>> 29);
+    }
+}
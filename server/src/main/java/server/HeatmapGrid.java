@@ -0,0 +1,114 @@
+package server;
+
+import java.util.Arrays;
+
+// note and pinned-note counts by origin at several resolutions, for HEATMAP: level 0 has square
+// cells baseSize units wide (1, doubled until the board has at most MAX_BASE_CELLS of them), and
+// each level above doubles the cell size, up to one cell for the whole board. add and remove touch
+// one cell per level, and a heatmap copies one level, so it costs the cells returned, not the notes.
+// not thread-safe
+class HeatmapGrid {
+    private static final int MAX_BASE_CELLS = 1 << 20;
+
+    private final int baseSize;
+    private final int[] cols;
+    private final int[] rows;
+    // per level, row-major; allocated with the first note
+    private int[][] counts;
+    private int[][] pinned;
+
+    HeatmapGrid(int boardWidth, int boardHeight) {
+        int width = Math.max(1, boardWidth);
+        int height = Math.max(1, boardHeight);
+        int size = 1;
+        while ((long) cells(width, size) * cells(height, size) > MAX_BASE_CELLS) {
+            size *= 2;
+        }
+        int levels = 1;
+        for (long top = size; cells(width, top) > 1 || cells(height, top) > 1; top *= 2) {
+            levels++;
+        }
+        this.baseSize = size;
+        this.cols = new int[levels];
+        this.rows = new int[levels];
+        for (int level = 0; level < levels; level++) {
+            cols[level] = cells(width, (long) size << level);
+            rows[level] = cells(height, (long) size << level);
+        }
+    }
+
+    // the finest level with cells at least cellSize wide and at most maxCells cells
+    int level(int cellSize, int maxCells) {
+        int level = 0;
+        while (level < cols.length - 1
+                && (cellSize(level) < cellSize || (long) cols[level] * rows[level] > maxCells)) {
+            level++;
+        }
+        return level;
+    }
+
+    int cellSize(int level) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) baseSize << level);
+    }
+
+    int cols(int level) {
+        return cols[level];
+    }
+
+    int rows(int level) {
+        return rows[level];
+    }
+
+    void add(int x, int y, int delta) {
+        allocate();
+        update(counts, x, y, delta);
+    }
+
+    // the note at (x, y) gained its first pin (1) or lost its last (-1)
+    void addPinned(int x, int y, int delta) {
+        allocate();
+        update(pinned, x, y, delta);
+    }
+
+    // copies a level's counts into countsOut and pinnedOut, row-major
+    void copy(int level, int[] countsOut, int[] pinnedOut) {
+        int size = cols[level] * rows[level];
+        if (counts == null) {
+            Arrays.fill(countsOut, 0, size, 0);
+            Arrays.fill(pinnedOut, 0, size, 0);
+            return;
+        }
+        System.arraycopy(counts[level], 0, countsOut, 0, size);
+        System.arraycopy(pinned[level], 0, pinnedOut, 0, size);
+    }
+
+    void clear() {
+        counts = null;
+        pinned = null;
+    }
+
+    private void allocate() {
+        if (counts == null) {
+            counts = new int[cols.length][];
+            pinned = new int[cols.length][];
+            for (int level = 0; level < cols.length; level++) {
+                counts[level] = new int[cols[level] * rows[level]];
+                pinned[level] = new int[cols[level] * rows[level]];
+            }
+        }
+    }
+
+    private void update(int[][] grid, int x, int y, int delta) {
+        int col = x / baseSize;
+        int row = y / baseSize;
+        for (int level = 0; level < grid.length; level++) {
+            grid[level][row * cols[level] + col] += delta;
+            col >>= 1;
+            row >>= 1;
+        }
+    }
+
+    private static int cells(int length, long size) {
+        return (int) ((length + size - 1) / size);
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// content-addressed, reference-counted store of note messages (--dedup-messages)
+// notes with equal messages share one byte[]; an entry is released when its last note leaves
+// the board. only worth it when messages repeat: each distinct message costs an entry
+// (about 56 bytes) on top of its bytes. used under the board lock, so it has no lock of its own
+class MessageTable {
+    private final HashMap<Entry, Entry> entries = new HashMap<>();
+
+    // lock-free, for metrics scrapes
+    private final AtomicInteger entryCount = new AtomicInteger();
+    private final AtomicLong sharedNotes = new AtomicLong();
+
+    private static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        int refs;
+
+        Entry(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && Arrays.equals(bytes, ((Entry) other).bytes);
+        }
+    }
+
+    // the shared array equal to message, taking a reference to it
+    byte[] acquire(byte[] message) {
+        Entry probe = new Entry(message);
+        Entry entry = entries.get(probe);
+        if (entry == null) {
+            entries.put(probe, probe);
+            entryCount.incrementAndGet();
+            entry = probe;
+        } else {
+            sharedNotes.incrementAndGet();
+        }
+        entry.refs++;
+        return entry.bytes;
+    }
+
+    // drops a reference taken by acquire
+    void release(byte[] message) {
+        Entry entry = entries.get(new Entry(message));
+        if (entry == null) {
+            return;
+        }
+        if (entry.refs > 1) {
+            sharedNotes.decrementAndGet();
+        }
+        if (--entry.refs == 0) {
+            entries.remove(entry);
+            entryCount.decrementAndGet();
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        entryCount.set(0);
+        sharedNotes.set(0);
+    }
+
+    int getEntryCount() {
+        return entryCount.get();
+    }
+
+    // notes whose message is stored by another note
+    long getSharedNotes() {
+        return sharedNotes.get();
+    }
+}
@@ -0,0 +1,220 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import server.utils.Logger;
+import server.utils.Metrics;
+
+// small HTTP server exposing /metrics in Prometheus text format
+// every value comes from atomic counters, so a scrape never takes the board lock
+public class MetricsServer {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer httpServer;
+    private final BulletinBoard bulletinBoard;
+    private final ResponseCache responseCache;
+    // at most one is set: the primary's replication endpoint or this replica's link to it
+    private ReplicationServer replicationServer;
+    private ReplicaClient replicaClient;
+
+    // binds the endpoint; call start() to begin serving
+    public MetricsServer(int port, BulletinBoard bulletinBoard, ResponseCache responseCache) throws IOException {
+        this.bulletinBoard = bulletinBoard;
+        this.responseCache = responseCache;
+        this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        this.httpServer.createContext("/metrics", this::handleScrape);
+        this.httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    public void setReplicationServer(ReplicationServer replicationServer) {
+        this.replicationServer = replicationServer;
+    }
+
+    public void setReplicaClient(ReplicaClient replicaClient) {
+        this.replicaClient = replicaClient;
+    }
+
+    public void start() {
+        httpServer.start();
+        Logger.info("Metrics endpoint on port " + httpServer.getAddress().getPort());
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+    }
+
+    // answers one scrape
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // renders every metric in the text exposition format
+    String render() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "bboard_connections_active", "gauge", "Currently open client connections");
+        sample(sb, "bboard_connections_active", null, Metrics.getConnectionsActive());
+        header(sb, "bboard_connections_total", "counter", "Client connections accepted");
+        sample(sb, "bboard_connections_total", null, Metrics.getConnectionsTotal());
+        header(sb, "bboard_connections_reaped_total", "counter", "Connections closed after the idle timeout");
+        sample(sb, "bboard_connections_reaped_total", null, Metrics.getConnectionsReaped());
+        header(sb, "bboard_rate_limit_delayed_total", "counter", "Commands delayed by a client's rate limit");
+        sample(sb, "bboard_rate_limit_delayed_total", null, Metrics.getRateLimitDelayed());
+        header(sb, "bboard_rate_limit_refused_total", "counter", "Commands refused with RATE_LIMITED");
+        sample(sb, "bboard_rate_limit_refused_total", null, Metrics.getRateLimitRefused());
+
+        Map<String, Metrics.CommandStats> commands = Metrics.getCommandStats();
+        header(sb, "bboard_commands_total", "counter", "Commands handled");
+        for (Map.Entry<String, Metrics.CommandStats> e : commands.entrySet()) {
+            sample(sb, "bboard_commands_total", label("command", e.getKey()), e.getValue().getCount());
+        }
+        header(sb, "bboard_command_errors_total", "counter", "Commands answered with ERROR");
+        for (Map.Entry<String, Metrics.CommandStats> e : commands.entrySet()) {
+            sample(sb, "bboard_command_errors_total", label("command", e.getKey()), e.getValue().getErrors());
+        }
+        header(sb, "bboard_command_duration_seconds", "histogram", "Time to handle a command");
+        for (Map.Entry<String, Metrics.CommandStats> e : commands.entrySet()) {
+            Metrics.CommandStats stats = e.getValue();
+            String command = label("command", e.getKey());
+            long cumulative = 0;
+            for (int i = 0; i < Metrics.LATENCY_BUCKETS.length; i++) {
+                cumulative += stats.getBucket(i);
+                sample(sb, "bboard_command_duration_seconds_bucket",
+                        command + ",le=\"" + Metrics.LATENCY_BUCKETS[i] + "\"", cumulative);
+            }
+            cumulative += stats.getBucket(Metrics.LATENCY_BUCKETS.length);
+            sample(sb, "bboard_command_duration_seconds_bucket", command + ",le=\"+Inf\"", cumulative);
+            sample(sb, "bboard_command_duration_seconds_sum", command, stats.getTotalNanos() / 1e9);
+            sample(sb, "bboard_command_duration_seconds_count", command, cumulative);
+        }
+
+        header(sb, "bboard_notes", "gauge", "Notes on the board");
+        sample(sb, "bboard_notes", null, bulletinBoard.getNoteCount());
+        header(sb, "bboard_pins", "gauge", "Pins on the board");
+        sample(sb, "bboard_pins", null, bulletinBoard.getPinCount());
+        header(sb, "bboard_notes_by_colour", "gauge", "Notes on the board per colour");
+        for (Map.Entry<String, Integer> e : bulletinBoard.getColourCounts().entrySet()) {
+            sample(sb, "bboard_notes_by_colour", label("colour", e.getKey()), e.getValue());
+        }
+        header(sb, "bboard_note_bytes", "gauge", "Estimated heap held by notes");
+        sample(sb, "bboard_note_bytes", null, bulletinBoard.getNoteBytes());
+        header(sb, "bboard_evictions_total", "counter", "Notes evicted to keep the board within its budget");
+        sample(sb, "bboard_evictions_total", null, bulletinBoard.getEvictions());
+        header(sb, "bboard_board_full_total", "counter", "POSTs refused because nothing could be evicted");
+        sample(sb, "bboard_board_full_total", null, bulletinBoard.getFullRejections());
+        header(sb, "bboard_notes_expiring", "gauge", "Notes on the board posted with a TTL");
+        sample(sb, "bboard_notes_expiring", null, bulletinBoard.getExpiringNoteCount());
+        header(sb, "bboard_notes_expired_total", "counter", "Notes removed because their TTL ran out");
+        sample(sb, "bboard_notes_expired_total", null, bulletinBoard.getExpiredNoteCount());
+
+        header(sb, "bboard_lock_acquisitions_total", "counter", "Board lock acquisitions");
+        sample(sb, "bboard_lock_acquisitions_total", null, bulletinBoard.getLockAcquisitions());
+        header(sb, "bboard_lock_contended_total", "counter", "Board lock acquisitions that had to wait");
+        sample(sb, "bboard_lock_contended_total", null, bulletinBoard.getLockContentions());
+        header(sb, "bboard_lock_wait_seconds_total", "counter", "Time spent waiting for the board lock");
+        sample(sb, "bboard_lock_wait_seconds_total", null, bulletinBoard.getLockWaitNanos() / 1e9);
+
+        header(sb, "bboard_response_cache_hits_total", "counter", "GET responses served from the cache");
+        sample(sb, "bboard_response_cache_hits_total", null, responseCache.getHits());
+        header(sb, "bboard_response_cache_misses_total", "counter", "GET responses built from the board");
+        sample(sb, "bboard_response_cache_misses_total", null, responseCache.getMisses());
+        header(sb, "bboard_response_cache_evictions_total", "counter", "Cached responses evicted for space");
+        sample(sb, "bboard_response_cache_evictions_total", null, responseCache.getEvictions());
+        header(sb, "bboard_response_cache_bytes", "gauge", "Bytes held by cached responses");
+        sample(sb, "bboard_response_cache_bytes", null, responseCache.getBytes());
+        header(sb, "bboard_response_cache_entries", "gauge", "Cached responses");
+        sample(sb, "bboard_response_cache_entries", null, responseCache.getEntryCount());
+
+        header(sb, "bboard_dedup_messages", "gauge", "Distinct messages in the dedup table (--dedup-messages)");
+        sample(sb, "bboard_dedup_messages", null, bulletinBoard.getDedupMessages());
+        header(sb, "bboard_dedup_shared_notes", "gauge", "Notes sharing another note's message bytes");
+        sample(sb, "bboard_dedup_shared_notes", null, bulletinBoard.getDedupSharedNotes());
+
+        if (replicationServer != null) {
+            header(sb, "bboard_replication_replicas", "gauge", "Replicas streaming from this primary");
+            sample(sb, "bboard_replication_replicas", null, replicationServer.getReplicaCount());
+        }
+        if (replicaClient != null) {
+            header(sb, "bboard_replication_lag_versions", "gauge", "Primary changes not yet applied here");
+            sample(sb, "bboard_replication_lag_versions", null, replicaClient.getLagVersions());
+            header(sb, "bboard_replication_lag_seconds", "gauge", "How far behind the primary this board may be");
+            sample(sb, "bboard_replication_lag_seconds", null, replicaClient.getLagSeconds());
+            header(sb, "bboard_replication_applied_version", "gauge", "Last primary version applied here");
+            sample(sb, "bboard_replication_applied_version", null, replicaClient.getAppliedVersion());
+            header(sb, "bboard_replication_resyncs_total", "counter", "Reconnects that reloaded a snapshot");
+            sample(sb, "bboard_replication_resyncs_total", null, replicaClient.getResyncs());
+        }
+
+        header(sb, "jvm_gc_collections_total", "counter", "GC runs per collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(sb, "jvm_gc_collections_total", label("gc", gc.getName()), gc.getCollectionCount());
+        }
+        header(sb, "jvm_gc_collection_seconds_total", "counter", "GC time per collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(sb, "jvm_gc_collection_seconds_total", label("gc", gc.getName()), gc.getCollectionTime() / 1e3);
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(sb, "jvm_memory_heap_used_bytes", "gauge", "Heap in use");
+        sample(sb, "jvm_memory_heap_used_bytes", null, heap.getUsed());
+        header(sb, "jvm_memory_heap_committed_bytes", "gauge", "Heap committed");
+        sample(sb, "jvm_memory_heap_committed_bytes", null, heap.getCommitted());
+        header(sb, "jvm_memory_heap_max_bytes", "gauge", "Heap limit (-1 if undefined)");
+        sample(sb, "jvm_memory_heap_max_bytes", null, heap.getMax());
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sampleName(sb, name, labels).append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sampleName(sb, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder sampleName(StringBuilder sb, String name, String labels) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        return sb.append(' ');
+    }
+
+    // key="value" with the value escaped as the format requires
+    private static String label(String key, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return key + "=\"" + escaped + "\"";
+    }
+}
@@ -1,24 +1,49 @@
 package server;
 
+import java.nio.charset.StandardCharsets;
+
 // represents a note on the bulletin board
+// kept small, since a board can hold millions: the message is stored once, as UTF-8 (possibly
+// shared with other notes through the board's MessageTable), and the colour is always one of the
+// server's own colour strings
 public class Note {
-    private String id;
-    private int x;
-    private int y;
-    private String colour;
-    private String message;
+    private final long id;
+    private final int x;
+    private final int y;
+    private final String colour;
+    private byte[] message;
+    // "x y colour " as sent in GET responses ahead of the message, encoded once
+    private final byte[] wirePrefix;
+    // position in the board's NoteList, -1 when not on the board
+    int slot = -1;
+    // set for a note posted with a TTL
+    TimingWheel.Entry expiry;
+    // last read, for LRU eviction (NoteBudget); written racily by readers, which LRU tolerates
+    int lastAccess;
+    // position in its SpatialGrid cell
+    int cellSlot;
 
     // constructs a new Note with the specified properties
-    public Note(String id, int x, int y, String colour, String message) {
+    public Note(long id, int x, int y, String colour, String message) {
+        this(id, x, y, colour, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // message is UTF-8 and is kept, not copied
+    public Note(long id, int x, int y, String colour, byte[] message) {
         this.id = id;
         this.x = x;
         this.y = y;
         this.colour = colour;
         this.message = message;
+        this.wirePrefix = (x + " " + y + " " + colour + " ").getBytes(StandardCharsets.UTF_8);
     }
 
     // accessors
     public String getId() {
+        return String.valueOf(id);
+    }
+
+    public long getIdValue() {
         return id;
     }
 
@@ -34,12 +59,44 @@ public class Note {
         return colour;
     }
 
+    // decodes the message; filters should use messageContains instead
     public String getMessage() {
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    // shared, do not modify
+    public byte[] getMessageBytes() {
         return message;
     }
 
-    public void setMessage(String message) {
-        this.message = message;
+    // shared, do not modify
+    public byte[] getWirePrefix() {
+        return wirePrefix;
+    }
+
+    // removes the note automatically at deadlineMillis (wall clock); call before posting it
+    public void expireAt(long deadlineMillis) {
+        this.expiry = new TimingWheel.Entry(this, deadlineMillis);
+    }
+
+    // swaps in an equal message array from the board's MessageTable
+    void shareMessage(byte[] shared) {
+        this.message = shared;
+    }
+
+    // true if the UTF-8 needle occurs in the message; for valid UTF-8 this is the same as
+    // getMessage().contains(needle as a String), without decoding
+    public boolean messageContains(byte[] needle) {
+        int last = message.length - needle.length;
+        outer: for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (message[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
     }
 
     // checks if a point (px, py) lies within this notes boundaries
@@ -50,6 +107,7 @@ public class Note {
     // returns a string representation of this note
     @Override
     public String toString() {
-        return String.format("ID: %s, Position: (%d, %d), Colour: %s, Message: %s", id, x, y, colour, message);
+        return String.format("ID: %s, Position: (%d, %d), Colour: %s, Message: %s", id, x, y, colour,
+                getMessage());
     }
 }
@@ -0,0 +1,106 @@
+package server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// a limit on the notes a board holds (--max-notes, --max-note-bytes) and how to make room
+// a POST that would exceed it evicts an unpinned note instead of failing: a few random notes are
+// sampled and the least recently (LRU) or least frequently (LFU) read one goes. reads are counted
+// lock-free by filtered GET replies, cached or not (an unfiltered GET reads every note, so it
+// says nothing): LRU stamps the note, LFU counts its position in a FrequencySketch. there is no
+// admission filter, so every POST is treated alike whatever its position's history: it is refused
+// (BOARD_FULL) only when the samples turn up no unpinned note, the note alone is over the limit,
+// or it is part of an atomic BATCH, which may not evict
+public class NoteBudget {
+    public static final String LRU = "lru";
+    public static final String LFU = "lfu";
+
+    // estimated heap per note beyond its object and arrays: NoteList and PositionIndex slots
+    private static final int INDEX_BYTES = 32;
+    private static final int NOTE_BYTES = 56;
+    // bytes per note assumed when sizing the sketch for a byte budget alone
+    private static final int TYPICAL_NOTE_BYTES = 150;
+
+    private final int maxNotes;
+    private final long maxBytes;
+    private final boolean lfu;
+    private final FrequencySketch sketch;
+    private final long origin = System.nanoTime();
+
+    private final LongAdder evictions = new LongAdder();
+    // POSTs refused with BOARD_FULL
+    private final LongAdder rejections = new LongAdder();
+
+    // 0 leaves that limit off; policy is LRU or LFU
+    public NoteBudget(int maxNotes, long maxBytes, String policy) {
+        if (maxNotes < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative");
+        }
+        if (!LRU.equals(policy) && !LFU.equals(policy)) {
+            throw new IllegalArgumentException("Unknown eviction policy: " + policy);
+        }
+        this.maxNotes = maxNotes;
+        this.maxBytes = maxBytes;
+        this.lfu = LFU.equals(policy);
+        long expected = maxNotes > 0 ? maxNotes : maxBytes / TYPICAL_NOTE_BYTES;
+        this.sketch = lfu ? new FrequencySketch((int) Math.min(expected, Integer.MAX_VALUE)) : null;
+    }
+
+    // true if a board with notes notes of bytes bytes in all is over the limit
+    boolean isExceeded(int notes, long bytes) {
+        return (maxNotes > 0 && notes > maxNotes) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    boolean isLfu() {
+        return lfu;
+    }
+
+    // a GET returned the note, or a POST tried its position
+    void recordAccess(Note note, long position) {
+        if (lfu) {
+            sketch.increment(position);
+        } else {
+            note.lastAccess = clock();
+        }
+    }
+
+    // LFU only: how often the position was used recently, 0 to 15
+    int frequency(long position) {
+        return sketch.frequency(position);
+    }
+
+    // LRU order with wraparound; true if a was read before b
+    static boolean isOlder(Note a, Note b) {
+        return a.lastAccess - b.lastAccess < 0;
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    void rejected() {
+        rejections.increment();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    // approximate heap held for the note, counting its message even when it is deduplicated
+    static long sizeOf(Note note) {
+        return NOTE_BYTES + arrayBytes(note.getMessageBytes().length) + arrayBytes(note.getWirePrefix().length)
+                + INDEX_BYTES;
+    }
+
+    private static long arrayBytes(int length) {
+        return (16 + length + 7) & ~7L;
+    }
+
+    // milliseconds since the budget was made; wraps after 24 days, which isOlder allows for
+    private int clock() {
+        return (int) ((System.nanoTime() - origin) / 1_000_000);
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+import server.utils.Logger;
+
+// removes notes whose TTL (POST ttl=<seconds>) has run out, once per timing wheel tick
+// expiries are taken a bounded number at a time, releasing the board lock in between, so that
+// thousands of notes expiring together do not stall clients for the whole sweep
+public class NoteExpirer {
+    private static final int BATCH = 256;
+
+    private final BulletinBoard board;
+
+    public NoteExpirer(BulletinBoard board) {
+        this.board = board;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "note-expirer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(TimingWheel.TICK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                long now = System.currentTimeMillis();
+                while (board.expireDue(now, BATCH) == BATCH) {
+                    Thread.yield();
+                }
+            } catch (RuntimeException e) {
+                Logger.error("Note expiry failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+// the board's notes in insertion order, with O(1) removal of any note (each note knows its slot)
+// a removed note leaves a hole; the array is compacted once holes outnumber notes, so removal is
+// amortized O(1) and GET order stays insertion order. not thread-safe
+class NoteList implements Iterable<Note> {
+    private static final int MIN_CAPACITY = 16;
+
+    private Note[] items = new Note[MIN_CAPACITY];
+    // slots in use, holes included
+    private int end;
+    private int size;
+
+    void add(Note note) {
+        if (end == items.length) {
+            // compacting first may make room without growing
+            if (size < end / 2) {
+                compact();
+            } else {
+                Note[] grown = new Note[items.length * 2];
+                System.arraycopy(items, 0, grown, 0, end);
+                items = grown;
+            }
+        }
+        note.slot = end;
+        items[end++] = note;
+        size++;
+    }
+
+    // false if the note is not in the list
+    boolean remove(Note note) {
+        int slot = note.slot;
+        if (slot < 0 || slot >= end || items[slot] != note) {
+            return false;
+        }
+        items[slot] = null;
+        note.slot = -1;
+        size--;
+        trimEnd();
+        if (end > MIN_CAPACITY && size < end / 2) {
+            compact();
+        }
+        return true;
+    }
+
+    // removes and returns the newest note (BATCH undo)
+    Note removeLast() {
+        trimEnd();
+        Note note = items[--end];
+        items[end] = null;
+        note.slot = -1;
+        size--;
+        trimEnd();
+        return note;
+    }
+
+    // a uniformly random note, or null if the list is empty; holes are at most half the slots, so
+    // this takes two probes on average
+    Note sample(Random random) {
+        if (size == 0) {
+            return null;
+        }
+        while (true) {
+            Note note = items[random.nextInt(end)];
+            if (note != null) {
+                return note;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < end; i++) {
+            if (items[i] != null) {
+                items[i].slot = -1;
+            }
+        }
+        items = new Note[MIN_CAPACITY];
+        end = 0;
+        size = 0;
+    }
+
+    // appends the notes, in order, to out
+    void copyTo(List<Note> out) {
+        if (out instanceof ArrayList) {
+            ((ArrayList<Note>) out).ensureCapacity(out.size() + size);
+        }
+        for (int i = 0; i < end; i++) {
+            if (items[i] != null) {
+                out.add(items[i]);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Note> iterator() {
+        return new Iterator<Note>() {
+            private int next = skipHoles(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Note next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                Note note = items[next];
+                next = skipHoles(next + 1);
+                return note;
+            }
+        };
+    }
+
+    private int skipHoles(int from) {
+        while (from < end && items[from] == null) {
+            from++;
+        }
+        return from;
+    }
+
+    private void trimEnd() {
+        while (end > 0 && items[end - 1] == null) {
+            end--;
+        }
+    }
+
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < end; i++) {
+            Note note = items[i];
+            if (note != null) {
+                note.slot = live;
+                items[live++] = note;
+            }
+        }
+        for (int i = live; i < end; i++) {
+            items[i] = null;
+        }
+        end = live;
+    }
+}
@@ -0,0 +1,164 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import shared.Protocol;
+
+// the filters of one GET request (color=, refersTo=, contains=, region=, near= with k=)
+public class NoteQuery {
+    private final String colour;
+    private final String refersTo;
+    // refersTo as UTF-8, matched against the stored message bytes
+    private final byte[] refersToBytes;
+    private final boolean hasContains;
+    private final boolean containsValid;
+    private final int containsX;
+    private final int containsY;
+    // region=x y w h; a malformed or empty region matches nothing
+    private final int[] region;
+    private final boolean hasRegion;
+    // near=x y and k=N; null if malformed, which matches nothing
+    private final int[] near;
+    private final boolean hasNear;
+
+    // builds a query from the map returned by ProtocolParser.parseGetFilters
+    public NoteQuery(Map<String, String> filters) {
+        this.colour = filters.get("color");
+        this.refersTo = filters.get("refersTo");
+        this.refersToBytes = refersTo != null ? refersTo.getBytes(StandardCharsets.UTF_8) : null;
+        String contains = filters.get("contains"); // "x y"
+        this.hasContains = contains != null;
+        int[] point = contains != null ? parseInts(contains, 2) : null;
+        this.containsX = point != null ? point[0] : 0;
+        this.containsY = point != null ? point[1] : 0;
+        // a malformed contains= filter matches nothing
+        this.containsValid = point != null;
+        String region = filters.get("region"); // "x y w h"
+        this.hasRegion = region != null;
+        int[] rect = region != null ? parseInts(region, 4) : null;
+        this.region = rect != null && rect[2] > 0 && rect[3] > 0 ? rect : null;
+        String nearPoint = filters.get("near"); // "x y"
+        this.hasNear = nearPoint != null;
+        int[] nearXY = nearPoint != null ? parseInts(nearPoint, 2) : null;
+        int[] count = parseInts(filters.getOrDefault("k", "1"), 1);
+        this.near = nearXY != null && count != null && count[0] > 0
+                ? new int[] { nearXY[0], nearXY[1], Math.min(count[0], Protocol.NEAR_MAX_COUNT) }
+                : null;
+    }
+
+    // count whitespace-separated integers, or null
+    private static int[] parseInts(String value, int count) {
+        String[] parts = value.trim().split("\\s+");
+        if (parts.length != count) {
+            return null;
+        }
+        int[] result = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                result[i] = Integer.parseInt(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return result;
+    }
+
+    // true if no filter restricts the result
+    public boolean isUnfiltered() {
+        return colour == null && refersTo == null && !hasContains && !hasRegion && !hasNear;
+    }
+
+    // near= asks for the nearest notes rather than all matches, nearest first
+    public boolean isNearest() {
+        return hasNear;
+    }
+
+    // [x, y, k] of a near= query, or null if it was malformed
+    public int[] nearest() {
+        return near;
+    }
+
+    // [x, y, w, h] of an area every match overlaps, for BulletinBoard.getNotesInRegion, or null
+    // if the query has no region or point; a filter that matches nothing yields an empty area
+    public int[] searchArea() {
+        if (hasRegion) {
+            return region != null ? region : new int[4];
+        }
+        if (hasContains) {
+            return containsValid ? new int[] { containsX, containsY, 1, 1 } : new int[4];
+        }
+        return null;
+    }
+
+    // canonical form of the filters, so equivalent GETs share a cache entry
+    // (filter order, extra spaces and unknown keys do not matter; values never hold spaces)
+    public String cacheKey() {
+        StringBuilder sb = new StringBuilder("NOTES");
+        if (colour != null) {
+            sb.append(" color=").append(colour);
+        }
+        if (refersTo != null) {
+            sb.append(" refersTo=").append(refersTo);
+        }
+        if (hasContains) {
+            sb.append(" contains=");
+            if (containsValid) {
+                sb.append(containsX).append(',').append(containsY);
+            } else {
+                sb.append('!');
+            }
+        }
+        if (hasRegion) {
+            sb.append(" region=");
+            if (region != null) {
+                sb.append(region[0]).append(',').append(region[1]).append(',').append(region[2]).append(',')
+                        .append(region[3]);
+            } else {
+                sb.append('!');
+            }
+        }
+        if (hasNear) {
+            sb.append(" near=");
+            if (near != null) {
+                sb.append(near[0]).append(',').append(near[1]).append(" k=").append(near[2]);
+            } else {
+                sb.append('!');
+            }
+        }
+        return sb.toString();
+    }
+
+    // true if the note passes every filter but near=
+    public boolean matches(Note note, int noteWidth, int noteHeight) {
+        if (colour != null && !note.getColour().equals(colour)) {
+            return false;
+        }
+        if (refersTo != null && !note.messageContains(refersToBytes)) {
+            return false;
+        }
+        if (hasContains && !(containsValid && note.containsPoint(containsX, containsY, noteWidth, noteHeight))) {
+            return false;
+        }
+        if (hasRegion) {
+            return region != null && (long) note.getX() < (long) region[0] + region[2]
+                    && (long) region[0] < (long) note.getX() + noteWidth
+                    && (long) note.getY() < (long) region[1] + region[3]
+                    && (long) region[1] < (long) note.getY() + noteHeight;
+        }
+        return true;
+    }
+
+    // the matching notes, in board order
+    public List<Note> filter(List<Note> notes, int noteWidth, int noteHeight) {
+        List<Note> result = new ArrayList<>();
+        for (Note note : notes) {
+            if (matches(note, noteWidth, noteHeight)) {
+                result.add(note);
+            }
+        }
+        return result;
+    }
+}
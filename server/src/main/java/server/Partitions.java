@@ -0,0 +1,134 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+import server.utils.LineReader;
+import shared.Protocol;
+
+// the router's map of the board: partition i owns the notes whose origin x is in
+// [bounds[i], bounds[i + 1]), the board width split evenly
+// every backend is a plain ServerMain started with the full board dimensions; it simply never
+// sees a note outside its range, so its heap holds only its share of the board
+public class Partitions {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final List<String> addresses;
+    private final int[] bounds;
+    private final int noteWidth;
+    private final int noteHeight;
+    // the backends' handshake line, passed on to the router's clients
+    private final String greeting;
+
+    private Partitions(List<String> addresses, int boardWidth, int noteWidth, int noteHeight, String greeting) {
+        this.addresses = addresses;
+        this.noteWidth = noteWidth;
+        this.noteHeight = noteHeight;
+        this.greeting = greeting;
+        this.bounds = new int[addresses.size() + 1];
+        for (int i = 0; i <= addresses.size(); i++) {
+            bounds[i] = (int) ((long) boardWidth * i / addresses.size());
+        }
+    }
+
+    // asks every backend for its board settings; they must all agree
+    public static Partitions discover(List<String> addresses) throws IOException {
+        String greeting = null;
+        for (String address : addresses) {
+            try (Socket socket = open(address)) {
+                LineReader in = new LineReader(socket.getInputStream());
+                if (!in.readLine()) {
+                    throw new IOException("No handshake from " + address);
+                }
+                String line = in.lineAsString();
+                if (greeting == null) {
+                    greeting = line;
+                } else if (!greeting.equals(line)) {
+                    throw new IOException("Backend " + address + " has different board settings: " + line);
+                }
+            }
+        }
+        if (greeting == null) {
+            throw new IOException("No backends");
+        }
+        // OK BOARD <w> <h> NOTE <nw> <nh> COLOURS ...
+        String[] parts = greeting.split(" ");
+        if (parts.length < 7 || !Protocol.RESP_OK.equals(parts[0])) {
+            throw new IOException("Unexpected handshake: " + greeting);
+        }
+        int boardWidth = Integer.parseInt(parts[2]);
+        int noteWidth = Integer.parseInt(parts[5]);
+        int noteHeight = Integer.parseInt(parts[6]);
+        if (boardWidth / addresses.size() < noteWidth) {
+            throw new IOException("Partitions would be narrower than a note");
+        }
+        return new Partitions(addresses, boardWidth, noteWidth, noteHeight, greeting);
+    }
+
+    // "host:port"
+    static Socket open(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IOException("Expected host:port, got " + address);
+        }
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1))), CONNECT_TIMEOUT_MILLIS);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    public int size() {
+        return addresses.size();
+    }
+
+    public String getAddress(int partition) {
+        return addresses.get(partition);
+    }
+
+    public String getGreeting() {
+        return greeting;
+    }
+
+    public int getNoteWidth() {
+        return noteWidth;
+    }
+
+    public int getNoteHeight() {
+        return noteHeight;
+    }
+
+    // the partition a note with origin x belongs to; out-of-range x goes to an edge partition,
+    // which rejects it exactly as a single server would
+    public int owner(int x) {
+        int partition = 0;
+        while (partition < addresses.size() - 1 && x >= bounds[partition + 1]) {
+            partition++;
+        }
+        return partition;
+    }
+
+    // partitions that may hold a note overlapping columns [x, x + width), in order
+    public int[] overlapping(int x, int width) {
+        if (width <= 0) {
+            return new int[] { 0 };
+        }
+        int first = owner((int) Math.max(Integer.MIN_VALUE, (long) x - noteWidth + 1));
+        int last = owner((int) Math.min(Integer.MAX_VALUE, (long) x + width - 1));
+        int[] targets = new int[last - first + 1];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = first + i;
+        }
+        return targets;
+    }
+
+    // partitions that may hold a note covering column x: its owner and, near the lower edge of
+    // the range, the partition to the left (partitions are at least a note wide)
+    public int[] covering(int x) {
+        int right = owner(x);
+        int left = owner(x - noteWidth + 1);
+        return left == right ? new int[] { right } : new int[] { left, right };
+    }
+}
@@ -0,0 +1,110 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import server.utils.Metrics;
+import shared.Protocol;
+
+// per-connection token buckets; one RateLimit holds the settings, each handler its own Bucket
+//
+// a command costs tokens by class (GET and SHAKE cost more than PIN, a BATCH costs per item);
+// a client short of tokens is made to wait for the refill if that is at most maxDelayMillis,
+// otherwise it is refused with ERROR RATE_LIMITED. the balance may go negative, so a large BATCH
+// or IMPORT is paid for in full by the commands that follow it. the wait happens before the command runs,
+// outside the board lock, so a throttled client only slows itself down
+public class RateLimit {
+    private static final Map<String, Integer> DEFAULT_COSTS = Map.of(
+            Protocol.CMD_GET, 8,
+            Protocol.CMD_HEATMAP, 8,
+            Protocol.CMD_SHAKE, 8,
+            Protocol.CMD_CLEAR, 8,
+            Protocol.CMD_IMPORT, 100,
+            Protocol.CMD_EXPORT, 100,
+            Protocol.CMD_DISCONNECT, 0,
+            Protocol.CMD_PING, 0);
+
+    // declared after DEFAULT_COSTS, which its constructor reads
+    public static final RateLimit UNLIMITED = new RateLimit(0, 0, 0, Map.of());
+
+    // tokens added per second; 0 = no limit
+    private final double rate;
+    private final double burst;
+    private final long maxDelayNanos;
+    private final Map<String, Integer> costs;
+
+    // costs override the defaults by command name; anything unlisted costs 1
+    public RateLimit(double rate, double burst, long maxDelayMillis, Map<String, Integer> costs) {
+        this.rate = rate;
+        this.burst = Math.max(burst, 1);
+        this.maxDelayNanos = maxDelayMillis * 1_000_000L;
+        this.costs = new HashMap<>(DEFAULT_COSTS);
+        this.costs.putAll(costs);
+    }
+
+    // parses "GET:8,SHAKE:8,PIN:1" into a cost map
+    public static Map<String, Integer> parseCosts(String spec) {
+        Map<String, Integer> costs = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Bad rate cost: " + entry);
+            }
+            costs.put(entry.substring(0, colon).trim().toUpperCase(),
+                    Integer.parseInt(entry.substring(colon + 1).trim()));
+        }
+        return costs;
+    }
+
+    public boolean isEnabled() {
+        return rate > 0;
+    }
+
+    // tokens one command costs; a BATCH is charged per item at the BATCH cost
+    public int cost(String commandType, int batchItems) {
+        if (commandType == null) {
+            return 1;
+        }
+        int cost = costs.getOrDefault(commandType, 1);
+        return Protocol.CMD_BATCH.equals(commandType) ? cost * Math.max(batchItems, 1) : cost;
+    }
+
+    public Bucket newBucket() {
+        return new Bucket();
+    }
+
+    // owned by one connection thread, so it needs no locking
+    public class Bucket {
+        private double tokens = burst;
+        private long lastRefill = System.nanoTime();
+
+        // takes cost tokens, sleeping for the refill if allowed; false if the command is refused
+        public boolean acquire(int cost) throws InterruptedException {
+            if (rate <= 0 || cost <= 0) {
+                return true;
+            }
+            refill();
+            // a command dearer than the burst runs once the bucket is full and leaves it in debt,
+            // so the commands after it wait until the whole cost has been refilled
+            double deficit = Math.min(cost, burst) - tokens;
+            if (deficit > 0) {
+                long waitNanos = (long) (deficit / rate * 1_000_000_000L);
+                if (waitNanos > maxDelayNanos) {
+                    Metrics.rateLimitRefused();
+                    return false;
+                }
+                Metrics.rateLimitDelayed();
+                Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+                refill();
+            }
+            tokens -= cost;
+            return true;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1_000_000_000L);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package server;
+
+// note counts by origin for GET COUNT region=: a two-dimensional Fenwick tree (a summed-area
+// table that can be updated) over blocks of origins, so a count over any block-aligned rectangle
+// takes O(log cols * log rows). blocks start at one note and are doubled until the tree has at
+// most MAX_BLOCKS entries; the caller counts the partial blocks at a rectangle's edges itself.
+// not thread-safe
+class RegionCounts {
+    private static final int MAX_BLOCKS = 1 << 20;
+
+    private final int blockWidth;
+    private final int blockHeight;
+    private final int cols;
+    private final int rows;
+    private int[] tree;
+
+    // origins range over [0, maxX] x [0, maxY]
+    RegionCounts(int maxX, int maxY, int noteWidth, int noteHeight) {
+        int width = Math.max(1, noteWidth);
+        int height = Math.max(1, noteHeight);
+        while ((long) (maxX / width + 1) * (maxY / height + 1) > MAX_BLOCKS) {
+            // coarsen the longer side first, keeping blocks roughly square in notes
+            if ((long) (maxX / width) >= (long) (maxY / height)) {
+                width *= 2;
+            } else {
+                height *= 2;
+            }
+        }
+        this.blockWidth = width;
+        this.blockHeight = height;
+        this.cols = Math.max(0, maxX) / width + 1;
+        this.rows = Math.max(0, maxY) / height + 1;
+    }
+
+    int blockWidth() {
+        return blockWidth;
+    }
+
+    int blockHeight() {
+        return blockHeight;
+    }
+
+    void add(int x, int y, int delta) {
+        if (tree == null) {
+            // allocated with the first note, so an empty board costs nothing
+            tree = new int[cols * rows];
+        }
+        for (int c = x / blockWidth + 1; c <= cols; c += c & -c) {
+            for (int r = y / blockHeight + 1; r <= rows; r += r & -r) {
+                tree[(c - 1) * rows + (r - 1)] += delta;
+            }
+        }
+    }
+
+    // notes in blocks [c0, c1] x [r0, r1], inclusive
+    int sum(int c0, int r0, int c1, int r1) {
+        return prefix(c1, r1) - prefix(c0 - 1, r1) - prefix(c1, r0 - 1) + prefix(c0 - 1, r0 - 1);
+    }
+
+    void clear() {
+        tree = null;
+    }
+
+    // notes in blocks [0, c] x [0, r]
+    private int prefix(int c, int r) {
+        if (tree == null || c < 0 || r < 0) {
+            return 0;
+        }
+        int total = 0;
+        for (int i = Math.min(c, cols - 1) + 1; i > 0; i -= i & -i) {
+            for (int j = Math.min(r, rows - 1) + 1; j > 0; j -= j & -j) {
+                total += tree[(i - 1) * rows + (j - 1)];
+            }
+        }
+        return total;
+    }
+}
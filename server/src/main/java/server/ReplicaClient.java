@@ -0,0 +1,261 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import server.utils.LineReader;
+import server.utils.Logger;
+
+// replica side of log-shipping replication (--replica-of): keeps a local board in step with a
+// primary's ReplicationServer and reconnects, from a fresh snapshot, whenever the stream breaks
+public class ReplicaClient {
+    // the primary heartbeats every second; this much silence means it is gone
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private final String host;
+    private final int port;
+    private final AtomicLong noteIds = new AtomicLong();
+
+    private BulletinBoard board;
+    private List<String> validColours;
+    // parsed colours resolve to the board's own strings
+    private final Map<String, String> colours = new HashMap<>();
+    private LineReader in;
+
+    // primary versions: the last one applied here and the newest one heard of
+    private volatile long appliedVersion;
+    private volatile long primaryVersion;
+    // primary clock time the local board was known to be current at
+    private volatile long currentAtMillis;
+    private final AtomicLong resyncs = new AtomicLong();
+
+    public ReplicaClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    // "host:port"
+    public static ReplicaClient parse(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected host:port, got " + address);
+        }
+        return new ReplicaClient(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    // connects and loads the first snapshot; the board's dimensions and colours come from the primary
+    public BulletinBoard connect() throws IOException {
+        openAndLoad();
+        return board;
+    }
+
+    public List<String> getValidColours() {
+        return validColours;
+    }
+
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    // applies the change stream on a background thread
+    public void start() {
+        Thread thread = new Thread(this::run, "replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // changes committed on the primary but not yet applied here
+    public long getLagVersions() {
+        return Math.max(0, primaryVersion - appliedVersion);
+    }
+
+    // how out of date the local board may be (assumes the two clocks agree)
+    public double getLagSeconds() {
+        return Math.max(0, System.currentTimeMillis() - currentAtMillis) / 1e3;
+    }
+
+    public long getAppliedVersion() {
+        return appliedVersion;
+    }
+
+    public long getResyncs() {
+        return resyncs.get();
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                stream();
+            } catch (IOException e) {
+                Logger.error("Replication from " + getAddress() + " broken: " + e.getMessage());
+            }
+            closeQuietly();
+            while (true) {
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                    openAndLoad();
+                    resyncs.incrementAndGet();
+                    break;
+                } catch (IOException e) {
+                    Logger.error("Reconnecting to " + getAddress() + ": " + e.getMessage());
+                    closeQuietly();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void openAndLoad() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), READ_TIMEOUT_MILLIS);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        in = new LineReader(socket.getInputStream(), MAX_RECORD_LENGTH);
+
+        String[] header = readLine().split(" ");
+        if (header.length < 8 || !"SNAPSHOT".equals(header[0])) {
+            throw new IOException("Expected SNAPSHOT from primary");
+        }
+        long version = Long.parseLong(header[1]);
+        int boardWidth = Integer.parseInt(header[2]);
+        int boardHeight = Integer.parseInt(header[3]);
+        int noteWidth = Integer.parseInt(header[4]);
+        int noteHeight = Integer.parseInt(header[5]);
+        int noteCount = Integer.parseInt(header[6]);
+        int pinCount = Integer.parseInt(header[7]);
+        if (board == null) {
+            board = new BulletinBoard(boardWidth, boardHeight, noteWidth, noteHeight);
+            validColours = new ArrayList<>(Arrays.asList(header).subList(8, header.length));
+            for (String colour : validColours) {
+                colours.put(colour, colour);
+            }
+        } else if (board.getBoardWidth() != boardWidth || board.getBoardHeight() != boardHeight
+                || board.getNoteWidth() != noteWidth || board.getNoteHeight() != noteHeight) {
+            throw new IOException("Primary board dimensions changed");
+        }
+
+        List<Note> notes = new ArrayList<>(noteCount);
+        for (int i = 0; i < noteCount; i++) {
+            notes.add(parseNote(readLine()));
+        }
+        int[] pins = new int[2 * pinCount];
+        for (int i = 0; i < pinCount; i++) {
+            String[] fields = readLine().split(",");
+            pins[2 * i] = Integer.parseInt(fields[1]);
+            pins[2 * i + 1] = Integer.parseInt(fields[2]);
+        }
+        board.load(notes, pins, pinCount);
+        // a restarted primary counts from zero again
+        appliedVersion = version;
+        primaryVersion = version;
+        currentAtMillis = System.currentTimeMillis();
+        Logger.info("Loaded snapshot of " + noteCount + " notes, " + pinCount + " pins from " + getAddress()
+                + " at version " + version);
+    }
+
+    // applies changes until the connection breaks
+    private void stream() throws IOException {
+        List<BoardOperation> operations = new ArrayList<>();
+        while (true) {
+            String[] header = readLine().split(" ");
+            long version = Long.parseLong(header[1]);
+            long millis = Long.parseLong(header[2]);
+            if ("H".equals(header[0])) {
+                primaryVersion = Math.max(primaryVersion, version);
+                if (version == appliedVersion) {
+                    currentAtMillis = millis;
+                }
+                continue;
+            }
+            int count = Integer.parseInt(header[3]);
+            for (int i = 0; i < count; i++) {
+                apply(readLine(), operations);
+            }
+            applyOperations(operations);
+            appliedVersion = version;
+            primaryVersion = Math.max(primaryVersion, version);
+            currentAtMillis = millis;
+        }
+    }
+
+    // POST, PIN and UNPIN records are collected and applied together; the rest flush them first
+    private void apply(String record, List<BoardOperation> operations) throws IOException {
+        switch (record.charAt(0)) {
+            case 'N':
+                operations.add(BoardOperation.post(parseNote(record)));
+                return;
+            case 'P':
+                operations.add(BoardOperation.pin(field(record, 1), field(record, 2)));
+                return;
+            case 'U':
+                operations.add(BoardOperation.unpin(field(record, 1), field(record, 2)));
+                return;
+            default:
+                break;
+        }
+        applyOperations(operations);
+        switch (record.charAt(0)) {
+            case 'D':
+                board.removeNoteAt(field(record, 1), field(record, 2));
+                break;
+            case 'S':
+                board.shake();
+                break;
+            case 'C':
+                board.clear();
+                break;
+            default:
+                throw new IOException("Unknown replication record: " + record);
+        }
+    }
+
+    private void applyOperations(List<BoardOperation> operations) {
+        if (!operations.isEmpty()) {
+            board.applyBatch(operations, false, new boolean[operations.size()]);
+            operations.clear();
+        }
+    }
+
+    private Note parseNote(String record) throws IOException {
+        String[] fields = record.split(",", 5);
+        String colour = fields.length == 5 ? colours.get(fields[3]) : null;
+        if (colour == null) {
+            throw new IOException("Bad note record: " + record);
+        }
+        return new Note(noteIds.getAndIncrement(), Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]), colour, fields[4]);
+    }
+
+    private static int field(String record, int index) {
+        return Integer.parseInt(record.split(",")[index]);
+    }
+
+    private String readLine() throws IOException {
+        if (!in.readLine()) {
+            throw new IOException("Primary closed the connection");
+        }
+        if (in.isOverflow()) {
+            throw new IOException("Replication record too long");
+        }
+        return in.lineAsString();
+    }
+
+    private void closeQuietly() {
+        try {
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import server.utils.Logger;
+
+// primary side of log-shipping replication (--replication-port)
+//
+// a replica gets one line of board settings and a snapshot, then every change as it commits:
+//   SNAPSHOT <version> <bw> <bh> <nw> <nh> <notes> <pins> <colour1> ... <colourN>
+//   <notes + pins records>
+//   V <version> <millis> <count>      followed by <count> records (see BoardListener)
+//   H <version> <millis>              heartbeat, once a second while nothing changes
+// changes are queued per replica from under the board lock; a replica that falls a full queue
+// behind is disconnected and starts over from a new snapshot, so the primary never waits for it
+public class ReplicationServer implements BoardListener {
+    private static final int QUEUE_CHANGES = 64 * 1024;
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private final BulletinBoard board;
+    private final List<String> validColours;
+    private final ServerSocket serverSocket;
+    private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+
+    // one committed change, encoded once for every replica
+    private static class Change {
+        final long version;
+        final byte[] bytes;
+
+        Change(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Replica {
+        final Socket socket;
+        final BlockingQueue<Change> queue = new ArrayBlockingQueue<>(QUEUE_CHANGES);
+
+        Replica(Socket socket) {
+            this.socket = socket;
+        }
+    }
+
+    // binds the port; call start() to begin accepting replicas
+    public ReplicationServer(int port, BulletinBoard board, List<String> validColours) throws IOException {
+        this.board = board;
+        this.validColours = validColours;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    public void start() {
+        board.setListener(this);
+        Thread acceptor = new Thread(this::acceptReplicas, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Logger.info("Replication on port " + serverSocket.getLocalPort());
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public void boardChanged(long version, List<String> records) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(64 * records.size() + 32);
+        sb.append("V ").append(version).append(' ').append(System.currentTimeMillis()).append(' ')
+                .append(records.size()).append('\n');
+        for (String record : records) {
+            sb.append(record).append('\n');
+        }
+        Change change = new Change(version, sb.toString().getBytes(StandardCharsets.UTF_8));
+        for (Replica replica : replicas) {
+            if (!replica.queue.offer(change)) {
+                // too far behind; closing makes its sender exit and the replica resynchronize
+                Logger.error("Replica " + replica.socket.getRemoteSocketAddress() + " fell behind, dropping it");
+                replicas.remove(replica);
+                closeQuietly(replica.socket);
+            }
+        }
+    }
+
+    private void acceptReplicas() {
+        while (true) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread sender = new Thread(() -> serve(new Replica(socket)), "replication-send");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                Logger.error("Replication: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // sends the snapshot, then streams changes until the replica goes away
+    private void serve(Replica replica) {
+        Logger.info("Replica connected from " + replica.socket.getRemoteSocketAddress());
+        // listen before the snapshot, so no change can fall between the two; changes the
+        // snapshot already contains are skipped by version
+        replicas.add(replica);
+        try (OutputStream out = new BufferedOutputStream(replica.socket.getOutputStream(), 64 * 1024)) {
+            long snapshotVersion = sendSnapshot(out);
+            while (true) {
+                Change change = replica.queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (change == null) {
+                    out.write(("H " + board.getVersion() + " " + System.currentTimeMillis() + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    continue;
+                }
+                if (change.version > snapshotVersion) {
+                    out.write(change.bytes);
+                }
+                // flush once the backlog is drained
+                if (replica.queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            Logger.info("Replica " + replica.socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            replicas.remove(replica);
+            closeQuietly(replica.socket);
+        }
+    }
+
+    private long sendSnapshot(OutputStream out) throws IOException {
+        List<Note> notes = new ArrayList<>();
+        List<Pin> pins = new ArrayList<>();
+        long version = board.snapshot(notes, pins);
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("SNAPSHOT ").append(version).append(' ').append(board.getBoardWidth()).append(' ')
+                .append(board.getBoardHeight()).append(' ').append(board.getNoteWidth()).append(' ')
+                .append(board.getNoteHeight()).append(' ').append(notes.size()).append(' ').append(pins.size());
+        for (String colour : validColours) {
+            sb.append(' ').append(colour);
+        }
+        sb.append('\n');
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        for (Note note : notes) {
+            out.write((BoardListener.note(note) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        for (Pin pin : pins) {
+            out.write((BoardListener.pin(pin.getX(), pin.getY()) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+        Logger.info("Sent snapshot of " + notes.size() + " notes, " + pins.size() + " pins at version " + version);
+        return version;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// encoded GET responses keyed by normalized query, valid for one board version
+// bounded by total response bytes with LRU eviction (note fragments are shared with the board,
+// so this overstates what the cache itself holds); concurrent misses on the same key build once
+public class ResponseCache {
+    private static final int BUILD_STRIPES = 64;
+
+    private final long maxBytes;
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    // serializes builds per key (striped), so 500 pollers after a change cost one build
+    private final Object[] buildLocks = new Object[BUILD_STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static class Entry {
+        final long version;
+        final EncodedResponse response;
+
+        Entry(long version, EncodedResponse response) {
+            this.version = version;
+            this.response = response;
+        }
+    }
+
+    // maxBytes <= 0 disables caching; every lookup then builds
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < buildLocks.length; i++) {
+            buildLocks[i] = new Object();
+        }
+    }
+
+    // the response for key at board version, building it on a miss
+    // version must be read before the builder takes its snapshot, so a stored entry is never
+    // older than its version (a newer one only costs a later miss)
+    public EncodedResponse get(String key, long version, Supplier<EncodedResponse> builder) {
+        if (maxBytes <= 0) {
+            misses.increment();
+            return builder.get();
+        }
+        EncodedResponse cached = lookup(key, version);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        synchronized (buildLocks[(key.hashCode() & 0x7fffffff) % BUILD_STRIPES]) {
+            // someone else may have built it while we waited
+            cached = lookup(key, version);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            EncodedResponse response = builder.get();
+            store(key, version, response);
+            return response;
+        }
+    }
+
+    private synchronized EncodedResponse lookup(String key, long version) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.version == version ? entry.response : null;
+    }
+
+    private synchronized void store(String key, long version, EncodedResponse response) {
+        if (response.length() > maxBytes) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(version, response));
+        if (old != null) {
+            totalBytes -= old.response.length();
+        }
+        totalBytes += response.length();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            totalBytes -= eldest.getValue().response.length();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    // drops every entry; the board version makes this unnecessary for correctness
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,121 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import shared.Protocol;
+
+// builds the OK response lines for GET, GET PINS, GET ALL and HEATMAP
+public class Responses {
+    private static final byte[] OK_PREFIX = (Protocol.RESP_OK + " ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = Protocol.LIST_SEPARATOR.getBytes(StandardCharsets.UTF_8);
+
+    // OK x y colour message;... or OK if there are no notes
+    public static String formatNotes(List<Note> notes) {
+        if (notes.isEmpty()) {
+            return Protocol.RESP_OK;
+        }
+        StringBuilder sb = new StringBuilder(Protocol.RESP_OK.length() + notes.size() * 32);
+        sb.append(Protocol.RESP_OK).append(" ");
+        for (int i = 0; i < notes.size(); i++) {
+            Note n = notes.get(i);
+            if (i > 0) {
+                sb.append(Protocol.LIST_SEPARATOR);
+            }
+            sb.append(n.getX()).append(" ").append(n.getY()).append(" ")
+                    .append(n.getColour()).append(" ").append(n.getMessage());
+        }
+        return sb.toString();
+    }
+
+    // same line as formatNotes, assembled from the notes' pre-encoded prefixes and messages
+    public static EncodedResponse encodeNotes(List<Note> notes) {
+        if (notes.isEmpty()) {
+            return EncodedResponse.OK;
+        }
+        byte[][] chunks = new byte[notes.size() * 3][];
+        chunks[0] = OK_PREFIX;
+        int length = OK_PREFIX.length + (notes.size() - 1) * SEPARATOR.length;
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (i > 0) {
+                chunks[3 * i] = SEPARATOR;
+            }
+            chunks[3 * i + 1] = note.getWirePrefix();
+            chunks[3 * i + 2] = note.getMessageBytes();
+            length += chunks[3 * i + 1].length + chunks[3 * i + 2].length;
+        }
+        return new EncodedResponse(chunks, length);
+    }
+
+    // OK <pinCount> x y;...;x y colour message;..., the pins as formatPins and the notes as
+    // encodeNotes writes them
+    public static EncodedResponse encodeAll(List<Note> notes, List<Pin> pins) {
+        StringBuilder head = new StringBuilder(Protocol.RESP_OK.length() + 8 + pins.size() * 10);
+        head.append(Protocol.RESP_OK).append(" ").append(pins.size());
+        for (int i = 0; i < pins.size(); i++) {
+            Pin p = pins.get(i);
+            head.append(i == 0 ? " " : Protocol.LIST_SEPARATOR).append(p.getX()).append(" ").append(p.getY());
+        }
+        if (!notes.isEmpty()) {
+            head.append(pins.isEmpty() ? " " : Protocol.LIST_SEPARATOR);
+        }
+        byte[] prefix = head.toString().getBytes(StandardCharsets.UTF_8);
+        // the prefix, then each note's prefix and message with separators between notes
+        byte[][] chunks = new byte[notes.isEmpty() ? 1 : notes.size() * 3][];
+        chunks[0] = prefix;
+        int length = prefix.length;
+        int c = 1;
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (i > 0) {
+                chunks[c++] = SEPARATOR;
+                length += SEPARATOR.length;
+            }
+            chunks[c++] = note.getWirePrefix();
+            chunks[c++] = note.getMessageBytes();
+            length += note.getWirePrefix().length + note.getMessageBytes().length;
+        }
+        return new EncodedResponse(chunks, length);
+    }
+
+    // OK x y;... or OK if there are no pins
+    public static String formatPins(List<Pin> pins) {
+        if (pins.isEmpty()) {
+            return Protocol.RESP_OK;
+        }
+        StringBuilder sb = new StringBuilder(Protocol.RESP_OK.length() + pins.size() * 10);
+        sb.append(Protocol.RESP_OK).append(" ");
+        for (int i = 0; i < pins.size(); i++) {
+            Pin p = pins.get(i);
+            if (i > 0) {
+                sb.append(Protocol.LIST_SEPARATOR);
+            }
+            sb.append(p.getX()).append(" ").append(p.getY());
+        }
+        return sb.toString();
+    }
+
+    // OK cellSize cols rows counts pinned, each list comma-separated
+    public static String formatHeatmap(BulletinBoard.Heatmap heatmap) {
+        StringBuilder sb = new StringBuilder(32 + heatmap.counts.length * 4);
+        sb.append(Protocol.RESP_OK).append(" ").append(heatmap.cellSize).append(" ").append(heatmap.cols)
+                .append(" ").append(heatmap.rows);
+        appendCells(sb, heatmap.counts);
+        appendCells(sb, heatmap.pinned);
+        return sb.toString();
+    }
+
+    private static void appendCells(StringBuilder sb, int[] cells) {
+        sb.append(" ");
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                sb.append(Protocol.HEATMAP_SEPARATOR);
+            }
+            sb.append(cells[i]);
+        }
+    }
+
+    private Responses() {
+    }
+}
@@ -0,0 +1,505 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import server.utils.LineReader;
+import server.utils.Logger;
+import shared.Protocol;
+import utils.CommandParser;
+import utils.ParsedCommand;
+import utils.ProtocolParser;
+
+// one client of the router, with its own connection to every backend so its commands stay in order
+//
+// POST goes to the partition owning the note's origin; PIN, UNPIN and GET contains= go to the one
+// or two partitions that may hold a note covering the point, GET region= to those whose columns
+// it spans; GET, GET PINS, GET ALL, GET COUNT, HEATMAP, SHAKE and CLEAR go to every partition and
+// the answers are merged (for GET near=, the nearest of every partition's nearest are kept; counts
+// and heatmaps are summed; GET ALL merges its pins and notes separately).
+// lines are forwarded unchanged, and anything malformed goes to partition 0, so errors read
+// exactly as they would from a single server
+public class RouterHandler implements Runnable {
+    private final Socket clientSocket;
+    private final Partitions partitions;
+    private final int maxLineLength;
+    private final Backend[] backends;
+    private final ParsedCommand parsed = new ParsedCommand();
+    private LineReader in;
+    private OutputStream out;
+
+    // this client's link to one backend, opened on first use and again after a failure
+    private static class Backend {
+        Socket socket;
+        LineReader in;
+        OutputStream out;
+    }
+
+    public RouterHandler(Socket clientSocket, Partitions partitions, int maxLineLength) {
+        this.clientSocket = clientSocket;
+        this.partitions = partitions;
+        this.maxLineLength = maxLineLength;
+        this.backends = new Backend[partitions.size()];
+    }
+
+    @Override
+    public void run() {
+        try {
+            in = new LineReader(clientSocket.getInputStream(), maxLineLength);
+            out = new BufferedOutputStream(clientSocket.getOutputStream(), 8192);
+            reply(partitions.getGreeting());
+            while (in.readLine()) {
+                if (in.isOverflow()) {
+                    reply(Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Line too long");
+                    continue;
+                }
+                if (in.isBlankLine()) {
+                    continue;
+                }
+                // a tag is stripped before routing and put back on the reply; the router answers in
+                // order, which a tagged client accepts like any other completion order
+                int start = CommandParser.commandStart(in.buffer(), in.lineStart(), in.lineEnd());
+                if (start < 0) {
+                    reply(Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " Invalid request tag");
+                    continue;
+                }
+                String tag = new String(in.buffer(), in.lineStart(), start - in.lineStart(), StandardCharsets.UTF_8);
+                String line = new String(in.buffer(), start, in.lineEnd() - start, StandardCharsets.UTF_8);
+                CommandParser.parse(in.buffer(), start, in.lineEnd(), parsed);
+                if (Protocol.CMD_BATCH.equals(parsed.getType())) {
+                    // read the items so the stream stays in step, but a batch cannot span partitions
+                    Batch.read(parsed.getParameters(), in);
+                    reply(tag + Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT
+                            + " BATCH is not supported by the router");
+                    continue;
+                }
+                reply(tag + route(line));
+                if (Protocol.CMD_DISCONNECT.equals(parsed.getType())) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("Router client: " + e.getMessage());
+        } finally {
+            for (int i = 0; i < backends.length; i++) {
+                closeBackend(i);
+            }
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    // the response line for one client command
+    private String route(String line) {
+        String type = parsed.getType();
+        if (type == null || parsed.hasError()) {
+            return forward(0, line);
+        }
+        switch (type) {
+            case "POST":
+                return forward(partitions.owner(parsed.getX()), line);
+            case "PIN":
+            case "UNPIN":
+                return anyOk(partitions.covering(parsed.getX()), line);
+            case "GET":
+                return routeGet(line);
+            case "HEATMAP":
+                return mergeHeatmaps(scatter(all(), line));
+            case "SHAKE":
+            case "CLEAR":
+                return allOk(line);
+            case "PING":
+                return Protocol.RESP_PONG;
+            case "DISCONNECT":
+                return Protocol.RESP_OK;
+            case "IMPORT":
+            case "EXPORT":
+                return Protocol.RESP_ERROR + " " + Protocol.ERR_INVALID_FORMAT + " " + type
+                        + " is not supported by the router; run it on each backend";
+            default:
+                return forward(0, line);
+        }
+    }
+
+    private String routeGet(String line) {
+        String get = ProtocolParser.parseGetCommand(parsed.getParameters());
+        if (get == null) {
+            return forward(0, line);
+        }
+        if (get.equals(Protocol.GET_PINS)) {
+            return mergePins(scatter(all(), line));
+        }
+        if (ClientHandler.isCountQuery(get)) {
+            return routeCount(get.substring(Protocol.GET_COUNT.length()).trim(), line);
+        }
+        boolean all = ClientHandler.isAllQuery(get);
+        Map<String, String> filters = ProtocolParser.parseGetFilters(
+                all ? get.substring(Protocol.GET_ALL.length()) : get);
+        if (filters == null) {
+            return forward(0, line);
+        }
+        int[] targets = targets(filters);
+        NoteQuery query = new NoteQuery(filters);
+        if (all) {
+            int[] near = query.isNearest() ? query.nearest() : null;
+            return query.isNearest() && near == null ? forward(0, line) : mergeAll(scatter(targets, line), near);
+        }
+        if (query.isNearest()) {
+            int[] near = query.nearest();
+            return near == null ? forward(0, line) : mergeNearest(scatter(targets, line), near);
+        }
+        return mergeNotes(scatter(targets, line));
+    }
+
+    // GET COUNT PINS counts the merged pins, since edge pins are stored twice; other counts are
+    // summed over the partitions a GET with the same filters would go to
+    private String routeCount(String params, String line) {
+        if (params.equals(Protocol.GET_PINS)) {
+            String pins = mergePins(scatter(all(), Protocol.CMD_GET + " " + Protocol.GET_PINS));
+            if (!pins.startsWith(Protocol.RESP_OK)) {
+                return pins;
+            }
+            int count = pins.length() == Protocol.RESP_OK.length() ? 0
+                    : pins.split(Protocol.LIST_SEPARATOR).length;
+            return Protocol.RESP_OK + " " + count;
+        }
+        Map<String, String> filters = ProtocolParser.parseGetFilters(params);
+        if (filters == null || filters.containsKey("near")) {
+            return forward(0, line);
+        }
+        long total = 0;
+        for (String response : scatter(targets(filters), line)) {
+            if (!response.startsWith(Protocol.RESP_OK + " ")) {
+                return response;
+            }
+            try {
+                total += Long.parseLong(response.substring(Protocol.RESP_OK.length() + 1).trim());
+            } catch (NumberFormatException e) {
+                return response;
+            }
+        }
+        return Protocol.RESP_OK + " " + total;
+    }
+
+    // the partitions that may hold a note matching the filters
+    private int[] targets(Map<String, String> filters) {
+        String contains = filters.get("contains");
+        int[] targets = all();
+        if (contains != null) {
+            String[] coords = contains.trim().split("\\s+");
+            try {
+                targets = coords.length == 2 ? partitions.covering(Integer.parseInt(coords[0])) : new int[] { 0 };
+            } catch (NumberFormatException e) {
+                // a malformed contains= matches nothing on any partition
+                targets = new int[] { 0 };
+            }
+        }
+        String region = filters.get("region");
+        if (region != null && contains == null) {
+            String[] rect = region.trim().split("\\s+");
+            try {
+                targets = rect.length == 4
+                        ? partitions.overlapping(Integer.parseInt(rect[0]), Integer.parseInt(rect[2]))
+                        : new int[] { 0 };
+            } catch (NumberFormatException e) {
+                // a malformed region= matches nothing on any partition
+                targets = new int[] { 0 };
+            }
+        }
+        return targets;
+    }
+
+    private int[] all() {
+        int[] targets = new int[partitions.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = i;
+        }
+        return targets;
+    }
+
+    private String forward(int partition, String line) {
+        return scatter(new int[] { partition }, line)[0];
+    }
+
+    // OK if any target said OK, else the last target's error (the owner of the point)
+    private String anyOk(int[] targets, String line) {
+        String[] responses = scatter(targets, line);
+        for (String response : responses) {
+            if (Protocol.RESP_OK.equals(response)) {
+                return response;
+            }
+        }
+        return responses[responses.length - 1];
+    }
+
+    // OK once every partition has said OK
+    private String allOk(String line) {
+        for (String response : scatter(all(), line)) {
+            if (!Protocol.RESP_OK.equals(response)) {
+                return response;
+            }
+        }
+        return Protocol.RESP_OK;
+    }
+
+    // sends the line to every target before reading any answer, so the partitions work in parallel
+    // a partition that fails answers with an error line in its slot
+    private String[] scatter(int[] targets, String line) {
+        String[] responses = new String[targets.length];
+        byte[] request = (line + Protocol.LINE_END).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < targets.length; i++) {
+            try {
+                Backend backend = backend(targets[i]);
+                backend.out.write(request);
+                backend.out.flush();
+            } catch (IOException e) {
+                responses[i] = unavailable(targets[i], e);
+            }
+        }
+        for (int i = 0; i < targets.length; i++) {
+            if (responses[i] != null) {
+                continue;
+            }
+            try {
+                Backend backend = backends[targets[i]];
+                if (!backend.in.readLine()) {
+                    throw new IOException("connection closed");
+                }
+                responses[i] = backend.in.lineAsString();
+            } catch (IOException e) {
+                responses[i] = unavailable(targets[i], e);
+            }
+        }
+        return responses;
+    }
+
+    private String unavailable(int partition, IOException e) {
+        Logger.error("Partition " + partition + " (" + partitions.getAddress(partition) + "): " + e.getMessage());
+        closeBackend(partition);
+        return Protocol.RESP_ERROR + " " + Protocol.ERR_INTERNAL_ERROR + " Partition " + partition
+                + " unavailable";
+    }
+
+    private Backend backend(int partition) throws IOException {
+        Backend backend = backends[partition];
+        if (backend == null) {
+            backend = new Backend();
+            backend.socket = Partitions.open(partitions.getAddress(partition));
+            backend.in = new LineReader(backend.socket.getInputStream());
+            backend.out = new BufferedOutputStream(backend.socket.getOutputStream(), 8192);
+            backends[partition] = backend;
+            // the handshake; Partitions already checked it
+            if (!backend.in.readLine()) {
+                throw new IOException("no handshake");
+            }
+        }
+        return backend;
+    }
+
+    private void closeBackend(int partition) {
+        Backend backend = backends[partition];
+        backends[partition] = null;
+        if (backend != null) {
+            try {
+                backend.socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    // OK followed by every partition's notes, partition by partition
+    private static String mergeNotes(String[] responses) {
+        StringBuilder sb = new StringBuilder(Protocol.RESP_OK);
+        boolean first = true;
+        for (String response : responses) {
+            if (!response.startsWith(Protocol.RESP_OK)) {
+                return response;
+            }
+            if (response.length() > Protocol.RESP_OK.length()) {
+                sb.append(first ? " " : Protocol.LIST_SEPARATOR).append(response, Protocol.RESP_OK.length() + 1,
+                        response.length());
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    // every partition's k nearest, merged into the k nearest overall; near = [x, y, k]
+    private String mergeNearest(String[] responses, int[] near) {
+        List<String> notes = new ArrayList<>();
+        for (String response : responses) {
+            if (!response.startsWith(Protocol.RESP_OK)) {
+                return response;
+            }
+            if (response.length() > Protocol.RESP_OK.length()) {
+                notes.addAll(Arrays.asList(
+                        response.substring(Protocol.RESP_OK.length() + 1).split(Protocol.LIST_SEPARATOR)));
+            }
+        }
+        // stable, so equally near notes keep partition order
+        notes.sort(Comparator.comparingLong(note -> distance(note, near[0], near[1])));
+        StringBuilder sb = new StringBuilder(Protocol.RESP_OK);
+        for (int i = 0; i < Math.min(near[2], notes.size()); i++) {
+            sb.append(i == 0 ? " " : Protocol.LIST_SEPARATOR).append(notes.get(i));
+        }
+        return sb.toString();
+    }
+
+    // squared distance from the point to a note given as "x y colour message"
+    private long distance(String note, int px, int py) {
+        int space = note.indexOf(' ');
+        int x = Integer.parseInt(note.substring(0, space));
+        int y = Integer.parseInt(note.substring(space + 1, note.indexOf(' ', space + 1)));
+        long dx = Math.max(0, Math.max((long) x - px, px - (x + partitions.getNoteWidth() - 1L)));
+        long dy = Math.max(0, Math.max((long) y - py, py - (y + partitions.getNoteHeight() - 1L)));
+        return dx * dx + dy * dy;
+    }
+
+    // every partition has the whole board's dimensions, so their heatmaps line up cell for cell
+    private static String mergeHeatmaps(String[] responses) {
+        String[] merged = null;
+        long[][] cells = null;
+        for (String response : responses) {
+            String[] parts = response.split(Protocol.DELIMITER);
+            if (!response.startsWith(Protocol.RESP_OK + " ") || parts.length != 6) {
+                return response;
+            }
+            if (merged == null) {
+                merged = parts;
+                cells = new long[2][];
+            }
+            for (int list = 0; list < 2; list++) {
+                String[] values = parts[4 + list].split(Protocol.HEATMAP_SEPARATOR);
+                if (cells[list] == null) {
+                    cells[list] = new long[values.length];
+                }
+                for (int i = 0; i < Math.min(values.length, cells[list].length); i++) {
+                    cells[list][i] += Long.parseLong(values[i]);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder(String.join(Protocol.DELIMITER, merged[0], merged[1], merged[2],
+                merged[3]));
+        for (long[] list : cells) {
+            sb.append(Protocol.DELIMITER);
+            for (int i = 0; i < list.length; i++) {
+                sb.append(i == 0 ? "" : Protocol.HEATMAP_SEPARATOR).append(list[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    // GET ALL: each reply is split into its pins and its notes, which merge as GET PINS and GET
+    // do; when near= trims the notes, only pins on a kept note stay
+    private String mergeAll(String[] responses, int[] near) {
+        String[] pinResponses = new String[responses.length];
+        String[] noteResponses = new String[responses.length];
+        for (int i = 0; i < responses.length; i++) {
+            String response = responses[i];
+            String[] parts = response.split(Protocol.DELIMITER, 3);
+            int count;
+            try {
+                count = response.startsWith(Protocol.RESP_OK + " ") ? Integer.parseInt(parts[1]) : -1;
+            } catch (NumberFormatException e) {
+                count = -1;
+            }
+            if (count < 0) {
+                return response;
+            }
+            String[] items = parts.length < 3 ? new String[0] : parts[2].split(Protocol.LIST_SEPARATOR, count + 1);
+            pinResponses[i] = list(Arrays.asList(items).subList(0, Math.min(count, items.length)));
+            noteResponses[i] = count < items.length ? Protocol.RESP_OK + " " + items[count] : Protocol.RESP_OK;
+        }
+        String notes = near == null ? mergeNotes(noteResponses) : mergeNearest(noteResponses, near);
+        String pins = mergePins(pinResponses);
+        List<String> kept = new ArrayList<>();
+        if (pins.length() > Protocol.RESP_OK.length()) {
+            List<String> noteList = notes.length() > Protocol.RESP_OK.length()
+                    ? Arrays.asList(notes.substring(Protocol.RESP_OK.length() + 1).split(Protocol.LIST_SEPARATOR))
+                    : List.of();
+            for (String pin : pins.substring(Protocol.RESP_OK.length() + 1).split(Protocol.LIST_SEPARATOR)) {
+                if (near == null || noteList.stream().anyMatch(note -> distance(note, pinX(pin), pinY(pin)) == 0)) {
+                    kept.add(pin);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder(Protocol.RESP_OK).append(" ").append(kept.size());
+        String body = list(kept);
+        if (body.length() > Protocol.RESP_OK.length()) {
+            sb.append(body, Protocol.RESP_OK.length(), body.length());
+        }
+        if (notes.length() > Protocol.RESP_OK.length()) {
+            sb.append(kept.isEmpty() ? " " : Protocol.LIST_SEPARATOR).append(notes, Protocol.RESP_OK.length() + 1,
+                    notes.length());
+        }
+        return sb.toString();
+    }
+
+    // OK followed by the items, or OK alone
+    private static String list(List<String> items) {
+        return items.isEmpty() ? Protocol.RESP_OK
+                : Protocol.RESP_OK + " " + String.join(Protocol.LIST_SEPARATOR, items);
+    }
+
+    // a PIN near a partition edge is stored by each partition that had a note under it, so a pin
+    // outside a partition's own range is only reported if the owning partition has no copy
+    private String mergePins(String[] responses) {
+        List<List<String>> pins = new ArrayList<>();
+        Set<String> owned = new HashSet<>();
+        for (int partition = 0; partition < responses.length; partition++) {
+            String response = responses[partition];
+            if (!response.startsWith(Protocol.RESP_OK)) {
+                return response;
+            }
+            List<String> list = new ArrayList<>();
+            if (response.length() > Protocol.RESP_OK.length()) {
+                for (String pin : response.substring(Protocol.RESP_OK.length() + 1).split(Protocol.LIST_SEPARATOR)) {
+                    list.add(pin);
+                    if (partitions.owner(pinX(pin)) == partition) {
+                        owned.add(pin);
+                    }
+                }
+            }
+            pins.add(list);
+        }
+        StringBuilder sb = new StringBuilder(Protocol.RESP_OK);
+        boolean first = true;
+        for (int partition = 0; partition < pins.size(); partition++) {
+            for (String pin : pins.get(partition)) {
+                if (partitions.owner(pinX(pin)) != partition && owned.contains(pin)) {
+                    continue;
+                }
+                sb.append(first ? " " : Protocol.LIST_SEPARATOR).append(pin);
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int pinX(String pin) {
+        return Integer.parseInt(pin.substring(0, pin.indexOf(' ')));
+    }
+
+    private static int pinY(String pin) {
+        return Integer.parseInt(pin.substring(pin.indexOf(' ') + 1));
+    }
+
+    private void reply(String line) throws IOException {
+        out.write((line + Protocol.LINE_END).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
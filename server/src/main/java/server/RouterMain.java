@@ -0,0 +1,51 @@
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import server.utils.Logger;
+
+// router for a board split across several ServerMain backends by x range (see Partitions)
+// clients connect to the router exactly as they would to a single server
+public class RouterMain {
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        ServerMain.parseArguments(args, options, positional);
+        if (positional.size() != 1 || !options.containsKey("backends")) {
+            System.err.println("Usage: java BBoardRouter --backends=<host:port>,<host:port>,... [--max-line=<bytes>]"
+                    + " <port>");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(positional.get(0));
+        int maxLineLength = options.containsKey("max-line") ? Integer.parseInt(options.get("max-line"))
+                : ServerContext.DEFAULT_MAX_LINE_LENGTH;
+        Logger.initialize("bulletin_board_router.log");
+
+        Partitions partitions = null;
+        try {
+            partitions = Partitions.discover(Arrays.asList(options.get("backends").split(",")));
+        } catch (IOException e) {
+            System.err.println("Error reaching backends: " + e.getMessage());
+            System.exit(1);
+        }
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            Logger.info("Router started on port " + port + " with " + partitions.size() + " partitions");
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                clientSocket.setTcpNoDelay(true);
+                new Thread(new RouterHandler(clientSocket, partitions, maxLineLength)).start();
+            }
+        } catch (IOException e) {
+            System.err.println("Error starting router: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import utils.TrafficJournal;
+
+// server-wide state and settings shared by every ClientHandler
+public class ServerContext {
+    public static final int DEFAULT_MAX_LINE_LENGTH = 64 * 1024;
+
+    private final BulletinBoard bulletinBoard;
+    private final List<String> validColours;
+    private final ResponseCache responseCache;
+    // null unless the server runs with --capture
+    private final TrafficJournal.Writer journal;
+    // IMPORT and EXPORT only touch plain files directly in this directory; null turns them off
+    private final Path dataDir;
+
+    // optional settings, set once by ServerMain before any handler starts
+    // 0 = never time out an idle connection
+    private int idleTimeoutMillis;
+    private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+    // logs every command line; off, so the read loop need not decode lines nobody reads
+    private boolean logCommands;
+    private RateLimit rateLimit = RateLimit.UNLIMITED;
+    // the primary's address on a read-only replica, else null
+    private String primaryAddress;
+    // runs tagged commands; null runs them on the connection's own thread, in order
+    private Executor workers;
+
+    public ServerContext(BulletinBoard bulletinBoard, List<String> validColours, ResponseCache responseCache,
+            TrafficJournal.Writer journal, Path dataDir) {
+        this.bulletinBoard = bulletinBoard;
+        this.validColours = validColours;
+        this.responseCache = responseCache;
+        this.journal = journal;
+        this.dataDir = dataDir == null ? null : dataDir.toAbsolutePath().normalize();
+    }
+
+    public BulletinBoard getBulletinBoard() {
+        return bulletinBoard;
+    }
+
+    public List<String> getValidColours() {
+        return validColours;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public TrafficJournal.Writer getJournal() {
+        return journal;
+    }
+
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    // longest command line accepted, in bytes
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public void setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    public boolean isLogCommands() {
+        return logCommands;
+    }
+
+    public void setLogCommands(boolean logCommands) {
+        this.logCommands = logCommands;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public boolean isReadOnly() {
+        return primaryAddress != null;
+    }
+
+    public String getPrimaryAddress() {
+        return primaryAddress;
+    }
+
+    // makes every handler refuse commands that change the board
+    public void setPrimaryAddress(String primaryAddress) {
+        this.primaryAddress = primaryAddress;
+    }
+
+    public Executor getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(Executor workers) {
+        this.workers = workers;
+    }
+
+    // the file a client named, or null if IMPORT and EXPORT are off or the name is not a plain
+    // file name directly in the data directory: no separators, no "." or "..", no symlinks, and
+    // the directory itself must still resolve to where it was configured
+    public Path resolveDataFile(String name) {
+        if (dataDir == null || name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0
+                || name.equals(".") || name.equals("..")) {
+            return null;
+        }
+        Path path = dataDir.resolve(name);
+        try {
+            if (!path.getParent().toRealPath().equals(dataDir.toRealPath())
+                    || Files.isSymbolicLink(path) || Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return path;
+    }
+}
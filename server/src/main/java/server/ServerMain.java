@@ -1,41 +1,182 @@
 package server;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import server.utils.Logger;
+import utils.TrafficJournal;
 
 // main server class for the Bulletin Board System
 public class ServerMain {
+    // default budget for cached GET responses
+    private static final long DEFAULT_CACHE_BYTES = 16L << 20;
+    // connections silent for this long are closed; clients PING well within it
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+    // tagged commands mostly wait on the board lock, so even a small machine gets a few workers
+    private static final int MIN_DEFAULT_WORKERS = 4;
+    // how long a rate-limited client may be held before it is refused instead
+    private static final long DEFAULT_RATE_DELAY_MILLIS = 250;
+
     private static BulletinBoard bulletinBoard;
     private static java.util.List<String> validColours;
 
     // main entry point for the server application
     public static void main(String[] args) {
-        if (args == null || args.length < 6) {
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        parseArguments(args, options, positional);
+        // a replica takes the board settings from its primary
+        ReplicaClient replica = options.containsKey("replica-of") ? ReplicaClient.parse(options.get("replica-of"))
+                : null;
+        if (positional.size() < (replica != null ? 1 : 6)) {
             System.err.println(
-                    "Usage: java BBoard <port> <board_width> <board_height> <note_width> <note_height> <colour1> ... <colourN>");
+                    "Usage: java BBoard [--metrics-port=<port>] [--capture=<journal>] [--cache-bytes=<n>]"
+                            + " [--data-dir=<dir>] [--import=<file>] [--idle-timeout=<seconds>] [--max-line=<bytes>]"
+                            + " [--rate-limit=<tokens/s>] [--rate-burst=<tokens>] [--rate-delay=<ms>]"
+                            + " [--rate-costs=<CMD:n,...>] [--replication-port=<port>] [--dedup-messages]"
+                            + " [--max-notes=<n>] [--max-note-bytes=<n>] [--eviction=lfu|lru] [--workers=<n>]"
+                            + " [--log-commands]"
+                            + " <port> <board_width> <board_height> <note_width> <note_height> <colour1> ... <colourN>\n"
+                            + "       java BBoard --replica-of=<host:port> [options] <port>");
             System.exit(1);
         }
-        int port = Integer.parseInt(args[0]);
-        int boardWidth = Integer.parseInt(args[1]);
-        int boardHeight = Integer.parseInt(args[2]);
-        int noteWidth = Integer.parseInt(args[3]);
-        int noteHeight = Integer.parseInt(args[4]);
-        validColours = new ArrayList<>(Arrays.asList(args).subList(5, args.length));
-
-        bulletinBoard = new BulletinBoard(boardWidth, boardHeight, noteWidth, noteHeight);
+        int port = Integer.parseInt(positional.get(0));
         Logger.initialize("bulletin_board_server.log");
+        if (replica != null) {
+            try {
+                bulletinBoard = replica.connect();
+            } catch (IOException e) {
+                System.err.println("Error connecting to primary " + replica.getAddress() + ": " + e.getMessage());
+                System.exit(1);
+            }
+            validColours = replica.getValidColours();
+            replica.start();
+        } else {
+            int boardWidth = Integer.parseInt(positional.get(1));
+            int boardHeight = Integer.parseInt(positional.get(2));
+            int noteWidth = Integer.parseInt(positional.get(3));
+            int noteHeight = Integer.parseInt(positional.get(4));
+            validColours = new ArrayList<>(positional.subList(5, positional.size()));
+            bulletinBoard = new BulletinBoard(boardWidth, boardHeight, noteWidth, noteHeight);
+        }
+
+        // boards whose messages repeat a lot store each distinct message once
+        if (options.containsKey("dedup-messages")) {
+            bulletinBoard.setMessageDedup(true);
+        }
+
+        // a full board evicts cold unpinned notes; replicas follow the primary's evictions instead
+        if ((options.containsKey("max-notes") || options.containsKey("max-note-bytes")) && replica == null) {
+            try {
+                bulletinBoard.setNoteBudget(new NoteBudget(Integer.parseInt(options.getOrDefault("max-notes", "0")),
+                        Long.parseLong(options.getOrDefault("max-note-bytes", "0")),
+                        options.getOrDefault("eviction", NoteBudget.LFU)));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid note budget: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        // notes posted with ttl= are removed by the primary; replicas get the removals from it
+        if (replica == null) {
+            new NoteExpirer(bulletinBoard).start();
+        }
+
+        // 0 turns the GET response cache off
+        long cacheBytes = options.containsKey("cache-bytes") ? Long.parseLong(options.get("cache-bytes"))
+                : DEFAULT_CACHE_BYTES;
+        ResponseCache responseCache = new ResponseCache(cacheBytes);
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        ReplicationServer replicationServer = null;
+        if (options.containsKey("replication-port")) {
+            try {
+                replicationServer = new ReplicationServer(Integer.parseInt(options.get("replication-port")),
+                        bulletinBoard, validColours);
+                replicationServer.start();
+            } catch (IOException e) {
+                System.err.println("Error starting replication: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (options.containsKey("metrics-port")) {
+            try {
+                MetricsServer metricsServer = new MetricsServer(Integer.parseInt(options.get("metrics-port")),
+                        bulletinBoard, responseCache);
+                metricsServer.setReplicationServer(replicationServer);
+                metricsServer.setReplicaClient(replica);
+                metricsServer.start();
+            } catch (IOException e) {
+                System.err.println("Error starting metrics endpoint: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        TrafficJournal.Writer journal = null;
+        if (options.containsKey("capture")) {
+            journal = openJournal(options.get("capture"));
+        }
+        // IMPORT and EXPORT reach the file system, so they stay off unless a directory is given
+        Path dataDir = options.containsKey("data-dir") ? Path.of(options.get("data-dir")) : null;
+        ServerContext context = new ServerContext(bulletinBoard, validColours, responseCache, journal, dataDir);
+        // 0 disables the idle timeout
+        context.setIdleTimeoutMillis(1000 * Integer.parseInt(
+                options.getOrDefault("idle-timeout", String.valueOf(DEFAULT_IDLE_TIMEOUT_SECONDS))));
+        if (replica != null) {
+            context.setPrimaryAddress(replica.getAddress());
+        }
+        if (options.containsKey("max-line")) {
+            context.setMaxLineLength(Integer.parseInt(options.get("max-line")));
+        }
+        context.setLogCommands(options.containsKey("log-commands"));
+
+        // per-connection token buckets; off unless --rate-limit is given
+        if (options.containsKey("rate-limit")) {
+            double rate = Double.parseDouble(options.get("rate-limit"));
+            double burst = Double.parseDouble(options.getOrDefault("rate-burst", String.valueOf(rate)));
+            long delay = Long.parseLong(
+                    options.getOrDefault("rate-delay", String.valueOf(DEFAULT_RATE_DELAY_MILLIS)));
+            Map<String, Integer> costs = options.containsKey("rate-costs")
+                    ? RateLimit.parseCosts(options.get("rate-costs"))
+                    : Map.of();
+            context.setRateLimit(new RateLimit(rate, burst, delay, costs));
+        }
+
+        // threads for tagged commands, shared by every connection; 0 runs them in order instead
+        int workers = Integer.parseInt(options.getOrDefault("workers",
+                String.valueOf(Math.max(MIN_DEFAULT_WORKERS, Runtime.getRuntime().availableProcessors()))));
+        if (workers > 0) {
+            context.setWorkers(newWorkerPool(workers));
+        }
+
+        // seed the board before accepting clients
+        if (options.containsKey("import") && replica == null) {
+            importBoard(Path.of(options.get("import")));
+        }
+
+        // a blocking channel, so handlers can answer GETs with gathering writes
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
             Logger.info("Server started on port " + port);
+            int nextConnectionId = 1;
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                ClientHandler clientHandler = new ClientHandler(clientSocket, bulletinBoard, validColours);
+                SocketChannel clientChannel = serverChannel.accept();
+                Socket clientSocket = clientChannel.socket();
+                // every response is one complete write, so there is nothing for Nagle to coalesce
+                clientSocket.setTcpNoDelay(true);
+                ClientHandler clientHandler = new ClientHandler(clientSocket, context, nextConnectionId++);
                 new Thread(clientHandler).start();
             }
         } catch (IOException e) {
@@ -44,6 +185,70 @@ public class ServerMain {
         }
     }
 
+    // daemon threads, so they never keep a stopping server alive
+    private static ExecutorService newWorkerPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // loads a CSV board file given with --import
+    private static void importBoard(Path file) {
+        long start = System.nanoTime();
+        try {
+            BoardFiles.Result result = BoardFiles.importCsv(file, bulletinBoard, validColours);
+            String summary = String.format("Imported %d notes, %d pins from %s in %.1fs (%d rejected)",
+                    result.notes, result.pins, file, (System.nanoTime() - start) / 1e9, result.rejected);
+            Logger.info(summary);
+            System.out.println(summary);
+        } catch (IOException e) {
+            System.err.println("Error importing board: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // opens the capture journal and makes sure it is flushed on shutdown
+    private static TrafficJournal.Writer openJournal(String path) {
+        try {
+            TrafficJournal.Writer journal = new TrafficJournal.Writer(new FileOutputStream(path));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing capture journal: " + e.getMessage());
+                }
+            }));
+            Logger.info("Capturing traffic to " + path);
+            return journal;
+        } catch (IOException e) {
+            System.err.println("Error opening capture journal: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    // splits --name=value options from the positional arguments
+    static void parseArguments(String[] args, Map<String, String> options, List<String> positional) {
+        if (args == null) {
+            return;
+        }
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    options.put(arg.substring(2), "true");
+                } else {
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+    }
+
     // gets the shared BulletinBoard instance
     public static BulletinBoard getBulletinBoard() {
         return bulletinBoard;
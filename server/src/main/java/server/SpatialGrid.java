@@ -0,0 +1,226 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+// notes bucketed by origin into a sparse grid of cells CELL_NOTES notes wide and high
+// every note on a board has the same size, so a note meets a rectangle exactly when its origin
+// lies in the rectangle grown up and left by one note less a unit; a query visits the cells
+// under that area and checks only the notes in them. only occupied cells exist (a PositionIndex
+// of cells), so memory follows the note count, not the board size. add and remove are O(1):
+// each note knows its place in its cell. nearest-note searches visit rings of cells around the
+// point, best first, so they cost what the neighbourhood holds, not what the board holds.
+// not thread-safe
+class SpatialGrid {
+    private static final int CELL_NOTES = 4;
+
+    private final int noteWidth;
+    private final int noteHeight;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final PositionIndex<Cell> cells = new PositionIndex<>();
+    private int size;
+
+    private static final class Cell {
+        Note[] notes = new Note[4];
+        int size;
+    }
+
+    SpatialGrid(int noteWidth, int noteHeight) {
+        this.noteWidth = noteWidth;
+        this.noteHeight = noteHeight;
+        this.cellWidth = Math.max(1, noteWidth) * CELL_NOTES;
+        this.cellHeight = Math.max(1, noteHeight) * CELL_NOTES;
+    }
+
+    void add(Note note) {
+        long key = key(cellX(note.getX()), cellY(note.getY()));
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+        } else if (cell.size == cell.notes.length) {
+            Note[] grown = new Note[cell.size * 2];
+            System.arraycopy(cell.notes, 0, grown, 0, cell.size);
+            cell.notes = grown;
+        }
+        note.cellSlot = cell.size;
+        cell.notes[cell.size++] = note;
+        size++;
+    }
+
+    // the last note of the cell takes the removed one's place
+    void remove(Note note) {
+        long key = key(cellX(note.getX()), cellY(note.getY()));
+        Cell cell = cells.get(key);
+        int slot = note.cellSlot;
+        if (cell == null || slot >= cell.size || cell.notes[slot] != note) {
+            return;
+        }
+        Note last = cell.notes[--cell.size];
+        cell.notes[slot] = last;
+        last.cellSlot = slot;
+        cell.notes[cell.size] = null;
+        size--;
+        if (cell.size == 0) {
+            cells.remove(key);
+        }
+    }
+
+    void clear() {
+        cells.clear();
+        size = 0;
+    }
+
+    // cells a query for origins in [minX, maxX] x [minY, maxY] would visit
+    long cellsCovering(long minX, long minY, long maxX, long maxY) {
+        return (cellX(maxX) - cellX(minX) + 1) * (cellY(maxY) - cellY(minY) + 1);
+    }
+
+    // adds the notes whose origin lies in [minX, maxX] x [minY, maxY], in no particular order
+    void collect(long minX, long minY, long maxX, long maxY, List<Note> out) {
+        for (long cx = cellX(minX); cx <= cellX(maxX); cx++) {
+            for (long cy = cellY(minY); cy <= cellY(maxY); cy++) {
+                Cell cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size; i++) {
+                    Note note = cell.notes[i];
+                    if (note.getX() >= minX && note.getX() <= maxX && note.getY() >= minY && note.getY() <= maxY) {
+                        out.add(note);
+                    }
+                }
+            }
+        }
+    }
+
+    // how many notes have their origin in [minX, maxX] x [minY, maxY]; 0 for an empty range
+    int count(long minX, long minY, long maxX, long maxY) {
+        if (minX > maxX || minY > maxY) {
+            return 0;
+        }
+        int count = 0;
+        for (long cx = cellX(minX); cx <= cellX(maxX); cx++) {
+            for (long cy = cellY(minY); cy <= cellY(maxY); cy++) {
+                Cell cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size; i++) {
+                    Note note = cell.notes[i];
+                    if (note.getX() >= minX && note.getX() <= maxX && note.getY() >= minY && note.getY() <= maxY) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // the k notes passing filter that are nearest to (px, py), as Nearest.result orders them; null
+    // if the search would visit more than maxCells cells, when a scan is cheaper
+    List<Note> nearest(int px, int py, int k, Predicate<Note> filter, long maxCells) {
+        Nearest nearest = new Nearest(px, py, k, noteWidth, noteHeight);
+        long pcx = cellX(px);
+        long pcy = cellY(py);
+        long visited = 0;
+        int seen = 0;
+        for (long ring = 0; seen < size; ring++) {
+            // every note in this ring or beyond is at least this far away
+            long bound = ring == 0 ? 0 : Math.max(0, Math.min((ring - 1) * cellWidth - noteWidth + 2,
+                    (ring - 1) * cellHeight - noteHeight + 2));
+            if (nearest.isFull() && bound * bound > nearest.worstDistance()) {
+                break;
+            }
+            visited += ring == 0 ? 1 : 8 * ring;
+            if (visited > maxCells) {
+                return null;
+            }
+            for (long cx = pcx - ring; cx <= pcx + ring; cx++) {
+                // the top and bottom rows of the ring, then the columns between them
+                boolean edge = cx == pcx - ring || cx == pcx + ring;
+                for (long cy = pcy - ring; cy <= pcy + ring; cy += edge || ring == 0 ? 1 : 2 * ring) {
+                    Cell cell = cells.get(key(cx, cy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    seen += cell.size;
+                    for (int i = 0; i < cell.size; i++) {
+                        if (filter.test(cell.notes[i])) {
+                            nearest.offer(cell.notes[i]);
+                        }
+                    }
+                }
+            }
+        }
+        return nearest.result();
+    }
+
+    // the k best notes offered so far, nearest first; distance is from the point to the nearest
+    // unit of the note, squared, and equal distances go by list slot so results are repeatable
+    static final class Nearest {
+        private final long px;
+        private final long py;
+        private final int k;
+        private final int noteWidth;
+        private final int noteHeight;
+        private final Comparator<Note> order;
+        // the worst kept note at the head
+        private final PriorityQueue<Note> best;
+
+        Nearest(int px, int py, int k, int noteWidth, int noteHeight) {
+            this.px = px;
+            this.py = py;
+            this.k = k;
+            this.noteWidth = noteWidth;
+            this.noteHeight = noteHeight;
+            this.order = Comparator.comparingLong(this::distance).thenComparingInt(note -> note.slot);
+            this.best = new PriorityQueue<>(k + 1, order.reversed());
+        }
+
+        void offer(Note note) {
+            if (best.size() < k) {
+                best.add(note);
+            } else if (order.compare(note, best.peek()) < 0) {
+                best.poll();
+                best.add(note);
+            }
+        }
+
+        boolean isFull() {
+            return best.size() == k;
+        }
+
+        long worstDistance() {
+            return distance(best.peek());
+        }
+
+        List<Note> result() {
+            List<Note> result = new ArrayList<>(best);
+            result.sort(order);
+            return result;
+        }
+
+        private long distance(Note note) {
+            long dx = Math.max(0, Math.max(note.getX() - px, px - (note.getX() + noteWidth - 1L)));
+            long dy = Math.max(0, Math.max(note.getY() - py, py - (note.getY() + noteHeight - 1L)));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private long cellX(long x) {
+        return Math.floorDiv(x, cellWidth);
+    }
+
+    private long cellY(long y) {
+        return Math.floorDiv(y, cellHeight);
+    }
+
+    private static long key(long cx, long cy) {
+        return (cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -0,0 +1,170 @@
+package server;
+
+// note expiry times in a hierarchical timing wheel: four levels of 64 slots over 100 ms ticks
+// level 0 covers 6.4 s one tick per slot, level 1 about 7 minutes, level 2 about 7.5 hours and
+// level 3 about 20 days; later deadlines wait in level 3 and are placed again when their slot
+// comes round. scheduling and cancelling are O(1) (each slot is a circular list with a sentinel,
+// and a note holds its entry); advancing costs O(1) per tick plus moving entries down a level,
+// which happens at most once per level per entry. due entries queue up until taken, so the
+// expirer can remove them a few at a time. not thread-safe; the board uses it under its lock
+class TimingWheel {
+    static final long TICK_MILLIS = 100;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    // one scheduled note; also the list node
+    static final class Entry {
+        final Note note;
+        final long tick;
+        private Entry prev;
+        private Entry next;
+
+        Entry(Note note, long deadlineMillis) {
+            this.note = note;
+            // rounded up, so a note never expires early
+            this.tick = (deadlineMillis + TICK_MILLIS - 1) / TICK_MILLIS;
+        }
+
+        // a sentinel
+        private Entry() {
+            this.note = null;
+            this.tick = 0;
+            this.prev = this;
+            this.next = this;
+        }
+
+        boolean isScheduled() {
+            return next != null;
+        }
+    }
+
+    private final Entry[] slots = new Entry[LEVELS * SLOTS];
+    private final Entry due = new Entry();
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long nowMillis) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Entry();
+        }
+        currentTick = nowMillis / TICK_MILLIS;
+    }
+
+    void schedule(Entry entry, long nowMillis) {
+        // an empty wheel is not advanced by the expirer, so it may be far behind
+        if (size == 0) {
+            advance(nowMillis);
+        }
+        size++;
+        place(entry);
+    }
+
+    // takes the entry out of the wheel or the due queue; does nothing if it is in neither
+    void cancel(Entry entry) {
+        if (entry.isScheduled()) {
+            unlink(entry);
+            size--;
+        }
+    }
+
+    // moves every entry due by nowMillis to the due queue
+    void advance(long nowMillis) {
+        long target = nowMillis / TICK_MILLIS;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            // entering a new round of a level pulls the matching slot of the level above down
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+            }
+            Entry head = slots[(int) (currentTick & (SLOTS - 1))];
+            while (head.next != head) {
+                Entry entry = head.next;
+                unlink(entry);
+                if (entry.tick <= currentTick) {
+                    append(due, entry);
+                } else {
+                    // a deadline beyond the top level's reach, parked and now placed again
+                    place(entry);
+                }
+            }
+        }
+    }
+
+    // the oldest due entry, removed, or null if nothing is due
+    Entry pollDue() {
+        if (due.next == due) {
+            return null;
+        }
+        Entry entry = due.next;
+        unlink(entry);
+        size--;
+        return entry;
+    }
+
+    // scheduled or due entries
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (Entry head : slots) {
+            detachAll(head);
+        }
+        detachAll(due);
+        size = 0;
+    }
+
+    private void place(Entry entry) {
+        long delta = entry.tick - currentTick;
+        if (delta <= 0) {
+            append(due, entry);
+            return;
+        }
+        long tick = delta < MAX_SPAN ? entry.tick : currentTick + MAX_SPAN - 1;
+        delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        append(slots[level * SLOTS + slot], entry);
+    }
+
+    private void cascade(int level, int slot) {
+        Entry head = slots[level * SLOTS + slot];
+        while (head.next != head) {
+            Entry entry = head.next;
+            unlink(entry);
+            place(entry);
+        }
+    }
+
+    private static void append(Entry head, Entry entry) {
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static void detachAll(Entry head) {
+        while (head.next != head) {
+            unlink(head.next);
+        }
+    }
+}
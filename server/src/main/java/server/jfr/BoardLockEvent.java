@@ -0,0 +1,27 @@
+package server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+// one hold of the BulletinBoard lock; duration is the hold time
+// every command takes the lock, so only holds of 1 ms or more are recorded unless a recording
+// lowers the threshold
+@Name("bboard.BoardLock")
+@Label("Board Lock")
+@Category("Bulletin Board")
+@Description("Time spent waiting for and holding the bulletin board lock")
+@StackTrace(false)
+@Threshold("1 ms")
+public class BoardLockEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long waitTime;
+}
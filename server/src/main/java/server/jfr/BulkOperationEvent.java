@@ -0,0 +1,30 @@
+package server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// a whole-board operation (SHAKE, CLEAR, unfiltered GET)
+@Name("bboard.BulkOperation")
+@Label("Bulk Operation")
+@Category("Bulletin Board")
+@Description("A command that touches every note on the board")
+@StackTrace(false)
+public class BulkOperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Notes Before")
+    public int notesBefore;
+
+    @Label("Notes Affected")
+    @Description("Notes removed (SHAKE, CLEAR) or returned (GET)")
+    public int notesAffected;
+
+    @Label("Payload Size")
+    @DataAmount(DataAmount.BYTES)
+    public long payloadBytes;
+}
@@ -0,0 +1,30 @@
+package server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// one protocol command handled by a ClientHandler; duration is the handling time
+@Name("bboard.Command")
+@Label("Command")
+@Category("Bulletin Board")
+@Description("A protocol command handled by a client connection")
+@StackTrace(false)
+public class CommandEvent extends jdk.jfr.Event {
+    @Label("Command")
+    public String command;
+
+    @Label("Request Size")
+    @DataAmount(DataAmount.BYTES)
+    public long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount(DataAmount.BYTES)
+    public long responseBytes;
+
+    @Label("Error")
+    public boolean error;
+}
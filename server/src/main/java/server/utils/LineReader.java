@@ -0,0 +1,137 @@
+package server.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// reads '\n'-terminated lines into one reused byte buffer, without decoding them
+// the current line is buffer()[lineStart(), lineEnd()) and is valid until the next readLine
+// lines longer than maxLineLength are skipped without buffering them and reported as overflow
+public class LineReader implements Closeable {
+    private final InputStream in;
+    private final int maxLineLength;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    // dropping the rest of a line that was too long
+    private boolean discarding;
+    private boolean overflow;
+
+    public LineReader(InputStream in) {
+        this(in, Integer.MAX_VALUE - 16);
+    }
+
+    public LineReader(InputStream in, int maxLineLength) {
+        this.in = in;
+        this.maxLineLength = maxLineLength;
+        // room for the longest line plus "\r\n", so a full buffer always means overflow
+        this.buffer = new byte[Math.min(8192, maxLineLength + 2)];
+    }
+
+    // advances to the next line; false at end of stream
+    public boolean readLine() throws IOException {
+        overflow = false;
+        int scan = position;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    if (discarding) {
+                        // the tail of an overlong line: report it as an empty overflow line
+                        discarding = false;
+                        overflow = true;
+                        setLine(i, i);
+                    } else {
+                        setCheckedLine(position, i);
+                    }
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (discarding || limit - position > maxLineLength + 1) {
+                // too long even with a '\r'; drop what we have and skip to the next '\n'
+                discarding = true;
+                position = 0;
+                limit = 0;
+            } else if (position > 0) {
+                // slide the partial line to the front to make room
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            scan = limit;
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(buffer.length * 2L, maxLineLength + 2L));
+            }
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                if (position < limit && !discarding) {
+                    // last line without a terminator
+                    setCheckedLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            limit += n;
+        }
+    }
+
+    // true if the current line exceeded the maximum length; its content is not available
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    // the limit applies to the content, so the buffer allows one byte more for a '\r'; a line
+    // that turns out to be a byte too long once the '\r' is gone is reported as overflow
+    private void setCheckedLine(int start, int end) {
+        setLine(start, end);
+        if (lineEnd - lineStart > maxLineLength) {
+            overflow = true;
+            setLine(end, end);
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int lineStart() {
+        return lineStart;
+    }
+
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    // true if the line is empty or only whitespace
+    public boolean isBlankLine() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buffer[i] < 0 || buffer[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the current line decoded as UTF-8
+    public String lineAsString() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,135 @@
+package server.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// process-wide counters for the metrics endpoint; all updates are lock-free
+public class Metrics {
+    // upper bounds (seconds) of the command latency histogram buckets
+    public static final double[] LATENCY_BUCKETS = {
+            0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 1.0 };
+
+    private static final long[] BUCKET_NANOS = new long[LATENCY_BUCKETS.length];
+
+    static {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (LATENCY_BUCKETS[i] * 1_000_000_000L);
+        }
+    }
+
+    private static final AtomicInteger connectionsActive = new AtomicInteger();
+    private static final LongAdder connectionsTotal = new LongAdder();
+    private static final LongAdder connectionsReaped = new LongAdder();
+    private static final LongAdder rateLimitDelayed = new LongAdder();
+    private static final LongAdder rateLimitRefused = new LongAdder();
+    private static final ConcurrentHashMap<String, CommandStats> commands = new ConcurrentHashMap<>();
+
+    public static void connectionOpened() {
+        connectionsActive.incrementAndGet();
+        connectionsTotal.increment();
+    }
+
+    public static void connectionClosed() {
+        connectionsActive.decrementAndGet();
+    }
+
+    // a connection closed for being idle too long
+    public static void connectionReaped() {
+        connectionsReaped.increment();
+    }
+
+    // a command held back until its connection's token bucket refilled
+    public static void rateLimitDelayed() {
+        rateLimitDelayed.increment();
+    }
+
+    // a command answered with RATE_LIMITED
+    public static void rateLimitRefused() {
+        rateLimitRefused.increment();
+    }
+
+    // records one handled command and how long it took
+    public static void recordCommand(String command, long nanos, boolean error) {
+        CommandStats stats = commands.get(command);
+        if (stats == null) {
+            stats = commands.computeIfAbsent(command, c -> new CommandStats());
+        }
+        stats.record(nanos, error);
+    }
+
+    public static int getConnectionsActive() {
+        return connectionsActive.get();
+    }
+
+    public static long getConnectionsTotal() {
+        return connectionsTotal.sum();
+    }
+
+    public static long getConnectionsReaped() {
+        return connectionsReaped.sum();
+    }
+
+    public static long getRateLimitDelayed() {
+        return rateLimitDelayed.sum();
+    }
+
+    public static long getRateLimitRefused() {
+        return rateLimitRefused.sum();
+    }
+
+    // stats per command name, sorted by name
+    public static Map<String, CommandStats> getCommandStats() {
+        return new TreeMap<>(commands);
+    }
+
+    // count, errors and latency histogram for one command
+    public static class CommandStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        // last slot counts samples above the largest bucket
+        private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];
+
+        CommandStats() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos, boolean error) {
+            count.increment();
+            totalNanos.add(nanos);
+            if (error) {
+                errors.increment();
+            }
+            int i = 0;
+            while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        // non-cumulative count for bucket i (LATENCY_BUCKETS.length = overflow)
+        public long getBucket(int i) {
+            return buckets[i].sum();
+        }
+    }
+
+    private Metrics() {
+    }
+}
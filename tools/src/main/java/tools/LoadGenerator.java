@@ -0,0 +1,272 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import shared.Protocol;
+
+// headless load generator: opens N protocol sessions and drives a weighted command
+// mix at a fixed open-loop rate. Latency is measured from each command's scheduled
+// send time, not the actual one, so a stalled server cannot hide its queueing delay
+// (coordinated omission).
+//
+// usage: java tools.LoadGenerator [--host=localhost] [--port=6767] [--connections=10]
+//        [--rate=1000] [--duration=30] [--warmup=5] [--mix=POST:30,GET:40,...] [--seed=1]
+public class LoadGenerator {
+    private final Map<String, Stats> stats = new TreeMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final LongAdder disconnected = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "6767"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "10"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        double duration = Double.parseDouble(options.getOrDefault("duration", "30"));
+        double warmup = Double.parseDouble(options.getOrDefault("warmup", "5"));
+        String mix = options.getOrDefault("mix", WorkloadMix.DEFAULT_MIX);
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+        new LoadGenerator().run(host, port, connections, rate, duration, warmup, mix, seed);
+    }
+
+    public void run(String host, int port, int connections, double rate, double duration, double warmup,
+            String mixSpec, long seed) throws IOException, InterruptedException {
+        System.out.println("Opening " + connections + " connection(s) to " + host + ":" + port + "...");
+        Session[] sessions = new Session[connections];
+        String handshake = null;
+        for (int i = 0; i < connections; i++) {
+            sessions[i] = new Session(host, port);
+            if (handshake == null) {
+                handshake = sessions[i].handshake;
+            }
+        }
+        WorkloadMix mix = createMix(mixSpec, handshake);
+        for (String kind : mix.getKinds()) {
+            stats.put(kind, new Stats());
+        }
+        for (Session s : sessions) {
+            s.startReader();
+        }
+
+        System.out.printf("Driving %.0f ops/s for %.0fs (+%.0fs warmup), mix %s%n", rate, duration, warmup, mixSpec);
+        Random random = new Random(seed);
+        long start = System.nanoTime();
+        long warmupEnd = start + (long) (warmup * 1e9);
+        long end = warmupEnd + (long) (duration * 1e9);
+        long nextReport = start + 5_000_000_000L;
+        long sent = 0;
+        for (long i = 0;; i++) {
+            long intended = start + (long) (i * 1e9 / rate);
+            if (intended >= end) {
+                break;
+            }
+            waitUntil(intended);
+            Session session = sessions[(int) (i % connections)];
+            if (session.closed) {
+                continue;
+            }
+            String kind = mix.nextKind(random);
+            session.send(kind, mix.buildCommand(kind, random), intended, intended >= warmupEnd);
+            sent++;
+            if (intended >= nextReport) {
+                System.out.printf("  %4.0fs  sent %d  completed %d%n", (intended - start) / 1e9, sent,
+                        completed.get());
+                nextReport += 5_000_000_000L;
+            }
+        }
+
+        // let outstanding responses drain
+        long drainDeadline = System.nanoTime() + 10_000_000_000L;
+        while (completed.get() < sent && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        for (Session s : sessions) {
+            s.close();
+        }
+        report(duration, sent);
+    }
+
+    // the handshake tells us the board geometry and colours, so POSTs are in bounds
+    private static WorkloadMix createMix(String mixSpec, String handshake) {
+        int boardWidth = 400;
+        int boardHeight = 300;
+        int noteWidth = 80;
+        int noteHeight = 60;
+        List<String> colours = new ArrayList<>();
+        String prefix = Protocol.RESP_OK + " " + Protocol.RESP_BOARD;
+        if (handshake != null && handshake.startsWith(prefix)) {
+            String[] parts = handshake.substring(prefix.length()).trim().split("\\s+");
+            if (parts.length >= 6 && Protocol.RESP_NOTE.equals(parts[2])) {
+                boardWidth = Integer.parseInt(parts[0]);
+                boardHeight = Integer.parseInt(parts[1]);
+                noteWidth = Integer.parseInt(parts[3]);
+                noteHeight = Integer.parseInt(parts[4]);
+                colours.addAll(Arrays.asList(parts).subList(6, parts.length));
+            }
+        }
+        return new WorkloadMix(mixSpec, boardWidth, boardHeight, noteWidth, noteHeight, colours);
+    }
+
+    private void report(double duration, long sent) {
+        System.out.println();
+        System.out.printf("%-9s %9s %7s %10s %9s %9s %9s %9s %9s%n", "command", "count", "errors", "ops/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram all = new Histogram();
+        long totalErrors = 0;
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            Histogram h = e.getValue().latency;
+            long errors = e.getValue().errors.sum();
+            printRow(e.getKey(), h, errors, duration);
+            all.add(h);
+            totalErrors += errors;
+        }
+        printRow("ALL", all, totalErrors, duration);
+        long unanswered = sent - completed.get();
+        if (unanswered > 0 || disconnected.sum() > 0) {
+            System.out.println("unanswered: " + unanswered + ", connections lost: " + disconnected.sum());
+        }
+    }
+
+    private static void printRow(String name, Histogram h, long errors, double duration) {
+        System.out.printf("%-9s %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, h.getCount(), errors,
+                h.getCount() / duration, h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    private static class Stats {
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private static class Pending {
+        final String kind;
+        final long intendedNanos;
+        final boolean measured;
+
+        Pending(String kind, long intendedNanos, boolean measured) {
+            this.kind = kind;
+            this.intendedNanos = intendedNanos;
+            this.measured = measured;
+        }
+    }
+
+    // one protocol connection; responses arrive in command order, so a FIFO matches them
+    private class Session {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+        final String handshake;
+        final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+        volatile boolean closed;
+
+        Session(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+            handshake = in.readLine();
+        }
+
+        void startReader() {
+            Thread t = new Thread(this::readLoop, "loadgen-reader");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void send(String kind, String command, long intended, boolean measured) {
+            pending.add(new Pending(kind, intended, measured));
+            try {
+                out.write(command.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                lost();
+            }
+        }
+
+        private void readLoop() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    Pending p = pending.poll();
+                    if (p == null) {
+                        continue;
+                    }
+                    if (p.measured) {
+                        Stats s = stats.get(p.kind);
+                        s.latency.record(now - p.intendedNanos);
+                        if (line.startsWith(Protocol.RESP_ERROR)) {
+                            s.errors.increment();
+                        }
+                    }
+                    completed.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // fall through
+            }
+            if (!closed) {
+                lost();
+            }
+        }
+
+        private void lost() {
+            if (!closed) {
+                closed = true;
+                disconnected.increment();
+            }
+        }
+
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import shared.Protocol;
+import utils.TrafficJournal;
+
+// re-drives a capture journal (server --capture=<file>) against a server, keeping
+// the interleaving of sessions, then diffs every response against the recorded one
+// and reports latencies per command
+//
+// the journal only holds server handling time, which is not comparable with a round trip,
+// so latency changes are measured replay against replay: --save-latency=<file> writes this
+// run's round-trip percentiles, and a later run with --baseline=<file> reports the change
+//
+// --speed=1 replays in real time, --speed=N N times faster, --speed=max as fast as
+// possible; max sends each command only after every earlier one has been answered,
+// so the server sees exactly the recorded order
+//
+// usage: java tools.TrafficReplay --journal=<file> [--host=localhost] [--port=6767]
+//        [--speed=1] [--show-diffs=10] [--save-latency=<file>] [--baseline=<file>]
+public class TrafficReplay {
+    private final String host;
+    private final int port;
+    private final double speed;
+    private final int showDiffs;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong answered = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+    private final List<String> diffs = new ArrayList<>();
+    private final Map<String, Histogram> recordedLatency = new TreeMap<>();
+    private final Map<String, Histogram> replayLatency = new TreeMap<>();
+    // command -> { p50, p99 } round trip in nanoseconds from an earlier replay, or null
+    private Map<String, long[]> baseline;
+
+    public TrafficReplay(String host, int port, double speed, int showDiffs) {
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+        this.showDiffs = showDiffs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+        String journal = options.get("journal");
+        if (journal == null) {
+            System.err.println("Usage: java tools.TrafficReplay --journal=<file> [--host=localhost] [--port=6767]"
+                    + " [--speed=1|N|max] [--show-diffs=10] [--save-latency=<file>] [--baseline=<file>]");
+            System.exit(1);
+        }
+        String speedOption = options.getOrDefault("speed", "1");
+        double speed = "max".equalsIgnoreCase(speedOption) ? 0 : Double.parseDouble(speedOption);
+        TrafficReplay replay = new TrafficReplay(options.getOrDefault("host", "localhost"),
+                Integer.parseInt(options.getOrDefault("port", "6767")), speed,
+                Integer.parseInt(options.getOrDefault("show-diffs", "10")));
+        if (options.containsKey("baseline")) {
+            replay.baseline = readLatencies(Path.of(options.get("baseline")));
+        }
+        replay.run(journal);
+        if (options.containsKey("save-latency")) {
+            replay.saveLatencies(Path.of(options.get("save-latency")));
+        }
+    }
+
+    public void run(String journalPath) throws IOException, InterruptedException {
+        Map<Integer, Session> sessions = new HashMap<>();
+        long start = System.nanoTime();
+        long commands = 0;
+        try (TrafficJournal.Reader reader = new TrafficJournal.Reader(new FileInputStream(journalPath))) {
+            TrafficJournal.Record record;
+            while ((record = reader.next()) != null) {
+                Session session = sessions.get(record.connectionId);
+                switch (record.type) {
+                    case TrafficJournal.OPEN:
+                        waitForTurn(start, record.timestampNanos);
+                        sessions.put(record.connectionId, new Session(record.connectionId));
+                        break;
+                    case TrafficJournal.COMMAND:
+                        if (session != null) {
+                            waitForTurn(start, record.timestampNanos);
+                            session.send(record.payload, record.timestampNanos);
+                            commands++;
+                        }
+                        break;
+                    case TrafficJournal.RESPONSE:
+                        if (session != null) {
+                            session.recorded(record.payload, record.timestampNanos);
+                        }
+                        break;
+                    case TrafficJournal.CLOSE:
+                        if (session != null) {
+                            session.finishWhenDrained();
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown journal record type " + record.type);
+                }
+            }
+        }
+
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (answered.get() < sent.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (Session s : sessions.values()) {
+            s.close();
+        }
+        report(sessions.size(), commands, elapsed);
+    }
+
+    // timed replay waits for the scaled journal time; max waits for all earlier commands
+    private void waitForTurn(long start, long journalNanos) throws InterruptedException {
+        if (speed <= 0) {
+            while (answered.get() < sent.get()) {
+                Thread.onSpinWait();
+            }
+            return;
+        }
+        long due = start + (long) (journalNanos / speed);
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void report(int sessionCount, long commands, double elapsed) {
+        System.out.printf("Replayed %d command(s) over %d session(s) in %.2fs (%.1f ops/s)%n", commands,
+                sessionCount, elapsed, commands / elapsed);
+        System.out.printf("  responses matched: %d, differed: %d, unanswered: %d%n", matched.get(),
+                mismatched.get(), sent.get() - answered.get());
+        synchronized (diffs) {
+            for (String diff : diffs) {
+                System.out.println("  " + diff);
+            }
+        }
+        System.out.println();
+        System.out.println("latency: srv = server handling time at capture, rtt = round trip now"
+                + (baseline != null ? ", base = round trip in the baseline replay" : ""));
+        System.out.printf("%-11s %8s %11s %11s %11s %11s", "command", "count", "srv p50 ms", "srv p99 ms",
+                "rtt p50 ms", "rtt p99 ms");
+        System.out.println(baseline != null ? String.format(" %12s %9s", "base p99 ms", "p99 chg") : "");
+        synchronized (replayLatency) {
+            for (Map.Entry<String, Histogram> e : replayLatency.entrySet()) {
+                Histogram replay = e.getValue();
+                Histogram recorded = recordedLatency.get(e.getKey());
+                double repP99 = replay.getValueAtPercentile(99) / 1e6;
+                System.out.printf("%-11s %8d %11.3f %11.3f %11.3f %11.3f", e.getKey(), replay.getCount(),
+                        recorded.getValueAtPercentile(50) / 1e6, recorded.getValueAtPercentile(99) / 1e6,
+                        replay.getValueAtPercentile(50) / 1e6, repP99);
+                long[] base = baseline != null ? baseline.get(e.getKey()) : null;
+                if (base != null) {
+                    double baseP99 = base[1] / 1e6;
+                    String change = baseP99 > 0 ? String.format("%+.0f%%", (repP99 - baseP99) / baseP99 * 100)
+                            : "n/a";
+                    System.out.printf(" %12.3f %9s", baseP99, change);
+                } else if (baseline != null) {
+                    System.out.printf(" %12s %9s", "-", "n/a");
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    // one line per command, tab-separated as commands contain spaces: <command> <count> <p50> <p99> (ns)
+    private void saveLatencies(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (replayLatency) {
+            for (Map.Entry<String, Histogram> e : replayLatency.entrySet()) {
+                Histogram h = e.getValue();
+                lines.add(e.getKey() + "\t" + h.getCount() + "\t" + h.getValueAtPercentile(50) + "\t"
+                        + h.getValueAtPercentile(99));
+            }
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, long[]> readLatencies(Path file) throws IOException {
+        Map<String, long[]> latencies = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts.length == 4) {
+                latencies.put(parts[0], new long[] { Long.parseLong(parts[2]), Long.parseLong(parts[3]) });
+            }
+        }
+        return latencies;
+    }
+
+    // called once both the recorded and the replayed response of an exchange are known
+    private void compare(Exchange x) {
+        String kind = commandWord(x.command);
+        synchronized (replayLatency) {
+            replayLatency.computeIfAbsent(kind, k -> new Histogram()).record(x.replayLatency);
+            recordedLatency.computeIfAbsent(kind, k -> new Histogram()).record(x.recordedLatency);
+        }
+        if (x.recordedResponse.equals(x.replayResponse)) {
+            matched.incrementAndGet();
+            return;
+        }
+        mismatched.incrementAndGet();
+        synchronized (diffs) {
+            if (diffs.size() < showDiffs) {
+                diffs.add("conn " + x.connectionId + " '" + truncate(x.command) + "': expected '"
+                        + truncate(x.recordedResponse) + "' got '" + truncate(x.replayResponse) + "'");
+            }
+        }
+    }
+
+    private static String commandWord(String command) {
+        String trimmed = command.trim();
+        int space = trimmed.indexOf(' ');
+        String word = space < 0 ? trimmed : trimmed.substring(0, space);
+        if (Protocol.CMD_GET.equals(word) && trimmed.length() > word.length()) {
+            return trimmed.substring(space + 1).trim().equals(Protocol.GET_PINS) ? "GET PINS" : "GET filtered";
+        }
+        return word;
+    }
+
+    private static String truncate(String s) {
+        return s.length() > 100 ? s.substring(0, 97) + "..." : s;
+    }
+
+    // one command with its recorded and replayed outcome
+    private static class Exchange {
+        final int connectionId;
+        final String command;
+        final long journalNanos;
+        long sentNanos;
+        String recordedResponse;
+        long recordedLatency;
+        String replayResponse;
+        long replayLatency;
+
+        Exchange(int connectionId, String command, long journalNanos) {
+            this.connectionId = connectionId;
+            this.command = command;
+            this.journalNanos = journalNanos;
+        }
+
+        boolean complete() {
+            return recordedResponse != null && replayResponse != null;
+        }
+    }
+
+    // one replayed connection; the server answers in order, so FIFOs pair things up
+    private class Session {
+        final int connectionId;
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+        // exchanges still waiting for their recorded response (driver thread only)
+        final ArrayDeque<Exchange> awaitingRecorded = new ArrayDeque<>();
+        // exchanges still waiting for the server's reply (reader thread polls)
+        final ConcurrentLinkedQueue<Exchange> awaitingReply = new ConcurrentLinkedQueue<>();
+        volatile boolean finishing;
+
+        Session(int connectionId) throws IOException {
+            this.connectionId = connectionId;
+            this.socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = socket.getOutputStream();
+            in.readLine(); // handshake
+            Thread t = new Thread(this::readLoop, "replay-" + connectionId);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void send(String command, long journalNanos) throws IOException {
+            Exchange x = new Exchange(connectionId, command, journalNanos);
+            awaitingRecorded.add(x);
+            awaitingReply.add(x);
+            sent.incrementAndGet();
+            x.sentNanos = System.nanoTime();
+            out.write((command + Protocol.LINE_END).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        void recorded(String response, long journalNanos) {
+            Exchange x = awaitingRecorded.poll();
+            if (x == null) {
+                return;
+            }
+            boolean done;
+            synchronized (x) {
+                x.recordedResponse = response;
+                x.recordedLatency = journalNanos - x.journalNanos;
+                done = x.complete();
+            }
+            if (done) {
+                compare(x);
+            }
+        }
+
+        private void readLoop() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    Exchange x = awaitingReply.poll();
+                    if (x == null) {
+                        continue;
+                    }
+                    boolean done;
+                    synchronized (x) {
+                        x.replayResponse = line;
+                        x.replayLatency = now - x.sentNanos;
+                        done = x.complete();
+                    }
+                    answered.incrementAndGet();
+                    if (done) {
+                        compare(x);
+                    }
+                    if (finishing && awaitingReply.isEmpty()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed
+            }
+            close();
+        }
+
+        // the recorded client went away; hang up once our replies are in
+        void finishWhenDrained() {
+            finishing = true;
+            if (awaitingReply.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import shared.Message;
+
+// weighted mix of protocol commands, built with the shared.Message builders
+// recently posted and pinned positions are remembered so PIN/UNPIN mostly hit real notes
+public class WorkloadMix {
+    public static final String DEFAULT_MIX = "POST:30,GET:40,PIN:15,UNPIN:10,SHAKE:5";
+
+    private static final String[] MESSAGES = {
+            "TODO", "see above", "meeting at 3", "buy milk", "call back re: invoice", "done" };
+    private static final int RECENT = 4096;
+
+    private final String[] kinds;
+    private final int[] cumulativeWeights;
+    private final int totalWeight;
+    private final int boardWidth;
+    private final int boardHeight;
+    private final int noteWidth;
+    private final int noteHeight;
+    private final List<String> colours;
+
+    // packed (x << 32 | y) rings of recent note origins and pin positions
+    private final AtomicLongArray recentNotes = new AtomicLongArray(RECENT);
+    private final AtomicLong notesWritten = new AtomicLong();
+    private final AtomicLongArray recentPins = new AtomicLongArray(RECENT);
+    private final AtomicLong pinsWritten = new AtomicLong();
+
+    // mix is "KIND:weight,..." with kinds POST, GET, GET_PINS, PIN, UNPIN, SHAKE, CLEAR
+    public WorkloadMix(String mix, int boardWidth, int boardHeight, int noteWidth, int noteHeight,
+            List<String> colours) {
+        Map<String, Integer> weights = parse(mix);
+        this.kinds = weights.keySet().toArray(new String[0]);
+        this.cumulativeWeights = new int[kinds.length];
+        int total = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            total += weights.get(kinds[i]);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Mix has no positive weights: " + mix);
+        }
+        this.totalWeight = total;
+        this.boardWidth = boardWidth;
+        this.boardHeight = boardHeight;
+        this.noteWidth = noteWidth;
+        this.noteHeight = noteHeight;
+        this.colours = colours.isEmpty() ? List.of("RED") : new ArrayList<>(colours);
+    }
+
+    public String[] getKinds() {
+        return kinds.clone();
+    }
+
+    // picks a command kind according to the weights
+    public String nextKind(Random random) {
+        int r = random.nextInt(totalWeight);
+        for (int i = 0; i < kinds.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return kinds[i];
+            }
+        }
+        return kinds[kinds.length - 1];
+    }
+
+    // builds the command line (with line end) for a kind
+    public String buildCommand(String kind, Random random) {
+        switch (kind) {
+            case "POST": {
+                int x = random.nextInt(Math.max(1, boardWidth - noteWidth + 1));
+                int y = random.nextInt(Math.max(1, boardHeight - noteHeight + 1));
+                remember(recentNotes, notesWritten, x, y);
+                return Message.buildPostCommand(x, y, colours.get(random.nextInt(colours.size())),
+                        MESSAGES[random.nextInt(MESSAGES.length)]);
+            }
+            case "GET":
+                return Message.buildGetCommand(null, null, null, null);
+            case "GET_PINS":
+                return Message.buildGetPinsCommand();
+            case "PIN": {
+                long note = pick(recentNotes, notesWritten, random);
+                int x = (int) (note >>> 32) + random.nextInt(Math.max(1, noteWidth));
+                int y = (int) note + random.nextInt(Math.max(1, noteHeight));
+                remember(recentPins, pinsWritten, x, y);
+                return Message.buildPinCommand(x, y);
+            }
+            case "UNPIN": {
+                long pin = pick(recentPins, pinsWritten, random);
+                return Message.buildUnpinCommand((int) (pin >>> 32), (int) pin);
+            }
+            case "SHAKE":
+                return Message.buildShakeCommand();
+            case "CLEAR":
+                return Message.buildClearCommand();
+            default:
+                throw new IllegalArgumentException("Unknown command kind: " + kind);
+        }
+    }
+
+    private static void remember(AtomicLongArray ring, AtomicLong written, int x, int y) {
+        long slot = written.getAndIncrement();
+        ring.set((int) (slot % RECENT), ((long) x << 32) | (y & 0xffffffffL));
+    }
+
+    private static long pick(AtomicLongArray ring, AtomicLong written, Random random) {
+        long n = Math.min(written.get(), RECENT);
+        if (n == 0) {
+            return 0;
+        }
+        return ring.get(random.nextInt((int) n));
+    }
+
+    private static Map<String, Integer> parse(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            String[] kv = part.split(":");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            weights.put(kv[0].trim().toUpperCase(), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+}